@@ -0,0 +1,196 @@
+package hudson.plugins.s3;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Paces the requests of a JVM to a bucket once S3 asked to slow down, and speeds up again as they succeed.
+ *
+ * The rate is unlimited until the first throttling response. Each throttling response then halves the rate,
+ * at most once per {@link #DECREASE_INTERVAL} as a burst of requests is throttled together, and each success
+ * adds about one request per second every second. Once the rate is back above {@link #MAX_RATE} the limiter
+ * lets requests through unpaced again. There is a limiter per client and bucket, so all the uploads and
+ * downloads of a profile to a bucket slow down together instead of each retrying on its own.
+ * The limiters of a client are forgotten once the {@link ClientRegistry} shut it down.
+ */
+public final class AdaptiveRateLimiter {
+    // S3 serves 3,500 writes per second and prefix, past that the limiter has nothing to shape
+    static final double MAX_RATE = 3500;
+    static final double MIN_RATE = 1;
+    static final double DECREASE_FACTOR = 0.5;
+    static final long DECREASE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private static final ConcurrentMap<String, AdaptiveRateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    // requests per second, infinite when not limiting
+    private double rate = Double.POSITIVE_INFINITY;
+    private long nextRequest;
+    private long lastDecrease;
+    // requests of the current second, to know where to start from when throttled for the first time
+    private long windowStart;
+    private int windowRequests;
+    private int lastWindowRequests;
+
+    private long throttled;
+    private long waited;
+
+    AdaptiveRateLimiter() {}
+
+    /**
+     * The limiter of the client with the given key, for the bucket.
+     */
+    public static AdaptiveRateLimiter get(String clientKey, String bucketName) {
+        final String key = clientKey + '/' + bucketName;
+        AdaptiveRateLimiter limiter = LIMITERS.get(key);
+        if (limiter == null) {
+            final AdaptiveRateLimiter created = new AdaptiveRateLimiter();
+            limiter = LIMITERS.putIfAbsent(key, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Forgets the limiters of the client with the given key, once it is shut down.
+     */
+    static void forget(String clientKey) {
+        LIMITERS.keySet().removeIf(new Predicate<String>() {
+            @Override
+            public boolean test(String key) {
+                return key.startsWith(clientKey + '/');
+            }
+        });
+    }
+
+    static int size() {
+        return LIMITERS.size();
+    }
+
+    /**
+     * Waits for the turn of the next request.
+     *
+     * @return nanoseconds waited
+     */
+    public long acquire() throws InterruptedException {
+        final long wait = reserve(System.nanoTime());
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return wait;
+    }
+
+    // nanoseconds to wait before sending the request
+    synchronized long reserve(long now) {
+        if (now - windowStart >= TimeUnit.SECONDS.toNanos(1)) {
+            lastWindowRequests = windowRequests;
+            windowRequests = 0;
+            windowStart = now;
+        }
+        windowRequests++;
+
+        if (Double.isInfinite(rate)) {
+            return 0;
+        }
+        final long start = Math.max(now, nextRequest);
+        nextRequest = start + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        final long wait = start - now;
+        waited += wait;
+        return wait;
+    }
+
+    public synchronized void onSuccess() {
+        if (Double.isInfinite(rate)) {
+            return;
+        }
+        rate += 1 / rate;
+        if (rate > MAX_RATE) {
+            rate = Double.POSITIVE_INFINITY;
+            nextRequest = 0;
+        }
+    }
+
+    public void onThrottled() {
+        onThrottled(System.nanoTime());
+    }
+
+    synchronized void onThrottled(long now) {
+        throttled++;
+        if (!Double.isInfinite(rate) && now - lastDecrease < DECREASE_INTERVAL) {
+            return;
+        }
+        lastDecrease = now;
+        final double current = Double.isInfinite(rate) ? Math.min(MAX_RATE, Math.max(lastWindowRequests, windowRequests)) : rate;
+        rate = Math.max(MIN_RATE, current * DECREASE_FACTOR);
+    }
+
+    synchronized double getRate() {
+        return rate;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(throttled, waited, rate);
+    }
+
+    /**
+     * Rate of the limiter of the client and bucket, without creating it.
+     */
+    public static double getRate(String clientKey, String bucketName) {
+        final AdaptiveRateLimiter limiter = LIMITERS.get(clientKey + '/' + bucketName);
+        return limiter == null ? Double.POSITIVE_INFINITY : limiter.getRate();
+    }
+
+    /**
+     * What a limiter did since it was created, or the requests of a build met, as counted by a {@link ThrottlingTally}.
+     */
+    public static final class Stats implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long throttled;
+        private final long waited;
+        private final double rate;
+
+        Stats(long throttled, long waited, double rate) {
+            this.throttled = throttled;
+            this.waited = waited;
+            this.rate = rate;
+        }
+
+        /**
+         * How many requests S3 asked to slow down.
+         */
+        public long getThrottled() {
+            return throttled;
+        }
+
+        /**
+         * Nanoseconds requests were held back, all threads together.
+         */
+        public long getWaited() {
+            return waited;
+        }
+
+        /**
+         * Requests per second let through, infinite when not limiting.
+         */
+        public double getRate() {
+            return rate;
+        }
+
+        /**
+         * Describes what happened, {@code null} if S3 didn't throttle.
+         */
+        public String describe() {
+            if (throttled == 0) {
+                return null;
+            }
+            return String.format("S3 throttled %d requests, which were held back %d ms in total, current rate %s",
+                    throttled, TimeUnit.NANOSECONDS.toMillis(waited),
+                    Double.isInfinite(rate) ? "unlimited" : String.format("%.1f requests per second", rate));
+        }
+    }
+}
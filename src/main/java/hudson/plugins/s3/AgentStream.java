@@ -0,0 +1,228 @@
+package hudson.plugins.s3;
+
+import hudson.FilePath;
+import hudson.plugins.s3.callable.S3SendCallable;
+import hudson.remoting.Pipe;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Content of a file of an agent, sent to the master over several pipes at once.
+ *
+ * Chunk {@code n} comes through pipe {@code n % streams}, and a thread per pipe reads its chunks ahead
+ * into a bounded queue. When the upload stops reading, the queues fill up, the pipes stop being read,
+ * and the agent stops sending: memory stays bounded by streams times read-ahead chunks.
+ * The threads come from an executor shared by the files of an upload session, which must not bound them,
+ * as a pump holds its thread until its pipe is read to the end.
+ */
+public final class AgentStream extends InputStream {
+    // marks the end of a pipe which failed, the reason is in the pump
+    private static final byte[] FAILED = new byte[0];
+
+    private final long chunkCount;
+    private final List<Pump> pumps = new ArrayList<>();
+    private final List<Future<?>> running = new ArrayList<>();
+    private long nextChunk;
+    private byte[] chunk;
+    private int position;
+    private boolean closed;
+
+    private AgentStream(FilePath file, long length, AgentStreamSettings settings, ExecutorService executor)
+            throws IOException, InterruptedException {
+        final int chunkSize = settings.getChunkSize();
+        chunkCount = (length + chunkSize - 1) / chunkSize;
+        final int streams = (int) Math.min(settings.getStreams(), chunkCount);
+        try {
+            for (int i = 0; i < streams; i++) {
+                final Pipe pipe = Pipe.createRemoteToLocal();
+                final Future<Void> sender = file.actAsync(new S3SendCallable(pipe, length, chunkSize, i, streams, settings.isCompressed()));
+                final Pump pump = new Pump(file, pipe, sender, (chunkCount - i + streams - 1) / streams, settings.getReadAhead());
+                pumps.add(pump);
+                running.add(executor.submit(pump));
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the file, whose length must be given as it is known to the caller anyway.
+     *
+     * @param executor runs the threads reading the pipes, one per pipe while the file is read
+     */
+    public static InputStream open(FilePath file, long length, AgentStreamSettings settings, ExecutorService executor)
+            throws IOException, InterruptedException {
+        return new AgentStream(file, length, settings, executor);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        return chunk[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        final int read = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return chunk == null ? 0 : chunk.length - position;
+    }
+
+    // false at the end of the file
+    private boolean nextChunk() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        while (chunk == null || position == chunk.length) {
+            if (nextChunk == chunkCount) {
+                return false;
+            }
+            chunk = pumps.get((int) (nextChunk % pumps.size())).take();
+            position = 0;
+            nextChunk++;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Pump pump : pumps) {
+            pump.cancel();
+        }
+        // a pump waiting for room in its queue only stops once interrupted
+        for (Future<?> pump : running) {
+            pump.cancel(true);
+        }
+    }
+
+    /**
+     * Reads the chunks of one pipe ahead of the upload.
+     */
+    private static final class Pump implements Runnable {
+        private final FilePath file;
+        private final Pipe pipe;
+        private final Future<Void> sender;
+        private final long chunks;
+        private final BlockingQueue<byte[]> queue;
+        private volatile Throwable failure;
+
+        Pump(FilePath file, Pipe pipe, Future<Void> sender, long chunks, int readAhead) {
+            this.file = file;
+            this.pipe = pipe;
+            this.sender = sender;
+            this.chunks = chunks;
+            this.queue = new ArrayBlockingQueue<>(readAhead);
+        }
+
+        @Override
+        public void run() {
+            final Inflater inflater = new Inflater();
+            try (DataInputStream in = new DataInputStream(pipe.getIn())) {
+                for (long i = 0; i < chunks; i++) {
+                    final byte[] chunk = new byte[in.readInt()];
+                    final int wireLength = in.readInt();
+                    if (wireLength < chunk.length) {
+                        final byte[] deflated = new byte[wireLength];
+                        in.readFully(deflated);
+                        inflater.reset();
+                        inflater.setInput(deflated);
+                        if (inflater.inflate(chunk) != chunk.length || !inflater.finished()) {
+                            throw new IOException("Corrupted chunk of " + file);
+                        }
+                    } else {
+                        in.readFully(chunk);
+                    }
+                    queue.put(chunk);
+                }
+                sender.get();
+            } catch (EOFException e) {
+                // the pipe was closed early because the agent failed, its failure tells why
+                fail(senderFailure(e));
+            } catch (ExecutionException e) {
+                fail(e.getCause());
+            } catch (IOException | DataFormatException | RuntimeException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                // the stream was closed
+            } finally {
+                inflater.end();
+            }
+        }
+
+        private void fail(Throwable cause) {
+            failure = cause;
+            try {
+                // behind the chunks already read, so the upload gets them first
+                queue.put(FAILED);
+            } catch (InterruptedException e) {
+                // the stream was closed
+            }
+        }
+
+        private Throwable senderFailure(EOFException e) {
+            try {
+                sender.get();
+                return e;
+            } catch (ExecutionException x) {
+                return x.getCause();
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                return e;
+            }
+        }
+
+        byte[] take() throws IOException {
+            final byte[] chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException e) {
+                throw (IOException) new InterruptedIOException("Interrupted while reading " + file).initCause(e);
+            }
+            if (chunk == FAILED) {
+                throw new IOException("Failed to read " + file + " from its node", failure);
+            }
+            return chunk;
+        }
+
+        void cancel() {
+            sender.cancel(true);
+            try {
+                pipe.getIn().close();
+            } catch (IOException e) {
+                // nothing else to release
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package hudson.plugins.s3;
+
+/**
+ * How files are streamed from an agent to the master when the master uploads them.
+ *
+ * The file is cut into chunks, sent over several pipes at once, each pipe reading ahead a few chunks
+ * on the master. A single remoting pipe can't carry more than its window per round trip, so over a slow
+ * link the pipes and the read-ahead are what fill the link, as long as the upload keeps consuming.
+ */
+public final class AgentStreamSettings {
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final int streams;
+    private final int readAhead;
+    private final boolean compressed;
+
+    /**
+     * @param streams how many pipes carry a file at the same time
+     * @param readAhead how many chunks of each pipe are buffered on the master
+     * @param compressed whether chunks are deflated on the agent, those not getting smaller are sent as is
+     */
+    public AgentStreamSettings(int streams, int readAhead, boolean compressed) {
+        this.streams = Math.max(1, streams);
+        this.readAhead = Math.max(1, readAhead);
+        this.compressed = compressed;
+    }
+
+    public int getStreams() {
+        return streams;
+    }
+
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public int getChunkSize() {
+        return CHUNK_SIZE;
+    }
+}
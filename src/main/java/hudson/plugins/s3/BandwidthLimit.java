@@ -0,0 +1,149 @@
+package hudson.plugins.s3;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * The bandwidth cap of a profile, and the build a transfer is made for, sent along with the transfer to the node
+ * making it. The cap is enforced by the {@link BandwidthThrottle} of the profile in the JVM of that node.
+ */
+public final class BandwidthLimit implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // transfers are paced by chunks of this size at most
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final String profile;
+    private final long bytesPerSecond;
+    private final String build;
+
+    /**
+     * @param build identifies the build the transfers are made for, each build getting its share
+     */
+    public BandwidthLimit(String profile, long bytesPerSecond, String build) {
+        this.profile = profile;
+        this.bytesPerSecond = bytesPerSecond;
+        this.build = build;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Paces the reads from the stream, which joins the share of the build until closed.
+     */
+    public InputStream throttle(InputStream in) {
+        final BandwidthThrottle throttle = BandwidthThrottle.get(profile);
+        return new ThrottledInputStream(in, throttle, throttle.join(build, System.nanoTime()));
+    }
+
+    /**
+     * Paces the writes to the stream, which joins the share of the build until closed.
+     */
+    public OutputStream throttle(OutputStream out) {
+        final BandwidthThrottle throttle = BandwidthThrottle.get(profile);
+        return new ThrottledOutputStream(out, throttle, throttle.join(build, System.nanoTime()));
+    }
+
+    private final class ThrottledInputStream extends FilterInputStream {
+        private final BandwidthThrottle throttle;
+        private final BandwidthThrottle.Share share;
+        private boolean closed;
+
+        ThrottledInputStream(InputStream in, BandwidthThrottle throttle, BandwidthThrottle.Share share) {
+            super(in);
+            this.throttle = throttle;
+            this.share = share;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                throttle.acquire(share, 1, bytesPerSecond);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = super.read(b, off, Math.min(len, CHUNK_SIZE));
+            if (read > 0) {
+                throttle.acquire(share, read, bytesPerSecond);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes are received all the same
+            final byte[] buffer = new byte[(int) Math.min(n, CHUNK_SIZE)];
+            long skipped = 0;
+            while (skipped < n) {
+                final int read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+                if (read < 0) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!closed) {
+                    closed = true;
+                    throttle.leave(share);
+                }
+            }
+        }
+    }
+
+    private final class ThrottledOutputStream extends FilterOutputStream {
+        private final BandwidthThrottle throttle;
+        private final BandwidthThrottle.Share share;
+        private boolean closed;
+
+        ThrottledOutputStream(OutputStream out, BandwidthThrottle throttle, BandwidthThrottle.Share share) {
+            super(out);
+            this.throttle = throttle;
+            this.share = share;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            throttle.acquire(share, 1, bytesPerSecond);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int written = 0; written < len; ) {
+                final int chunk = Math.min(len - written, CHUNK_SIZE);
+                throttle.acquire(share, chunk, bytesPerSecond);
+                out.write(b, off + written, chunk);
+                written += chunk;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!closed) {
+                    closed = true;
+                    throttle.leave(share);
+                }
+            }
+        }
+    }
+}
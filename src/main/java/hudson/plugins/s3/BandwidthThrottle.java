@@ -0,0 +1,105 @@
+package hudson.plugins.s3;
+
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the bytes per second the transfers of a profile send and receive in a JVM, the master's or an agent's.
+ *
+ * Each build with transfers running gets an equal share of the bandwidth, which its own transfers share in turn,
+ * so a build publishing gigabytes doesn't starve the one copying a few artifacts next to it. Each share is a
+ * token bucket refilled at its rate, which may send up to {@link #BURST} ahead; transfers past that wait until
+ * their bytes are paid for.
+ */
+public final class BandwidthThrottle {
+    static final long BURST = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private static final ConcurrentMap<String, BandwidthThrottle> THROTTLES = new ConcurrentHashMap<>();
+
+    // the builds with transfers running, by the id of the build
+    private final Map<String, Share> shares = new HashMap<>();
+
+    BandwidthThrottle() {}
+
+    /**
+     * The throttle of the profile in this JVM.
+     */
+    public static BandwidthThrottle get(String profile) {
+        BandwidthThrottle throttle = THROTTLES.get(profile);
+        if (throttle == null) {
+            final BandwidthThrottle created = new BandwidthThrottle();
+            throttle = THROTTLES.putIfAbsent(profile, created);
+            if (throttle == null) {
+                throttle = created;
+            }
+        }
+        return throttle;
+    }
+
+    /**
+     * Starts a transfer of the build, which must {@link #leave(Share)} once done.
+     */
+    synchronized Share join(String build, long now) {
+        Share share = shares.get(build);
+        if (share == null) {
+            share = new Share(build, now);
+            shares.put(build, share);
+        }
+        share.transfers++;
+        return share;
+    }
+
+    synchronized void leave(Share share) {
+        if (--share.transfers == 0) {
+            shares.remove(share.build);
+        }
+    }
+
+    synchronized int getShareCount() {
+        return shares.size();
+    }
+
+    /**
+     * Waits until the bytes may be sent or received.
+     */
+    void acquire(Share share, long bytes, long bytesPerSecond) throws InterruptedIOException {
+        final long wait = reserve(share, bytes, bytesPerSecond, System.nanoTime());
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+            }
+        }
+    }
+
+    // nanoseconds to wait before the bytes are paid for, the bytes are taken from the share anyway
+    synchronized long reserve(Share share, long bytes, long bytesPerSecond, long now) {
+        final double rate = (double) bytesPerSecond / Math.max(1, shares.size());
+        final double second = TimeUnit.SECONDS.toNanos(1);
+        share.tokens = Math.min(rate * BURST / second, share.tokens + rate * (now - share.refilled) / second);
+        share.refilled = now;
+        share.tokens -= bytes;
+        return share.tokens >= 0 ? 0 : (long) (-share.tokens * second / rate);
+    }
+
+    /**
+     * Bandwidth of a build, in debt while its transfers wait.
+     */
+    static final class Share {
+        private final String build;
+        private int transfers;
+        private double tokens;
+        private long refilled;
+
+        private Share(String build, long now) {
+            this.build = build;
+            this.refilled = now;
+        }
+    }
+}
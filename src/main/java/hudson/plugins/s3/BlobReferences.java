@@ -0,0 +1,155 @@
+package hudson.plugins.s3;
+
+import hudson.model.Job;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Which builds of a job reference each blob of the content-addressed layout, so that deleting a build
+ * only deletes the blobs no other build uses.
+ *
+ * The references are kept in a file of the job directory, read the first time they are needed and written
+ * whenever they change, so that the history of the job never has to be loaded to find them. A build adds its
+ * references before uploading anything, so that a build still running keeps its blobs even though its artifacts
+ * aren't recorded yet. Deleting blobs is done holding the lock of the references, so that no upload starts relying
+ * on a blob being deleted. A blob missing from the references is never deleted.
+ */
+final class BlobReferences {
+    static final String FILE_NAME = "s3-blob-references.txt";
+    private static final Logger LOGGER = Logger.getLogger(BlobReferences.class.getName());
+    // dropped with their job
+    private static final Map<Job<?, ?>, BlobReferences> JOBS = new WeakHashMap<>();
+
+    // one line per blob: its destination, a tab and the numbers of the builds referencing it; null when not kept
+    @CheckForNull
+    private final File file;
+    // numbers of the builds referencing each blob, by its destination
+    private final Map<String, Set<Integer>> builds = new HashMap<>();
+
+    BlobReferences() {
+        this(null);
+    }
+
+    BlobReferences(@CheckForNull File file) {
+        this.file = file;
+    }
+
+    /**
+     * The references of the job, read from its directory if nothing asked for them yet.
+     */
+    static synchronized BlobReferences of(Job<?, ?> job) {
+        final File file = new File(job.getRootDir(), FILE_NAME);
+        BlobReferences references = JOBS.get(job);
+        // a renamed job moved its directory, and the file with it
+        if (references == null || !file.equals(references.file)) {
+            references = load(file);
+            JOBS.put(job, references);
+        }
+        return references;
+    }
+
+    static BlobReferences load(File file) {
+        final BlobReferences references = new BlobReferences(file);
+        if (!file.exists()) {
+            return references;
+        }
+        try {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                final int tab = line.lastIndexOf('\t');
+                if (tab < 0) {
+                    continue;
+                }
+                final Set<Integer> referencing = new HashSet<>();
+                for (String build : line.substring(tab + 1).split(",")) {
+                    referencing.add(Integer.parseInt(build));
+                }
+                references.builds.put(line.substring(0, tab), referencing);
+            }
+        } catch (IOException | NumberFormatException e) {
+            // the blobs left out are kept rather than deleted
+            LOGGER.log(Level.WARNING, "Failed to read blob references " + file, e);
+        }
+        return references;
+    }
+
+    static boolean isBlob(FingerprintRecord record) {
+        return record.getArtifact().getBlob() != null && record.getArtifact().getPackLocation() == null;
+    }
+
+    /**
+     * Records that the build references the blobs, failing if it can't be recorded, as they could be deleted otherwise.
+     */
+    synchronized void add(int build, Collection<String> blobs) throws IOException {
+        boolean changed = false;
+        for (String blob : blobs) {
+            Set<Integer> referencing = builds.get(blob);
+            if (referencing == null) {
+                referencing = new HashSet<>();
+                builds.put(blob, referencing);
+            }
+            changed |= referencing.add(build);
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    /**
+     * Forgets the references of a deleted build.
+     *
+     * @return the blobs the build referenced and no other build does
+     */
+    synchronized Set<String> release(int build) {
+        final Set<String> unreferenced = new HashSet<>();
+        for (Iterator<Map.Entry<String, Set<Integer>>> it = builds.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<String, Set<Integer>> entry = it.next();
+            if (entry.getValue().remove(build) && entry.getValue().isEmpty()) {
+                it.remove();
+                unreferenced.add(entry.getKey());
+            }
+        }
+        if (!unreferenced.isEmpty()) {
+            try {
+                save();
+            } catch (IOException e) {
+                // the blobs are deleted anyway, and deleting them again later does no harm
+                LOGGER.log(Level.WARNING, "Failed to write blob references " + file, e);
+            }
+        }
+        return unreferenced;
+    }
+
+    // replaces the file at once, so that a crash leaves either the old or the new references
+    private void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        final List<String> lines = new ArrayList<>(builds.size());
+        for (Map.Entry<String, Set<Integer>> entry : builds.entrySet()) {
+            final StringBuilder line = new StringBuilder(entry.getKey()).append('\t');
+            for (int build : entry.getValue()) {
+                line.append(build).append(',');
+            }
+            lines.add(line.substring(0, line.length() - 1));
+        }
+        final File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), lines, StandardCharsets.UTF_8);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,59 @@
+package hudson.plugins.s3;
+
+/**
+ * Memory shared by the part buffers of the multipart uploads of this JVM, whatever the number of uploads.
+ *
+ * The first buffer of an upload waits until there is room for it. Further buffers are only taken
+ * while there is room, an upload short of it sending one part at a time instead, so that uploads
+ * holding some of the budget never wait for each other. A buffer larger than the whole budget is
+ * let through once nothing else is held.
+ */
+final class BufferBudget {
+    // a quarter of the heap unless set with -Dhudson.plugins.s3.BufferBudget.maxBytes
+    static final BufferBudget SHARED = new BufferBudget(
+            Long.getLong(BufferBudget.class.getName() + ".maxBytes", Runtime.getRuntime().maxMemory() / 4));
+
+    private final long limit;
+    // guarded by this
+    private long held;
+
+    BufferBudget(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Waits until there is room for the given bytes and takes them.
+     */
+    synchronized void acquire(long bytes) throws InterruptedException {
+        while (!fits(bytes)) {
+            wait();
+        }
+        held += bytes;
+    }
+
+    /**
+     * Takes the given bytes if there is room for them.
+     */
+    synchronized boolean tryAcquire(long bytes) {
+        if (!fits(bytes)) {
+            return false;
+        }
+        held += bytes;
+        return true;
+    }
+
+    synchronized void release(long bytes) {
+        if (bytes > 0) {
+            held -= bytes;
+            notifyAll();
+        }
+    }
+
+    synchronized long getHeld() {
+        return held;
+    }
+
+    private boolean fits(long bytes) {
+        return held == 0 || held + bytes <= limit;
+    }
+}
@@ -1,12 +1,15 @@
 package hudson.plugins.s3;
 
 import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.handlers.RequestHandler2;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.RegionUtils;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import hudson.ProxyConfiguration;
 
 import java.util.regex.Pattern;
@@ -20,10 +23,17 @@ public class ClientHelper {
             com.amazonaws.services.s3.model.Region.US_Standard.toAWSRegion().getName());
 
     public static AmazonS3Client createClient(String accessKey, String secretKey, boolean useRole, String region, ProxyConfiguration proxy)
+    {
+        return createClient(accessKey, secretKey, useRole, region, proxy, ConnectionSettings.DEFAULT);
+    }
+
+    public static AmazonS3Client createClient(String accessKey, String secretKey, boolean useRole, String region, ProxyConfiguration proxy,
+                                              @Nonnull ConnectionSettings connection)
     {
         Region awsRegion = getRegionFromString(region);
 
         ClientConfiguration clientConfiguration = getClientConfiguration(proxy, awsRegion);
+        connection.apply(clientConfiguration);
 
         final AmazonS3Client client;
         if (useRole) {
@@ -37,6 +47,29 @@ public class ClientHelper {
         return client;
     }
 
+    /**
+     * Builds a client which runs the given handlers around its requests.
+     * Buckets of other regions than the given one are still reached, as with the clients of {@link #createClient}.
+     */
+    public static AmazonS3 buildClient(String accessKey, String secretKey, boolean useRole, String region, ProxyConfiguration proxy,
+                                       @Nonnull ConnectionSettings connection, RequestHandler2... requestHandlers)
+    {
+        final Region awsRegion = getRegionFromString(region);
+
+        final ClientConfiguration clientConfiguration = getClientConfiguration(proxy, awsRegion);
+        connection.apply(clientConfiguration);
+
+        final AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard()
+                .withClientConfiguration(clientConfiguration)
+                .withRegion(awsRegion.getName())
+                .withForceGlobalBucketAccessEnabled(true)
+                .withRequestHandlers(requestHandlers);
+        if (!useRole) {
+            builder.withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKey, secretKey)));
+        }
+        return builder.build();
+    }
+
     /**
      * Gets the {@link Region} from its name with backward compatibility concerns and defaulting
      *
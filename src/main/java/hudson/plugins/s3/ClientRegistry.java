@@ -0,0 +1,250 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.s3.AmazonS3;
+import hudson.ProxyConfiguration;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.Secret;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * S3 clients shared by the uploads and downloads of a JVM, the master's or an agent's.
+ *
+ * There is a client per credentials, region, proxy and connection settings, each with its connection pool.
+ * Clients are leased while used, and a client nobody leased for {@link #IDLE_TIMEOUT} is shut down, as is
+ * the least recently used one when there are more than {@link #MAX_SIZE}. Clients in use are never shut
+ * down under their users: when the configuration changes they are retired, and shut down once released.
+ * The {@link AdaptiveRateLimiter}s of a client go with it.
+ */
+public final class ClientRegistry {
+    private static final Logger LOGGER = Logger.getLogger(ClientRegistry.class.getName());
+
+    static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+    static final int MAX_SIZE = 16;
+    private static final long SWEEP_PERIOD = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ClientRegistry INSTANCE = new ClientRegistry(new ClientFactory() {
+        @Override
+        public AmazonS3 create(String accessKey, Secret secretKey, boolean useRole, String region, ProxyConfiguration proxy,
+                               ConnectionSettings connection, RequestHandler2 requestHandler) {
+            return ClientHelper.buildClient(accessKey, Secret.toString(secretKey), useRole, region, proxy, connection, requestHandler);
+        }
+    });
+
+    static {
+        final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(
+                new NamingThreadFactory(new DaemonThreadFactory(), "S3 client registry"));
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                INSTANCE.evictIdle(System.currentTimeMillis());
+            }
+        }, SWEEP_PERIOD, SWEEP_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    // in access order, so the least recently used client comes first
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ClientFactory factory;
+
+    ClientRegistry(ClientFactory factory) {
+        this.factory = factory;
+    }
+
+    public static ClientRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Leases the client of the given credentials, region, proxy and connection settings, creating it if needed.
+     * The client must not be used once the lease is closed.
+     */
+    public Lease lease(String accessKey, Secret secretKey, boolean useRole, String region, ProxyConfiguration proxy,
+                       ConnectionSettings connection) {
+        final String key = getKey(accessKey, secretKey, useRole, region, proxy, connection);
+        final List<Entry> evicted;
+        final Lease lease;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                final AmazonS3 client = factory.create(accessKey, secretKey, useRole, region, proxy, connection,
+                        new ThrottlingRequestHandler(key));
+                entry = new Entry(key, client);
+                entries.put(key, entry);
+            }
+            entry.leases++;
+            entry.lastUsed = System.currentTimeMillis();
+            lease = new Lease(entry);
+            evicted = trimToSize();
+        }
+        shutdown(evicted);
+        return lease;
+    }
+
+    /**
+     * Forgets every client, as the configuration they were created with changed.
+     * Idle clients are shut down now, the others when released.
+     */
+    public void invalidateAll() {
+        final List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                entry.retired = true;
+                if (entry.leases == 0) {
+                    evicted.add(entry);
+                }
+            }
+            entries.clear();
+        }
+        shutdown(evicted);
+    }
+
+    /**
+     * Shuts down the clients nobody used since {@link #IDLE_TIMEOUT} before the given time.
+     */
+    void evictIdle(long now) {
+        final List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+                final Entry entry = it.next();
+                if (entry.leases == 0 && now - entry.lastUsed > IDLE_TIMEOUT) {
+                    it.remove();
+                    evicted.add(entry);
+                }
+            }
+        }
+        shutdown(evicted);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    // clients in use are kept even above the maximum, they are trimmed once released
+    private List<Entry> trimToSize() {
+        final List<Entry> evicted = new ArrayList<>();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext() && entries.size() > MAX_SIZE; ) {
+            final Entry entry = it.next();
+            if (entry.leases == 0) {
+                it.remove();
+                evicted.add(entry);
+            }
+        }
+        return evicted;
+    }
+
+    private void release(Entry entry) {
+        final boolean retired;
+        synchronized (this) {
+            entry.leases--;
+            entry.lastUsed = System.currentTimeMillis();
+            retired = entry.retired && entry.leases == 0;
+        }
+        if (retired) {
+            shutdown(Collections.singletonList(entry));
+        }
+    }
+
+    private void shutdown(List<Entry> evicted) {
+        for (Entry entry : evicted) {
+            entry.shutdown();
+            synchronized (this) {
+                if (entries.containsKey(entry.key)) {
+                    // a client of the same settings replaced it, and goes on with its limiters
+                    continue;
+                }
+            }
+            AdaptiveRateLimiter.forget(entry.key);
+        }
+    }
+
+    /**
+     * Identifies the client of the given settings, the credentials are part of it but not in clear.
+     */
+    static String getKey(String accessKey, Secret secretKey, boolean useRole, String region, ProxyConfiguration proxy,
+                         ConnectionSettings connection) {
+        final StringBuilder key = new StringBuilder()
+                .append(region).append('\n')
+                .append(connection.getKey()).append('\n')
+                .append(useRole).append('\n')
+                .append(accessKey).append('\n')
+                .append(Secret.toString(secretKey)).append('\n');
+        if (proxy != null) {
+            key.append(proxy.name).append('\n')
+                    .append(proxy.port).append('\n')
+                    .append(proxy.noProxyHost).append('\n')
+                    .append(proxy.getUserName()).append('\n')
+                    .append(proxy.getPassword());
+        }
+        return DigestUtils.sha256Hex(key.toString());
+    }
+
+    interface ClientFactory {
+        /**
+         * @param requestHandler runs around every request of the client
+         */
+        AmazonS3 create(String accessKey, Secret secretKey, boolean useRole, String region, ProxyConfiguration proxy,
+                        ConnectionSettings connection, RequestHandler2 requestHandler);
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final AmazonS3 client;
+        private int leases;
+        private long lastUsed;
+        private boolean retired;
+
+        Entry(String key, AmazonS3 client) {
+            this.key = key;
+            this.client = client;
+        }
+
+        void shutdown() {
+            try {
+                client.shutdown();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to shut down S3 client", e);
+            }
+        }
+    }
+
+    /**
+     * Use of a client, to close once done with it.
+     */
+    public final class Lease implements Closeable {
+        private final Entry entry;
+        private boolean closed;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public AmazonS3 getClient() {
+            return entry.client;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release(entry);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package hudson.plugins.s3;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Codecs used to compress uploaded files, identified by the {@code Content-Encoding} they are stored with.
+ *
+ * Only codecs which work on any agent without installing anything are offered: gzip comes with the JDK,
+ * and zstd-jni bundles its native library for the usual platforms in its one jar. Brotli isn't offered,
+ * as the Java library of its authors only decodes, and its JNI encoders need a native artifact per platform.
+ */
+public enum Compression {
+    // the level is ignored
+    NONE(null, "None", Integer.MIN_VALUE, Integer.MAX_VALUE) {
+        @Override
+        OutputStream newOutputStream(OutputStream out, int level, int threads) {
+            return out;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            return in;
+        }
+    },
+
+    GZIP("gzip", "gzip", Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION) {
+        @Override
+        OutputStream newOutputStream(OutputStream out, int level, int threads) throws IOException {
+            final int gzipLevel = level == 0 ? Deflater.DEFAULT_COMPRESSION : level;
+            if (threads <= 1) {
+                return new GZIPOutputStream(out, BUFFER_SIZE) {
+                    {
+                        def.setLevel(gzipLevel);
+                    }
+                };
+            }
+            // the threads bound the blocks of the stream in flight, the shared pool the threads of all streams
+            return new ParallelGzipOutputStream(out, GzipPool.POOL, threads, gzipLevel);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+    },
+
+    ZSTD("zstd", "zstd", 1, 22) {
+        @Override
+        OutputStream newOutputStream(OutputStream out, int level, int threads) throws IOException {
+            final ZstdOutputStream zstd = new ZstdOutputStream(out, level == 0 ? 3 : level);
+            if (threads > 1) {
+                zstd.setWorkers(threads);
+            }
+            return zstd;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new ZstdInputStream(in);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // created once a stream is compressed on several threads, its idle daemon threads end by themselves
+    private static final class GzipPool {
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    private final String contentEncoding;
+    private final String displayName;
+    private final int minLevel;
+    private final int maxLevel;
+
+    Compression(String contentEncoding, String displayName, int minLevel, int maxLevel) {
+        this.contentEncoding = contentEncoding;
+        this.displayName = displayName;
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+    }
+
+    /**
+     * Value of the {@code Content-Encoding} header of compressed objects, {@code null} when not compressed.
+     */
+    @CheckForNull
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Whether the codec takes the given level, 0 standing for its default.
+     */
+    public boolean isValidLevel(int level) {
+        return level == 0 || level >= minLevel && level <= maxLevel;
+    }
+
+    /**
+     * Fails unless the codec takes the given level.
+     */
+    public void checkLevel(int level) {
+        if (!isValidLevel(level)) {
+            throw new IllegalArgumentException(displayName + " compression level must be between " + minLevel + " and " + maxLevel
+                    + ", or 0 for the default, not " + level);
+        }
+    }
+
+    /**
+     * Compresses whatever is written to the returned stream into {@code out}.
+     * Closing the returned stream finishes the compressed stream but leaves {@code out} open.
+     *
+     * @param level codec specific compression level, 0 for the codec's default
+     * @param threads how many threads may compress a single stream
+     * @throws IllegalArgumentException if the codec doesn't take the level
+     */
+    public OutputStream compress(OutputStream out, int level, int threads) throws IOException {
+        checkLevel(level);
+        return newOutputStream(new CloseShieldOutputStream(out), level, threads);
+    }
+
+    abstract OutputStream newOutputStream(OutputStream out, int level, int threads) throws IOException;
+
+    public abstract InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * Finds the codec which decodes objects stored with the given {@code Content-Encoding},
+     * {@link #NONE} when the content isn't encoded or the encoding is unknown.
+     */
+    public static Compression fromContentEncoding(@CheckForNull String contentEncoding) {
+        if (contentEncoding != null) {
+            for (Compression compression : values()) {
+                if (contentEncoding.trim().equalsIgnoreCase(compression.contentEncoding)) {
+                    return compression;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Parses the name stored in the configuration, {@code null} if empty or unknown.
+     */
+    @CheckForNull
+    public static Compression fromName(@CheckForNull String name) {
+        if (name == null || name.isEmpty()) {
+            return null;
+        }
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.ClientConfiguration;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP connection settings of the S3 clients of a profile, on the master and on agents.
+ * A value of 0 keeps the default of the AWS SDK.
+ */
+public final class ConnectionSettings implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final ConnectionSettings DEFAULT = new ConnectionSettings(0, 0, 0, 0, false, 0, 0, 0);
+
+    private final int maxConnections;
+    private final int connectionTtl;
+    private final int socketSendBufferSize;
+    private final int socketReceiveBufferSize;
+    private final boolean tcpKeepAlive;
+    private final int requestTimeout;
+    private final int socketTimeout;
+    private final int idleConnectionTimeout;
+
+    /**
+     * @param connectionTtl seconds a pooled connection is kept, whether used or not
+     * @param socketSendBufferSize hint of the size of the socket send buffer, in KB
+     * @param socketReceiveBufferSize hint of the size of the socket receive buffer, in KB
+     * @param requestTimeout seconds a whole request may take
+     * @param socketTimeout seconds the socket may wait for data
+     * @param idleConnectionTimeout seconds after which idle connections are closed by the reaper
+     */
+    public ConnectionSettings(int maxConnections, int connectionTtl, int socketSendBufferSize, int socketReceiveBufferSize,
+                              boolean tcpKeepAlive, int requestTimeout, int socketTimeout, int idleConnectionTimeout) {
+        this.maxConnections = maxConnections;
+        this.connectionTtl = connectionTtl;
+        this.socketSendBufferSize = socketSendBufferSize;
+        this.socketReceiveBufferSize = socketReceiveBufferSize;
+        this.tcpKeepAlive = tcpKeepAlive;
+        this.requestTimeout = requestTimeout;
+        this.socketTimeout = socketTimeout;
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+
+    public void apply(ClientConfiguration configuration) {
+        if (maxConnections > 0) {
+            configuration.setMaxConnections(maxConnections);
+        }
+        if (connectionTtl > 0) {
+            configuration.setConnectionTTL(TimeUnit.SECONDS.toMillis(connectionTtl));
+        }
+        if (socketSendBufferSize > 0 || socketReceiveBufferSize > 0) {
+            // a hint of 0 leaves that buffer to the OS
+            configuration.setSocketBufferSizeHints(socketSendBufferSize * 1024, socketReceiveBufferSize * 1024);
+        }
+        if (tcpKeepAlive) {
+            configuration.setUseTcpKeepAlive(true);
+        }
+        if (requestTimeout > 0) {
+            configuration.setRequestTimeout((int) TimeUnit.SECONDS.toMillis(requestTimeout));
+        }
+        if (socketTimeout > 0) {
+            configuration.setSocketTimeout((int) TimeUnit.SECONDS.toMillis(socketTimeout));
+        }
+        if (idleConnectionTimeout > 0) {
+            configuration.setUseReaper(true);
+            configuration.setConnectionMaxIdleMillis(TimeUnit.SECONDS.toMillis(idleConnectionTimeout));
+        }
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getConnectionTtl() {
+        return connectionTtl;
+    }
+
+    public int getSocketSendBufferSize() {
+        return socketSendBufferSize;
+    }
+
+    public int getSocketReceiveBufferSize() {
+        return socketReceiveBufferSize;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public int getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public int getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    /**
+     * Identifies the settings, clients created with the same key are configured the same.
+     */
+    String getKey() {
+        return maxConnections + "," + connectionTtl + ',' + socketSendBufferSize + ',' + socketReceiveBufferSize + ','
+                + tcpKeepAlive + ',' + requestTimeout + ',' + socketTimeout + ',' + idleConnectionTimeout;
+    }
+}
@@ -48,21 +48,34 @@ public class Destination implements Serializable {
 
   public static Destination newFromRun(Run run, String bucketName, String fileName, boolean enableFullpath)
   {
-    final String projectName;
-
-    if (enableFullpath) {
-      projectName = run.getParent().getFullName();
-    }
-    else {
-      projectName = run.getParent().getName();
-    }
-
     int buildID = run.getNumber();
-    return new Destination(bucketName, "jobs/" + projectName + "/" + buildID + "/" + fileName);
+    return new Destination(bucketName, "jobs/" + getProjectName(run, enableFullpath) + "/" + buildID + "/" + fileName);
+  }
+
+  /**
+   * Destination of a blob of the content-addressed layout, shared by all builds of the job.
+   */
+  public static Destination newBlobFromRun(Run run, String bucketName, String blob, boolean enableFullpath)
+  {
+    return new Destination(bucketName, "jobs/" + getProjectName(run, enableFullpath) + "/blobs/" + blob);
   }
 
   public static Destination newFromRun(Run run, S3Artifact artifact) 
   {
+    if (artifact.getPackLocation() != null) {
+      return newFromRun(run, artifact.getBucket(), artifact.getPackLocation().getPack(), artifact.useFullProjectName());
+    }
+    if (artifact.getBlob() != null) {
+      return newBlobFromRun(run, artifact.getBucket(), artifact.getBlob(), artifact.useFullProjectName());
+    }
     return newFromRun(run, artifact.getBucket(), artifact.getName(), artifact.useFullProjectName());
   }
+
+  private static String getProjectName(Run run, boolean enableFullpath)
+  {
+    if (enableFullpath) {
+      return run.getParent().getFullName();
+    }
+    return run.getParent().getName();
+  }
 }
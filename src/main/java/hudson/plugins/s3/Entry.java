@@ -6,8 +6,11 @@ import com.amazonaws.services.s3.AmazonS3;
 import hudson.Extension;
 import hudson.model.Describable;
 import hudson.model.Descriptor;
+import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 
 import java.util.List;
 
@@ -74,6 +77,41 @@ public final class Entry implements Describable<Entry> {
     */
     public boolean gzipFiles;
 
+    /**
+     * Name of the {@link Compression} codec, takes precedence over {@link #gzipFiles} when set
+     */
+    public String compression;
+
+    /**
+     * Codec specific compression level, 0 for the codec's default
+     */
+    public int compressionLevel;
+
+    /**
+     * Multipart threshold in MB overriding the profile's one, 0 to use the profile's
+     */
+    public int multipartThreshold;
+
+    /**
+     * Multipart part size in MB overriding the profile's one, 0 to use the profile's
+     */
+    public int multipartPartSize;
+
+    /**
+     * Don't upload files whose content is already stored at their destination
+     */
+    public boolean skipUnchanged;
+
+    /**
+     * Store managed artifacts once per content in blobs shared by the builds of the job
+     */
+    public boolean contentAddressed;
+
+    /**
+     * Managed artifacts smaller than this, in KB, are packed together, 0 to upload every file on its own
+     */
+    public int packThreshold;
+
     /**
      * show content of entity directly in browser
      */
@@ -111,6 +149,60 @@ public final class Entry implements Describable<Entry> {
         this.showDirectlyInBrowser = showDirectlyInBrowser;
     }
 
+    @DataBoundSetter
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    @DataBoundSetter
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    @DataBoundSetter
+    public void setMultipartThreshold(int multipartThreshold) {
+        this.multipartThreshold = multipartThreshold;
+    }
+
+    @DataBoundSetter
+    public void setMultipartPartSize(int multipartPartSize) {
+        this.multipartPartSize = multipartPartSize;
+    }
+
+    @DataBoundSetter
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    @DataBoundSetter
+    public void setContentAddressed(boolean contentAddressed) {
+        this.contentAddressed = contentAddressed;
+    }
+
+    @DataBoundSetter
+    public void setPackThreshold(int packThreshold) {
+        this.packThreshold = packThreshold;
+    }
+
+    public long getPackThresholdBytes() {
+        return Math.max(0, packThreshold) * 1024L;
+    }
+
+    /**
+     * Codec the files of this entry are compressed with.
+     */
+    public Compression getCompressionCodec() {
+        return getCompressionCodec(compression, gzipFiles);
+    }
+
+    private static Compression getCompressionCodec(String compression, boolean gzipFiles) {
+        final Compression codec = Compression.fromName(compression);
+        if (codec != null) {
+            return codec;
+        }
+        return gzipFiles ? Compression.GZIP : Compression.NONE;
+    }
+
     @Override
     public Descriptor<Entry> getDescriptor() {
         return DESCRIPOR;
@@ -134,6 +226,25 @@ public final class Entry implements Describable<Entry> {
             return model;
         }
 
+        public ListBoxModel doFillCompressionItems() {
+            final ListBoxModel model = new ListBoxModel();
+            model.add("Use \"GZIP files\"", "");
+            for (Compression c : Compression.values()) {
+                model.add(c.getDisplayName(), c.name());
+            }
+            return model;
+        }
+
+        public FormValidation doCheckCompressionLevel(@QueryParameter String compression, @QueryParameter boolean gzipFiles,
+                                                      @QueryParameter int value) {
+            try {
+                getCompressionCodec(compression, gzipFiles).checkLevel(value);
+                return FormValidation.ok();
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+
         public ListBoxModel doFillSelectedRegionItems() {
             final ListBoxModel model = new ListBoxModel();
             for (Region r : regions) {
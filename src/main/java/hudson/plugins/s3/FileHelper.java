@@ -1,43 +1,15 @@
 package hudson.plugins.s3;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import org.apache.tools.ant.types.selectors.FilenameSelector;
-
 import java.io.File;
 
 public class FileHelper {
 
-    @SuppressFBWarnings("DMI_HARDCODED_ABSOLUTE_FILENAME")
+    /**
+     * Whether the name is selected by the comma separated patterns. Filters applied to many names
+     * should be compiled once with {@link GlobFilter#compile(String, String)} instead.
+     */
     public static boolean selected(String includeFilter, String excludeFilter, String filename) {
-        if (includeFilter == null) {
-            return false;
-        }
-
-        final FilenameSelector positiveSelector = new FilenameSelector();
-        final FilenameSelector negativeSelector = new FilenameSelector();
-
-        if (excludeFilter != null) {
-            final String[] excludeFilters = excludeFilter.split(",");
-
-            for (String exclude : excludeFilters) {
-                negativeSelector.setName(exclude.trim());
-
-                if (negativeSelector.isSelected(new File("/"), filename, null)) {
-                    return false;
-                }
-            }
-        }
-
-        final String[] includeFilters = includeFilter.split(",");
-
-        for (String include : includeFilters) {
-            positiveSelector.setName(include.trim());
-
-            if (positiveSelector.isSelected(new File("/"), filename, null))
-                return true;
-        }
-
-        return false;
+        return GlobFilter.compile(includeFilter, excludeFilter).matches(filename);
     }
 
     public static int getSearchPathLength(String workSpace, String filterExpanded, boolean alwaysKeepParentDirectory) {
@@ -60,4 +32,4 @@ public class FileHelper {
             return file2.getParent().length() + 1;
         }
     }
-}
\ No newline at end of file
+}
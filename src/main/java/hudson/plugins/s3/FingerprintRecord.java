@@ -21,8 +21,16 @@ public class FingerprintRecord implements Serializable {
 
 
     public FingerprintRecord(boolean produced, String bucket, String name, String region, String md5sum) {
+        this(produced, bucket, name, region, md5sum, null);
+    }
+
+    public FingerprintRecord(boolean produced, String bucket, String name, String region, String md5sum, String blob) {
+        this(produced, new S3Artifact(region, bucket, name, blob), md5sum);
+    }
+
+    public FingerprintRecord(boolean produced, S3Artifact artifact, String md5sum) {
         this.produced = produced;
-        this.artifact = new S3Artifact(region, bucket, name);
+        this.artifact = artifact;
         this.md5sum = md5sum;
         this.showDirectlyInBrowser = false;
         this.keepForever = false;
@@ -0,0 +1,305 @@
+package hudson.plugins.s3;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Include and exclude patterns compiled once, matching names as {@link FileHelper#selected(String, String, String)}
+ * used to with Ant's {@code FilenameSelector}: the patterns are comma separated, {@code **} matches any number of
+ * directories, {@code *} and {@code ?} match within a directory name, a trailing separator stands for {@code /**},
+ * and matching is case sensitive. Names starting with two separators aren't taken as UNC paths the way Ant does.
+ *
+ * Names are matched in place, without being split, so matching doesn't allocate, and a filter can be shared
+ * between threads.
+ */
+public final class GlobFilter {
+    private static final GlobFilter NOTHING = new GlobFilter(new Pattern[0], new Pattern[0]);
+
+    private final Pattern[] includes;
+    private final Pattern[] excludes;
+
+    private GlobFilter(Pattern[] includes, Pattern[] excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    /**
+     * @param includeFilter comma separated patterns of the names to select, {@code null} to select nothing
+     * @param excludeFilter comma separated patterns of the names not to select among them, {@code null} for none
+     */
+    public static GlobFilter compile(String includeFilter, String excludeFilter) {
+        if (includeFilter == null) {
+            return NOTHING;
+        }
+        return new GlobFilter(compileAll(includeFilter), excludeFilter == null ? new Pattern[0] : compileAll(excludeFilter));
+    }
+
+    public boolean matches(String name) {
+        for (Pattern exclude : excludes) {
+            if (exclude.matches(name)) {
+                return false;
+            }
+        }
+        for (Pattern include : includes) {
+            if (include.matches(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Pattern[] compileAll(String filter) {
+        final String[] patterns = filter.split(",");
+        final Pattern[] compiled = new Pattern[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            compiled[i] = new Pattern(patterns[i].trim(), File.separatorChar);
+        }
+        return compiled;
+    }
+
+    /**
+     * A pattern as a list of directory tokens, matched against the tokens of a name found by scanning it.
+     */
+    static final class Pattern {
+        private final char separator;
+        private final Token[] tokens;
+
+        Pattern(String pattern, char separator) {
+            this.separator = separator;
+            String normalized = pattern.replace('/', separator).replace('\\', separator);
+            if (!normalized.isEmpty() && normalized.charAt(normalized.length() - 1) == separator) {
+                normalized += "**";
+            }
+            final List<Token> tokens = new ArrayList<>();
+            if (!normalized.isEmpty() && normalized.charAt(0) == separator) {
+                // the root of an absolute pattern is a token of its own
+                tokens.add(new Token(String.valueOf(separator)));
+            }
+            for (String token : normalized.split(java.util.regex.Pattern.quote(String.valueOf(separator)))) {
+                if (!token.isEmpty()) {
+                    tokens.add(new Token(token));
+                }
+            }
+            this.tokens = tokens.toArray(new Token[0]);
+        }
+
+        /**
+         * Ant's matching of tokenized paths: the tokens before the first {@code **} and after the last one
+         * must match at both ends of the name, and the tokens between each two {@code **} must be found in order.
+         */
+        boolean matches(String name) {
+            final int nameTokens = countTokens(name);
+            int patStart = 0;
+            int patEnd = tokens.length - 1;
+            int strStart = 0;
+            int strEnd = nameTokens - 1;
+            // both cursors walk the name from its start
+            int startOffset = 0;
+
+            while (patStart <= patEnd && strStart <= strEnd) {
+                if (tokens[patStart].deep) {
+                    break;
+                }
+                final int tokenStart = tokenStart(name, startOffset);
+                final int tokenEnd = tokenEnd(name, tokenStart);
+                if (!tokens[patStart].matches(name, tokenStart, tokenEnd)) {
+                    return false;
+                }
+                startOffset = tokenEnd;
+                patStart++;
+                strStart++;
+            }
+            if (strStart > strEnd) {
+                return onlyDeep(patStart, patEnd);
+            }
+            if (patStart > patEnd) {
+                return false;
+            }
+
+            int endOffset = name.length();
+            while (patStart <= patEnd && strStart <= strEnd) {
+                if (tokens[patEnd].deep) {
+                    break;
+                }
+                final int tokenEnd = lastTokenEnd(name, endOffset);
+                final int tokenStart = lastTokenStart(name, tokenEnd);
+                if (!tokens[patEnd].matches(name, tokenStart, tokenEnd)) {
+                    return false;
+                }
+                endOffset = tokenStart;
+                patEnd--;
+                strEnd--;
+            }
+            if (strStart > strEnd) {
+                return onlyDeep(patStart, patEnd);
+            }
+
+            while (patStart != patEnd && strStart <= strEnd) {
+                int nextDeep = -1;
+                for (int i = patStart + 1; i <= patEnd; i++) {
+                    if (tokens[i].deep) {
+                        nextDeep = i;
+                        break;
+                    }
+                }
+                if (nextDeep == patStart + 1) {
+                    // **/**
+                    patStart++;
+                    continue;
+                }
+                final int patLength = nextDeep - patStart - 1;
+                final int strLength = strEnd - strStart + 1;
+                int found = -1;
+                int candidate = startOffset;
+                for (int i = 0; i <= strLength - patLength; i++) {
+                    if (matchesAt(name, candidate, patStart + 1, patLength)) {
+                        found = i;
+                        break;
+                    }
+                    candidate = tokenEnd(name, tokenStart(name, candidate));
+                }
+                if (found == -1) {
+                    return false;
+                }
+                // skip the tokens before the match and the matched ones
+                for (int i = 0; i < found + patLength; i++) {
+                    startOffset = tokenEnd(name, tokenStart(name, startOffset));
+                }
+                patStart = nextDeep;
+                strStart += found + patLength;
+            }
+            return onlyDeep(patStart, patEnd);
+        }
+
+        // whether the pattern tokens from the given one match the tokens of the name from the offset
+        private boolean matchesAt(String name, int offset, int from, int count) {
+            for (int j = 0; j < count; j++) {
+                final int tokenStart = tokenStart(name, offset);
+                final int tokenEnd = tokenEnd(name, tokenStart);
+                if (!tokens[from + j].matches(name, tokenStart, tokenEnd)) {
+                    return false;
+                }
+                offset = tokenEnd;
+            }
+            return true;
+        }
+
+        private boolean onlyDeep(int from, int to) {
+            for (int i = from; i <= to; i++) {
+                if (!tokens[i].deep) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isAbsolute(String name) {
+            return !name.isEmpty() && name.charAt(0) == separator;
+        }
+
+        // the root of an absolute name counts as a token, empty tokens don't
+        private int countTokens(String name) {
+            int count = isAbsolute(name) ? 1 : 0;
+            boolean inToken = false;
+            for (int i = 0; i < name.length(); i++) {
+                final boolean isSeparator = name.charAt(i) == separator;
+                if (!isSeparator && !inToken) {
+                    count++;
+                }
+                inToken = !isSeparator;
+            }
+            return count;
+        }
+
+        // the next token starts after the separators from the offset, the root of an absolute name is its separator
+        private int tokenStart(String name, int offset) {
+            if (offset == 0 && isAbsolute(name)) {
+                return 0;
+            }
+            int i = offset;
+            while (i < name.length() && name.charAt(i) == separator) {
+                i++;
+            }
+            return i;
+        }
+
+        private int tokenEnd(String name, int tokenStart) {
+            if (tokenStart == 0 && isAbsolute(name)) {
+                return 1;
+            }
+            int i = tokenStart;
+            while (i < name.length() && name.charAt(i) != separator) {
+                i++;
+            }
+            return i;
+        }
+
+        private int lastTokenEnd(String name, int offset) {
+            int i = offset;
+            while (i > 1 && name.charAt(i - 1) == separator) {
+                i--;
+            }
+            return i;
+        }
+
+        private int lastTokenStart(String name, int tokenEnd) {
+            if (tokenEnd == 1 && isAbsolute(name)) {
+                return 0;
+            }
+            int i = tokenEnd;
+            while (i > 0 && name.charAt(i - 1) != separator) {
+                i--;
+            }
+            return i;
+        }
+
+        /**
+         * A directory name of the pattern, matched against a token of the name given by its bounds.
+         */
+        private final class Token {
+            private final String glob;
+            private final boolean deep;
+            private final boolean literal;
+
+            Token(String glob) {
+                this.glob = glob;
+                this.deep = "**".equals(glob);
+                this.literal = glob.indexOf('*') < 0 && glob.indexOf('?') < 0;
+            }
+
+            boolean matches(String name, int start, int end) {
+                if (literal) {
+                    return end - start == glob.length() && name.regionMatches(start, glob, 0, glob.length());
+                }
+                return matchesGlob(name, start, end);
+            }
+
+            // * matches any characters, ? a single one, backtracking to the last * on a mismatch
+            private boolean matchesGlob(String name, int start, int end) {
+                int p = 0;
+                int s = start;
+                int star = -1;
+                int starMatch = 0;
+                while (s < end) {
+                    if (p < glob.length() && (glob.charAt(p) == '?' || glob.charAt(p) == name.charAt(s))) {
+                        p++;
+                        s++;
+                    } else if (p < glob.length() && glob.charAt(p) == '*') {
+                        star = p++;
+                        starMatch = s;
+                    } else if (star >= 0) {
+                        p = star + 1;
+                        s = ++starMatch;
+                    } else {
+                        return false;
+                    }
+                }
+                while (p < glob.length() && glob.charAt(p) == '*') {
+                    p++;
+                }
+                return p == glob.length();
+            }
+        }
+    }
+}
@@ -1,27 +1,130 @@
 package hudson.plugins.s3;
 
 import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.remoting.VirtualChannel;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.jenkinsci.remoting.RoleChecker;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 
 public class MD5 {
+    private static final int BUFFER_SIZE = 256 * 1024;
+
     public static String generateFromFile(File file) throws IOException {
-        try(InputStream inputStream = new FileInputStream(file.getAbsolutePath())) {
-            return getMD5FromStream(inputStream);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final Hasher hasher = newHasher();
+            hasher.update(channel);
+            return hasher.toHex();
         }
     }
 
+    /**
+     * Computes the MD5 of the file on the node it is on, so its content doesn't go through the channel.
+     */
     public static String generateFromFile(FilePath file) throws IOException, InterruptedException {
-        try(InputStream inputStream = file.read()) {
-            return getMD5FromStream(inputStream);
+        return file.act(new Digest());
+    }
+
+    /**
+     * Starts an MD5 computed from whatever the caller feeds it, as it transfers the content.
+     */
+    public static Hasher newHasher() {
+        return new Hasher();
+    }
+
+    /**
+     * Wrap the stream so that the MD5 of everything read through it can be taken with {@link #toHex(DigestInputStream)}.
+     */
+    public static DigestInputStream digesting(InputStream stream) {
+        return new DigestInputStream(stream, DigestUtils.getMd5Digest());
+    }
+
+    /**
+     * Wrap the stream so that the MD5 of everything written through it can be taken with {@link #toHex(DigestOutputStream)}.
+     */
+    public static DigestOutputStream digesting(OutputStream stream) {
+        return new DigestOutputStream(stream, DigestUtils.getMd5Digest());
+    }
+
+    public static String toHex(DigestInputStream stream) {
+        return toHex(stream.getMessageDigest());
+    }
+
+    public static String toHex(DigestOutputStream stream) {
+        return toHex(stream.getMessageDigest());
+    }
+
+    public static String toHex(MessageDigest digest) {
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * MD5 fed piece by piece, from arrays, buffers or whole files.
+     */
+    public static final class Hasher {
+        private final MessageDigest digest = DigestUtils.getMd5Digest();
+
+        private Hasher() {}
+
+        public Hasher update(byte[] bytes, int offset, int length) {
+            digest.update(bytes, offset, length);
+            return this;
+        }
+
+        /**
+         * Feeds the remaining bytes of the buffer, leaving its position at its limit.
+         */
+        public Hasher update(ByteBuffer buffer) {
+            digest.update(buffer);
+            return this;
+        }
+
+        /**
+         * Feeds the content of the channel from its current position to its end.
+         * The file isn't mapped, as a mapping keeps it open until it is garbage collected,
+         * which prevents deleting it on Windows. It is read into a heap buffer, which the digest
+         * hashes in place, whereas the content of a direct buffer would be copied to the heap to be hashed.
+         */
+        public Hasher update(FileChannel channel) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int read;
+            while ((read = channel.read(buffer)) >= 0) {
+                digest.update(buffer.array(), 0, read);
+                buffer.clear();
+            }
+            return this;
+        }
+
+        /**
+         * Finishes the MD5, after which the hasher starts over.
+         */
+        public String toHex() {
+            return MD5.toHex(digest);
         }
     }
 
-    private static String getMD5FromStream(InputStream stream) throws IOException {
-        return DigestUtils.md5Hex(stream);
+    private static final class Digest implements FileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public String invoke(File f, VirtualChannel channel) throws IOException {
+            return generateFromFile(f);
+        }
+
+        @Override
+        public void checkRoles(RoleChecker roleChecker) throws SecurityException {
+
+        }
     }
 }
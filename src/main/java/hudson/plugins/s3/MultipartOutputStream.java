@@ -0,0 +1,420 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Streams content of unknown length to S3 as a multipart upload.
+ *
+ * Parts are filled in memory and sent in the background while the next one is written,
+ * with at most {@code maxPartsInFlight} parts being sent at once. Memory use is therefore
+ * bounded by {@code (maxPartsInFlight + 1) * partSize}, whatever the size of the object,
+ * and the buffers are taken from a {@link BufferBudget} shared with the other uploads.
+ * Content smaller than one part is sent with a single PUT.
+ *
+ * Nothing is visible in the bucket until {@link #close()} completes the upload,
+ * use {@link #abort()} to drop everything written so far.
+ *
+ * With an {@link UploadJournal} the upload is resumable: parts are recorded as they are sent,
+ * a journal left by an earlier attempt is picked up, and parts already sent with the same content
+ * are not sent again. Aborting then keeps the upload in the bucket for the next attempt, unless S3
+ * refused it in a way no attempt gets past, such as access denied.
+ */
+public final class MultipartOutputStream extends OutputStream {
+    private static final Logger LOGGER = Logger.getLogger(MultipartOutputStream.class.getName());
+    // handed to a writer waiting for a buffer when the upload is aborted, as cancelled parts don't give theirs back
+    private static final byte[] ABORTED = new byte[0];
+
+    private final AmazonS3 client;
+    private final String bucketName;
+    private final String objectName;
+    private final ObjectMetadata metadata;
+    private final int partSize;
+    private final int maxBuffers;
+    private final BufferBudget bufferBudget;
+    private final ExecutorService executor;
+    private final TransferRate rate;
+    private final UploadJournal journal;
+    private final BlockingQueue<byte[]> freeBuffers;
+    // guarded by itself, as the session may abort the upload from another thread than the writing one
+    private final List<Future<PartETag>> parts = new ArrayList<>();
+    // bytes of the budget held by the buffers, given back once the upload is over
+    private final AtomicLong reserved = new AtomicLong();
+
+    private int allocatedBuffers;
+    private byte[] buffer;
+    private int count;
+    private long length;
+    private volatile String uploadId;
+    private volatile boolean completed;
+    private volatile boolean aborted;
+
+    MultipartOutputStream(AmazonS3 client, String bucketName, String objectName, ObjectMetadata metadata,
+                          int partSize, int maxPartsInFlight, BufferBudget bufferBudget, ExecutorService executor,
+                          TransferRate rate, UploadJournal journal) {
+        this.client = client;
+        this.bucketName = bucketName;
+        this.objectName = objectName;
+        this.metadata = metadata;
+        this.partSize = partSize;
+        this.maxBuffers = maxPartsInFlight + 1;
+        this.freeBuffers = new ArrayBlockingQueue<>(maxBuffers);
+        this.bufferBudget = bufferBudget;
+        this.executor = executor;
+        this.rate = rate;
+        this.journal = journal;
+        if (journal != null && journal.getUploadId() != null && journal.getPartSize() == partSize) {
+            this.uploadId = journal.getUploadId();
+        }
+    }
+
+    public String getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * Number of bytes written so far.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureRoom();
+        buffer[count++] = (byte) b;
+        length++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ensureRoom();
+            final int chunk = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, chunk);
+            count += chunk;
+            length += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    private void ensureRoom() throws IOException {
+        if (completed || aborted) {
+            throw new IOException("Upload of " + objectName + " is already " + (aborted ? "aborted" : "completed"));
+        }
+        if (buffer == null) {
+            buffer = takeBuffer();
+        } else if (count == buffer.length) {
+            sendPart();
+            buffer = takeBuffer();
+        }
+    }
+
+    private byte[] takeBuffer() throws IOException {
+        byte[] free = freeBuffers.poll();
+        if (free == null) {
+            if (allocatedBuffers < maxBuffers && reserveBuffer(allocatedBuffers == 0)) {
+                allocatedBuffers++;
+                return new byte[partSize];
+            }
+            try {
+                // all buffers are being sent, or the other uploads hold the memory, this is what bounds it
+                free = freeBuffers.take();
+            } catch (InterruptedException e) {
+                throw (IOException) new InterruptedIOException("Interrupted while uploading " + objectName).initCause(e);
+            }
+        }
+        if (free == ABORTED) {
+            throw new IOException("Upload of " + objectName + " is already aborted");
+        }
+        return free;
+    }
+
+    // the first buffer waits for room in the budget, the others are only taken while there is
+    private boolean reserveBuffer(boolean first) throws IOException {
+        try {
+            if (first) {
+                bufferBudget.acquire(partSize);
+            } else if (!bufferBudget.tryAcquire(partSize)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            throw (IOException) new InterruptedIOException("Interrupted while uploading " + objectName).initCause(e);
+        }
+        reserved.addAndGet(partSize);
+        if (aborted) {
+            // aborted from another thread meanwhile, which gave back what it saw held
+            releaseBuffers();
+            throw new IOException("Upload of " + objectName + " is already aborted");
+        }
+        return true;
+    }
+
+    private void releaseBuffers() {
+        bufferBudget.release(reserved.getAndSet(0));
+    }
+
+    private void sendPart() throws IOException {
+        checkSentParts();
+        final int partNumber = getPartCount() + 1;
+        if (partNumber > MultipartSettings.MAX_PARTS) {
+            abort();
+            throw new IOException("Upload of " + objectName + " needs more than " + MultipartSettings.MAX_PARTS
+                    + " parts of " + partSize + " bytes");
+        }
+
+        try {
+            if (uploadId == null) {
+                uploadId = client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, objectName, metadata)).getUploadId();
+                if (journal != null) {
+                    journal.start(uploadId, partSize);
+                }
+            }
+
+            final byte[] part = buffer;
+            final int partLength = count;
+            final String md5 = journal == null ? null : md5(part, partLength);
+            final String sentETag = journal == null ? null : journal.getETag(partNumber, partLength, md5);
+            if (sentETag != null) {
+                addPart(CompletableFuture.completedFuture(new PartETag(partNumber, sentETag)));
+                freeBuffers.offer(part);
+                buffer = null;
+                count = 0;
+                return;
+            }
+
+            final UploadPartRequest request = new UploadPartRequest()
+                    .withBucketName(bucketName)
+                    .withKey(objectName)
+                    .withUploadId(uploadId)
+                    .withPartNumber(partNumber)
+                    .withInputStream(new ByteArrayInputStream(part, 0, count))
+                    .withPartSize(count);
+
+            // the throttling of the part is the one of whoever writes
+            addPart(executor.submit(ThrottlingTally.wrap(new Callable<PartETag>() {
+                @Override
+                public PartETag call() {
+                    try {
+                        final long start = System.nanoTime();
+                        final PartETag etag = client.uploadPart(request).getPartETag();
+                        rate.record(partLength, System.nanoTime() - start);
+                        if (journal != null) {
+                            journal.record(partNumber, partLength, md5, etag.getETag());
+                        }
+                        return etag;
+                    } finally {
+                        freeBuffers.offer(part);
+                    }
+                }
+            })));
+        } catch (AmazonClientException | RejectedExecutionException e) {
+            abort(e);
+            throw new IOException("Failed to upload part of " + objectName, e);
+        }
+
+        buffer = null;
+        count = 0;
+    }
+
+    private void addPart(Future<PartETag> part) {
+        synchronized (parts) {
+            if (aborted) {
+                // aborted while the part was being submitted
+                part.cancel(true);
+            }
+            parts.add(part);
+        }
+    }
+
+    private int getPartCount() {
+        synchronized (parts) {
+            return parts.size();
+        }
+    }
+
+    private List<Future<PartETag>> getParts() {
+        synchronized (parts) {
+            return new ArrayList<>(parts);
+        }
+    }
+
+    // fail early when a part failed in the background
+    private void checkSentParts() throws IOException {
+        for (Future<PartETag> part : getParts()) {
+            if (part.isDone()) {
+                getPart(part);
+            }
+        }
+    }
+
+    private PartETag getPart(Future<PartETag> part) throws IOException {
+        try {
+            return part.get();
+        } catch (InterruptedException e) {
+            abort();
+            throw (IOException) new InterruptedIOException("Interrupted while uploading " + objectName).initCause(e);
+        } catch (ExecutionException e) {
+            abort(e.getCause());
+            throw new IOException("Failed to upload part of " + objectName, e.getCause());
+        }
+    }
+
+    /**
+     * Sends what is left and completes the upload.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            complete();
+        } finally {
+            // completed, or aborted by whatever failed
+            releaseBuffers();
+        }
+    }
+
+    private void complete() throws IOException {
+        if (completed || aborted) {
+            return;
+        }
+
+        if (getPartCount() == 0) {
+            if (uploadId != null) {
+                // resumed, but everything fits in a single request after all
+                discard();
+            }
+
+            final byte[] content = buffer == null ? new byte[0] : buffer;
+            metadata.setContentLength(count);
+            try {
+                final long start = System.nanoTime();
+                client.putObject(new PutObjectRequest(bucketName, objectName, new ByteArrayInputStream(content, 0, count), metadata));
+                rate.record(count, System.nanoTime() - start);
+            } catch (AmazonClientException e) {
+                aborted = true;
+                throw new IOException("Failed to upload " + objectName, e);
+            }
+            completed = true;
+            return;
+        }
+
+        if (count > 0) {
+            sendPart();
+        }
+
+        final List<Future<PartETag>> sent = getParts();
+        final List<PartETag> etags = new ArrayList<>(sent.size());
+        for (Future<PartETag> part : sent) {
+            etags.add(getPart(part));
+        }
+
+        try {
+            client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, objectName, uploadId, etags));
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() >= 400 && e.getStatusCode() < 500) {
+                // parts are missing or don't match, resuming wouldn't help
+                aborted = true;
+                discard();
+            } else {
+                abort();
+            }
+            throw new IOException("Failed to complete upload of " + objectName, e);
+        } catch (AmazonClientException e) {
+            abort();
+            throw new IOException("Failed to complete upload of " + objectName, e);
+        }
+        if (journal != null) {
+            journal.delete();
+        }
+        completed = true;
+    }
+
+    /**
+     * Drops the upload, unless it is already completed.
+     * A resumable upload is kept in the bucket, for the next attempt to pick it up.
+     */
+    public void abort() {
+        final List<Future<PartETag>> sent;
+        synchronized (parts) {
+            if (completed || aborted) {
+                return;
+            }
+            aborted = true;
+            sent = new ArrayList<>(parts);
+        }
+
+        for (Future<PartETag> part : sent) {
+            part.cancel(true);
+        }
+        freeBuffers.offer(ABORTED);
+        // cancelled parts may still be sending, for the short while until their request notices
+        releaseBuffers();
+
+        if (journal == null) {
+            abortMultipartUpload();
+        }
+    }
+
+    // a failure S3 will answer the same, such as a missing upload or access denied, drops a resumable upload too
+    private void abort(Throwable failure) {
+        abort();
+        if (journal != null && !RetryPolicy.isRetryable(failure)) {
+            discard();
+        }
+    }
+
+    // drops the upload even when it's resumable, once it can't be resumed anyway
+    void discard() {
+        if (journal != null) {
+            journal.delete();
+        }
+        abortMultipartUpload();
+        uploadId = null;
+    }
+
+    private static String md5(byte[] buffer, int length) {
+        return MD5.newHasher().update(buffer, 0, length).toHex();
+    }
+
+    private void abortMultipartUpload() {
+        if (uploadId != null) {
+            try {
+                client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, objectName, uploadId));
+            } catch (AmazonServiceException e) {
+                if (e.getStatusCode() != 404) {
+                    LOGGER.log(Level.WARNING, "Failed to abort multipart upload of " + objectName, e);
+                }
+            } catch (AmazonClientException e) {
+                LOGGER.log(Level.WARNING, "Failed to abort multipart upload of " + objectName, e);
+            }
+        }
+    }
+}
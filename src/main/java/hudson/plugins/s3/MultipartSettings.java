@@ -0,0 +1,113 @@
+package hudson.plugins.s3;
+
+import java.io.Serializable;
+
+/**
+ * When uploads are split into parts, and how big the parts are.
+ *
+ * In adaptive mode the part size follows the throughput measured so far, so that a part
+ * takes about {@link #TARGET_PART_SECONDS} to send: slow links resend less when a part fails,
+ * fast links don't pay a request per few megabytes. Whatever the mode, parts are made large
+ * enough for the expected length to fit in the 10,000 parts S3 accepts, up to the 5 TB of its largest objects.
+ */
+public final class MultipartSettings implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_THRESHOLD_MB = 16;
+    public static final int DEFAULT_PART_SIZE_MB = 16;
+
+    static final long MB = 1024 * 1024;
+    static final int MAX_PARTS = 10000;
+    static final long MIN_PART_SIZE = 5 * MB;
+    static final long MAX_ADAPTIVE_PART_SIZE = 64 * MB;
+    // parts are buffered in memory, a few per upload, so larger ones are only made when the length needs them
+    static final long MAX_CONFIGURED_PART_SIZE = 64 * MB;
+    static final long MAX_PART_SIZE = 5 * 1024 * MB;
+    // a part is buffered in an array, which 5 TB objects need no more than 525 MB of
+    static final long MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+    // a single PUT keeps what it sent in memory to resend it, larger content is always sent in parts
+    static final long MAX_SINGLE_UPLOAD = 64 * MB;
+    static final int TARGET_PART_SECONDS = 10;
+
+    private final long threshold;
+    private final long partSize;
+    private final boolean adaptive;
+    private final boolean resumable;
+
+    public MultipartSettings(long threshold, long partSize, boolean adaptive) {
+        this(threshold, partSize, adaptive, false);
+    }
+
+    public MultipartSettings(long threshold, long partSize, boolean adaptive, boolean resumable) {
+        this.threshold = threshold;
+        this.partSize = partSize;
+        this.adaptive = adaptive;
+        this.resumable = resumable;
+    }
+
+    public static MultipartSettings ofMegabytes(int thresholdMB, int partSizeMB, boolean adaptive) {
+        return new MultipartSettings(thresholdMB * MB, partSizeMB * MB, adaptive);
+    }
+
+    /**
+     * Same settings with the threshold and part size replaced by the given ones, 0 keeps the current value.
+     */
+    public MultipartSettings override(int thresholdMB, int partSizeMB) {
+        return new MultipartSettings(thresholdMB > 0 ? thresholdMB * MB : threshold,
+                partSizeMB > 0 ? partSizeMB * MB : partSize, adaptive, resumable);
+    }
+
+    /**
+     * Same settings, with multipart uploads recorded so that a failed attempt can be resumed by the next one.
+     */
+    public MultipartSettings withResumable(boolean resumable) {
+        return new MultipartSettings(threshold, partSize, adaptive, resumable);
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    public long getPartSize() {
+        return partSize;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * Whether content of the given length is uploaded in parts, unknown lengths being negative.
+     * Past {@link #MAX_SINGLE_UPLOAD} content is sent in parts whatever the threshold.
+     */
+    public boolean isMultipart(long length) {
+        return length < 0 || length >= threshold || length > MAX_SINGLE_UPLOAD;
+    }
+
+    /**
+     * Size of the parts of an upload.
+     *
+     * @param expectedLength length of the content if known in advance, or an upper bound of it, negative if unknown
+     * @param bytesPerSecond throughput of a single connection measured so far, 0 if nothing was measured yet
+     */
+    public int getPartSize(long expectedLength, double bytesPerSecond) {
+        long size = Math.min(partSize, MAX_CONFIGURED_PART_SIZE);
+        if (adaptive && bytesPerSecond > 0) {
+            size = Math.min((long) (bytesPerSecond * TARGET_PART_SECONDS), MAX_ADAPTIVE_PART_SIZE);
+        }
+        if (expectedLength > 0) {
+            // whatever the memory it takes, as the upload fails otherwise
+            size = Math.max(size, (expectedLength + MAX_PARTS - 1) / MAX_PARTS);
+        }
+        return (int) Math.min(Math.max(size, MIN_PART_SIZE), Math.min(MAX_PART_SIZE, MAX_BUFFER_SIZE));
+    }
+
+    @Override
+    public String toString() {
+        return "threshold=" + threshold + ", partSize=" + partSize + (adaptive ? ", adaptive" : "") + (resumable ? ", resumable" : "");
+    }
+}
@@ -0,0 +1,49 @@
+package hudson.plugins.s3;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+
+/**
+ * Where the content of a packed artifact is, within the pack object it was uploaded in.
+ */
+@ExportedBean
+public final class PackLocation implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String pack;
+    private final long offset;
+    private final long length;
+
+    /**
+     * @param pack name of the pack object, relative to the artifacts of the build
+     */
+    public PackLocation(String pack, long offset, long length) {
+        this.pack = pack;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Exported
+    public String getPack() {
+        return pack;
+    }
+
+    @Exported
+    public long getOffset() {
+        return offset;
+    }
+
+    @Exported
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Offset of the last byte, as used in the {@code Range} header.
+     */
+    public long getLastByte() {
+        return offset + length - 1;
+    }
+}
@@ -0,0 +1,202 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import hudson.FilePath;
+import org.apache.commons.io.IOUtils;
+
+import javax.annotation.CheckForNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Uploads many small files as a few large pack objects, saving a request per file.
+ *
+ * The files are written one after another into packs of about {@link #PACK_SIZE}, and the
+ * {@link PackLocation} of each file is what it is downloaded with, by a ranged GET.
+ * An index listing the offset, length, MD5 and name of the files is written next to each pack,
+ * for whoever looks at the bucket without Jenkins. Packs are stored with the storage class, encryption
+ * and user metadata of the files they hold, but for their content type and encoding.
+ *
+ * A failed upload is retried by calling {@link #upload(List, List)} again with the same files:
+ * the packs completed are kept, and the others are written again under the same names,
+ * so that a retry doesn't leave packs nobody references in the bucket.
+ */
+public final class PackUpload {
+    /**
+     * Where the packs are, relative to the artifacts of the build.
+     */
+    public static final String PACK_DIR = ".s3-packs";
+
+    static final long PACK_SIZE = 64L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final UploadSession session;
+    private final AmazonS3 client;
+    private final Destination packDir;
+    private final MultipartSettings multipart;
+    private final String storageClass;
+    private final boolean useServerSideEncryption;
+    private final Map<String, String> userMetadata;
+    private final long packSize;
+    private BandwidthLimit bandwidth;
+    // each upload gets its own packs, whatever else is uploaded for the build
+    private final String prefix = UUID.randomUUID().toString();
+    // the files in the packs completed so far, kept by a retry
+    private final List<PackedFile> packed = new ArrayList<>();
+    private int packCount;
+
+    /**
+     * @param packDir destination of {@link #PACK_DIR} for the build
+     */
+    public PackUpload(UploadSession session, AmazonS3 client, Destination packDir, MultipartSettings multipart,
+                      String storageClass, boolean useServerSideEncryption, Map<String, String> userMetadata) {
+        this(session, client, packDir, multipart, storageClass, useServerSideEncryption, userMetadata, PACK_SIZE);
+    }
+
+    PackUpload(UploadSession session, AmazonS3 client, Destination packDir, MultipartSettings multipart,
+               String storageClass, boolean useServerSideEncryption, Map<String, String> userMetadata, long packSize) {
+        this.session = session;
+        this.client = client;
+        this.packDir = packDir;
+        this.multipart = multipart;
+        this.storageClass = storageClass;
+        this.useServerSideEncryption = useServerSideEncryption;
+        this.userMetadata = userMetadata;
+        this.packSize = packSize;
+    }
+
+    /**
+     * Caps the bandwidth the packs are sent with, {@code null} for no cap.
+     */
+    public void setBandwidth(@CheckForNull BandwidthLimit bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * Whether the file is small enough to be packed.
+     *
+     * @param threshold files smaller than this are packed, 0 when nothing is packed
+     */
+    public static boolean isPacked(FilePath file, long threshold) throws IOException, InterruptedException {
+        return isPacked(file.length(), threshold);
+    }
+
+    public static boolean isPacked(long length, long threshold) {
+        return threshold > 0 && length < threshold;
+    }
+
+    /**
+     * Uploads the files into packs, and returns where each file is in the same order as the files.
+     * Called again after a failure, only the files not in a completed pack yet are uploaded.
+     */
+    public List<PackedFile> upload(List<FilePath> files, List<String> fileNames) throws IOException, InterruptedException {
+        return upload(files, null, fileNames);
+    }
+
+    /**
+     * Same as {@link #upload(List, List)}, with the files as they were found, whose lengths save asking the node for them.
+     */
+    public synchronized List<PackedFile> upload(List<FilePath> files, @CheckForNull List<WorkspaceFile> found, List<String> fileNames)
+            throws IOException, InterruptedException {
+        // the files of the pack being written
+        final List<PackedFile> packing = new ArrayList<>();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+
+        String packName = null;
+        MultipartOutputStream pack = null;
+        StringBuilder index = null;
+        long offset = 0;
+        try {
+            for (int i = packed.size(); i < files.size(); i++) {
+                if (pack == null) {
+                    packName = prefix + '-' + packCount + ".pack";
+                    final ObjectMetadata metadata = new ObjectMetadata();
+                    metadata.setContentType("application/octet-stream");
+                    UploadMetadata.setStorage(metadata, storageClass, useServerSideEncryption);
+                    UploadMetadata.setUserMetadata(metadata, userMetadata, false);
+                    pack = session.openMultipartStream(client, packDir.bucketName, packDir.objectName + '/' + packName,
+                            metadata, 2 * packSize, multipart);
+                    index = new StringBuilder();
+                    offset = 0;
+                }
+
+                final long length;
+                final String md5;
+                try (DigestInputStream in = MD5.digesting(throttle(session.read(files.get(i), found == null ? -1 : found.get(i).getLength())))) {
+                    length = IOUtils.copyLarge(in, pack, buffer);
+                    md5 = MD5.toHex(in);
+                }
+                packing.add(new PackedFile(new PackLocation(PACK_DIR + '/' + packName, offset, length), md5));
+                index.append(offset).append('\t').append(length).append('\t').append(md5).append('\t').append(fileNames.get(i)).append('\n');
+                offset += length;
+
+                if (offset >= packSize || i == files.size() - 1) {
+                    session.finishUploading(pack);
+                    pack = null;
+                    writeIndex(packName, index);
+                    packed.addAll(packing);
+                    packing.clear();
+                    packCount++;
+                }
+            }
+        } finally {
+            if (pack != null) {
+                session.abortUploading(pack);
+            }
+        }
+        return new ArrayList<>(packed);
+    }
+
+    private InputStream throttle(InputStream in) {
+        return bandwidth == null ? in : bandwidth.throttle(in);
+    }
+
+    private void writeIndex(String packName, StringBuilder index) throws IOException {
+        final byte[] content = index.toString().getBytes(StandardCharsets.UTF_8);
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length);
+        metadata.setContentType("text/plain; charset=UTF-8");
+        UploadMetadata.setStorage(metadata, storageClass, useServerSideEncryption);
+        final String indexName = packDir.objectName + '/' + getIndexName(packName);
+        try (InputStream in = new ByteArrayInputStream(content)) {
+            client.putObject(packDir.bucketName, indexName, in, metadata);
+        } catch (AmazonClientException e) {
+            throw new IOException("Failed to upload pack index " + indexName, e);
+        }
+    }
+
+    /**
+     * Name of the index of the given pack.
+     */
+    public static String getIndexName(String packName) {
+        return packName.substring(0, packName.length() - ".pack".length()) + ".index";
+    }
+
+    public static final class PackedFile {
+        private final PackLocation location;
+        private final String md5;
+
+        PackedFile(PackLocation location, String md5) {
+            this.location = location;
+            this.md5 = md5;
+        }
+
+        public PackLocation getLocation() {
+            return location;
+        }
+
+        public String getMd5() {
+            return md5;
+        }
+    }
+}
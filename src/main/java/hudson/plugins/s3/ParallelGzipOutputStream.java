@@ -0,0 +1,187 @@
+package hudson.plugins.s3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compression spread over several threads, in the way of pigz.
+ *
+ * The input is cut into blocks which are deflated independently on the given executor,
+ * each one primed with the last 32 KB of the previous block so the ratio stays close to
+ * a single-threaded gzip. Every block but the last ends with a sync flush, so the compressed
+ * blocks simply follow each other in one deflate stream, and the result is a regular gzip
+ * stream any decoder can read.
+ *
+ * {@link #finish()} writes the trailer without closing the underlying stream.
+ */
+public final class ParallelGzipOutputStream extends FilterOutputStream {
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final ExecutorService executor;
+    private final int level;
+    private final int maxBlocksInFlight;
+    private final Deque<Future<byte[]>> blocks = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private byte[] previousBlock;
+    private int count;
+    private long length;
+    private boolean finished;
+
+    public ParallelGzipOutputStream(OutputStream out, ExecutorService executor, int threads) throws IOException {
+        this(out, executor, threads, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ParallelGzipOutputStream(OutputStream out, ExecutorService executor, int threads, int level) throws IOException {
+        super(out);
+        this.executor = executor;
+        this.level = level;
+        // keep every thread busy while the oldest block is written out
+        this.maxBlocksInFlight = Math.max(2, threads * 2);
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Gzip stream is already finished");
+        }
+        crc.update(b, off, len);
+        length += len;
+
+        while (len > 0) {
+            if (count == block.length) {
+                submitBlock(false);
+            }
+            final int chunk = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, chunk);
+            count += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Compresses what is left and writes the gzip trailer, the underlying stream stays open.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        submitBlock(true);
+        while (!blocks.isEmpty()) {
+            writeOldestBlock();
+        }
+        finished = true;
+
+        final long crcValue = crc.getValue();
+        out.write(new byte[]{
+                (byte) crcValue, (byte) (crcValue >> 8), (byte) (crcValue >> 16), (byte) (crcValue >> 24),
+                (byte) length, (byte) (length >> 8), (byte) (length >> 16), (byte) (length >> 24)});
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        final byte[] input = count == block.length ? block : Arrays.copyOf(block, count);
+        final byte[] dictionary = previousBlock == null ? null
+                : Arrays.copyOfRange(previousBlock, Math.max(0, previousBlock.length - DICTIONARY_SIZE), previousBlock.length);
+
+        if (blocks.size() >= maxBlocksInFlight) {
+            writeOldestBlock();
+        }
+        blocks.add(executor.submit(new DeflateBlock(input, dictionary, level, last)));
+
+        previousBlock = input;
+        block = new byte[BLOCK_SIZE];
+        count = 0;
+    }
+
+    private void writeOldestBlock() throws IOException {
+        final Future<byte[]> oldest = blocks.poll();
+        try {
+            out.write(oldest.get());
+        } catch (InterruptedException e) {
+            cancelAll();
+            throw (IOException) new InterruptedIOException("Interrupted while compressing").initCause(e);
+        } catch (ExecutionException e) {
+            cancelAll();
+            throw new IOException("Failed to compress", e.getCause());
+        }
+    }
+
+    private void cancelAll() {
+        for (Future<byte[]> future : blocks) {
+            future.cancel(true);
+        }
+        blocks.clear();
+    }
+
+    private static final class DeflateBlock implements Callable<byte[]> {
+        private final byte[] input;
+        private final byte[] dictionary;
+        private final int level;
+        private final boolean last;
+
+        DeflateBlock(byte[] input, byte[] dictionary, int level, boolean last) {
+            this.input = input;
+            this.dictionary = dictionary;
+            this.level = level;
+            this.last = last;
+        }
+
+        @Override
+        public byte[] call() {
+            final Deflater deflater = new Deflater(level, true);
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(input);
+
+                final ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 64);
+                final byte[] buffer = new byte[64 * 1024];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        output.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                } else {
+                    // a sync flush ends on a byte boundary, so the next block can be appended as is
+                    int written;
+                    do {
+                        written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        output.write(buffer, 0, written);
+                    } while (written == buffer.length);
+                }
+                return output.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
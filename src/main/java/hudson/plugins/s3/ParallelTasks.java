@@ -0,0 +1,141 @@
+package hudson.plugins.s3;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a list of independent tasks with a bounded number of them in flight.
+ */
+public final class ParallelTasks {
+    private ParallelTasks() {}
+
+    /**
+     * Runs all tasks, keeping at most {@code threads} of them running at once,
+     * and returns their results in the same order as the tasks.
+     *
+     * The first failing task cancels the remaining ones and its exception is rethrown.
+     * With a single thread (or a single task) everything runs on the calling thread.
+     * Requests of the tasks count in the {@link ThrottlingTally} of the calling thread.
+     */
+    public static <T> List<T> invokeAll(String name, int threads, List<? extends Callable<T>> tasks) throws IOException, InterruptedException {
+        final List<T> results = new ArrayList<>(tasks.size());
+
+        if (threads <= 1 || tasks.size() <= 1) {
+            for (Callable<T> task : tasks) {
+                results.add(call(task));
+            }
+            return results;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()),
+                new NamingThreadFactory(new DaemonThreadFactory(), name));
+        try {
+            final CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+            final List<Future<T>> futures = new ArrayList<>(tasks.size());
+            for (Callable<T> task : tasks) {
+                futures.add(completionService.submit(ThrottlingTally.wrap(task)));
+            }
+
+            // wait in completion order, so that a failure is noticed as soon as it happens
+            for (int i = 0; i < futures.size(); i++) {
+                getResult(completionService.take());
+            }
+
+            for (Future<T> future : futures) {
+                results.add(getResult(future));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs all tasks as {@link #invokeAll(String, int, List)} does, except that the tasks of the same key run one
+     * after another in their order, and returns their results in the same order as the tasks.
+     *
+     * @param keys the key of each task
+     */
+    public static <T> List<T> invokeAllByKey(String name, int threads, List<String> keys, List<? extends Callable<T>> tasks) throws IOException, InterruptedException {
+        // indexes of the tasks of each key
+        final Map<String, List<Integer>> indexesByKey = new LinkedHashMap<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            List<Integer> indexes = indexesByKey.get(keys.get(i));
+            if (indexes == null) {
+                indexes = new ArrayList<>(1);
+                indexesByKey.put(keys.get(i), indexes);
+            }
+            indexes.add(i);
+        }
+
+        final List<List<Integer>> groups = new ArrayList<>(indexesByKey.values());
+        final List<Callable<List<T>>> groupTasks = new ArrayList<>(groups.size());
+        for (final List<Integer> indexes : groups) {
+            groupTasks.add(new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws Exception {
+                    final List<T> results = new ArrayList<>(indexes.size());
+                    for (int index : indexes) {
+                        results.add(tasks.get(index).call());
+                    }
+                    return results;
+                }
+            });
+        }
+
+        // back in the order of the tasks
+        final List<T> results = new ArrayList<>(Collections.<T>nCopies(tasks.size(), null));
+        final List<List<T>> groupResults = invokeAll(name, threads, groupTasks);
+        for (int g = 0; g < groups.size(); g++) {
+            for (int j = 0; j < groups.get(g).size(); j++) {
+                results.set(groups.get(g).get(j), groupResults.get(g).get(j));
+            }
+        }
+        return results;
+    }
+
+    private static <T> T call(Callable<T> task) throws IOException, InterruptedException {
+        try {
+            return task.call();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
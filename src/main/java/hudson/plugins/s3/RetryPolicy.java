@@ -0,0 +1,209 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How failed S3 calls are tried again.
+ *
+ * Only errors which may go away are retried: network errors, server errors, throttling and timeouts.
+ * Access denied, missing buckets, bugs and bad configuration fail at once. The wait before each attempt grows
+ * exponentially from the base delay up to the maximum, and is drawn at random below that ("full jitter"),
+ * so that uploads throttled together don't come back together. Throttled calls back off from a higher
+ * base. The time spent waiting is taken from a {@link Budget} shared by the calls of a build, so a build
+ * stops retrying once it waited long enough, whatever the number of its files.
+ */
+public final class RetryPolicy implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // S3 asks to slow down much more than other errors need
+    static final int THROTTLED_DELAY_FACTOR = 4;
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+
+    /**
+     * @param maxAttempts how many times a call is made at most, the first one included
+     * @param baseDelay milliseconds to wait before the first retry, on average half of it with the jitter
+     * @param maxDelay milliseconds any wait is capped to
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelay = Math.max(0, baseDelay);
+        this.maxDelay = Math.max(this.baseDelay, maxDelay);
+    }
+
+    public static RetryPolicy ofSeconds(int maxAttempts, int baseDelay, int maxDelay) {
+        return new RetryPolicy(maxAttempts, TimeUnit.SECONDS.toMillis(baseDelay), TimeUnit.SECONDS.toMillis(maxDelay));
+    }
+
+    /**
+     * Makes the call until it succeeds, fails with an error which can't be retried, or runs out of attempts or budget.
+     *
+     * @param what what is called, for the message of the failure
+     */
+    public <T> T call(Object what, Budget budget, Callable<T> func) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return func.call();
+            } catch (InterruptedException | InterruptedIOException e) {
+                throw e;
+            } catch (Exception e) {
+                if (!isRetryable(e)) {
+                    throw new CallFailedException("Call fails for " + what + ": " + e + ":: Not retried", e);
+                }
+                if (attempt >= maxAttempts) {
+                    throw new CallFailedException("Call fails for " + what + ": " + e + ":: Failed after " + attempt + " tries.", e);
+                }
+                final long delay = getDelay(attempt, isThrottled(e));
+                if (!budget.spend(delay)) {
+                    throw new CallFailedException("Call fails for " + what + ": " + e + ":: Retry budget exhausted after " + attempt + " tries.", e);
+                }
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Wait before the given retry, the first retry following attempt 1.
+     */
+    long getDelay(int attempt, boolean throttled) {
+        final long base = throttled ? baseDelay * THROTTLED_DELAY_FACTOR : baseDelay;
+        // 2^attempt overflows long before the cap is reached
+        final long ceiling = Math.min(maxDelay, base << Math.min(attempt - 1, 30));
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Whether the failure may not happen again. The cause is looked up, as S3 errors are often wrapped.
+     * Besides S3 errors, only I/O failures are, which include a closed channel to an agent.
+     */
+    static boolean isRetryable(Throwable failure) {
+        if (findCause(failure, CallFailedException.class) != null) {
+            // retried already as far as the policy allows, by a call within this one
+            return false;
+        }
+        final AmazonServiceException serviceException = findCause(failure, AmazonServiceException.class);
+        if (serviceException != null) {
+            final int status = serviceException.getStatusCode();
+            if (status >= 500 || status == 408 || status == 429) {
+                return true;
+            }
+            // S3 reports idle connections and clock skew as client errors
+            return "RequestTimeout".equals(serviceException.getErrorCode())
+                    || "RequestTimeTooSkewed".equals(serviceException.getErrorCode());
+        }
+        final AmazonClientException clientException = findCause(failure, AmazonClientException.class);
+        if (clientException != null) {
+            return clientException.isRetryable();
+        }
+        // a bug or a bad setting fails the same way again, even when an I/O failure wraps it
+        for (Throwable t = failure; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof RuntimeException || t instanceof Error) {
+                return false;
+            }
+        }
+        // network errors, and failures of the node we run on as ChannelClosedException
+        return failure instanceof IOException;
+    }
+
+    static boolean isThrottled(Throwable failure) {
+        final AmazonServiceException serviceException = findCause(failure, AmazonServiceException.class);
+        return serviceException != null && (serviceException.getStatusCode() == 503 || serviceException.getStatusCode() == 429
+                || "SlowDown".equals(serviceException.getErrorCode()));
+    }
+
+    private static <E extends Throwable> E findCause(Throwable failure, Class<E> type) {
+        for (Throwable t = failure; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (type.isInstance(t)) {
+                return type.cast(t);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * How a call fails once it isn't retried anymore, so that calls made within others aren't retried again
+     * by the outer ones.
+     */
+    public static final class CallFailedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CallFailedException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Time calls may spend waiting to be retried, in milliseconds.
+     * Calls made on an agent spend a {@link #remainder()} of the budget, whose spending is charged back once they return.
+     */
+    public static final class Budget implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long limit;
+        private final AtomicLong spent = new AtomicLong();
+
+        /**
+         * @param limit milliseconds, 0 for no limit
+         */
+        public Budget(long limit) {
+            this.limit = limit;
+        }
+
+        public static Budget unlimited() {
+            return new Budget(0);
+        }
+
+        /**
+         * A copy of the budget with what is left of it, to send along with calls made elsewhere.
+         */
+        public Budget remainder() {
+            final Budget remainder = new Budget(limit);
+            remainder.spent.set(spent.get());
+            return remainder;
+        }
+
+        /**
+         * Takes what calls made with a {@link #remainder()} spent from the budget.
+         */
+        void charge(long spentElsewhere) {
+            spent.addAndGet(spentElsewhere);
+        }
+
+        /**
+         * Takes the wait from the budget, unless there isn't enough left.
+         */
+        boolean spend(long delay) {
+            if (limit <= 0) {
+                return true;
+            }
+            while (true) {
+                final long current = spent.get();
+                if (current + delay > limit) {
+                    return false;
+                }
+                if (spent.compareAndSet(current, current + delay)) {
+                    return true;
+                }
+            }
+        }
+
+        public long getSpent() {
+            return spent.get();
+        }
+    }
+}
@@ -13,12 +13,30 @@ public final class S3Artifact implements Serializable {
     private final String bucket;
     private final String name;
     private final String region;
+    private final String blob;
+    private final PackLocation packLocation;
     private /*almost final*/ Boolean useFullProjectName;
 
     public S3Artifact(String region, String bucket, String name) {
+        this(region, bucket, name, null);
+    }
+
+    /**
+     * @param blob name of the blob holding the content in the content-addressed layout, {@code null} if stored under its own name
+     */
+    public S3Artifact(String region, String bucket, String name, String blob) {
+        this(region, bucket, name, blob, null);
+    }
+
+    /**
+     * @param packLocation where the content is when the artifact was packed with other small files, {@code null} otherwise
+     */
+    public S3Artifact(String region, String bucket, String name, String blob, PackLocation packLocation) {
         this.bucket = bucket.intern();
         this.name = name.intern();
         this.region = region.intern();
+        this.blob = blob;
+        this.packLocation = packLocation;
         this.useFullProjectName = true;
     }
 
@@ -46,6 +64,16 @@ public final class S3Artifact implements Serializable {
         return region;
     }
 
+    @Exported
+    public String getBlob() {
+        return blob;
+    }
+
+    @Exported
+    public PackLocation getPackLocation() {
+        return packLocation;
+    }
+
     public Boolean useFullProjectName() {
         if (useFullProjectName == null)
             return false;
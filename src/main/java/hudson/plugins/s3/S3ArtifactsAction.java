@@ -2,16 +2,22 @@ package hudson.plugins.s3;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 
 import java.util.Date;
 import java.util.List;
 
 import javax.servlet.ServletException;
 
-import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.internal.Mimetypes;
 import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ResponseHeaderOverrides;
+import com.amazonaws.services.s3.model.S3Object;
 import jenkins.model.RunAction2;
+import org.apache.commons.io.IOUtils;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
@@ -77,15 +83,53 @@ public class S3ArtifactsAction implements RunAction2 {
         for (FingerprintRecord record : artifacts) {
             if (record.getArtifact().getName().equals(artifact)) {
                 final S3Profile s3 = S3BucketPublisher.getProfile(profile);
-                final AmazonS3Client client = s3.getClient(record.getArtifact().getRegion());
-                final String url = getDownloadURL(client, s3.getSignedUrlExpirySeconds(), build, record);
-                response.sendRedirect2(url);
+                try (ClientRegistry.Lease lease = s3.leaseClient(record.getArtifact().getRegion())) {
+                    if (record.getArtifact().getPackLocation() != null) {
+                        sendPackedArtifact(lease.getClient(), build, record, response);
+                        return;
+                    }
+                    final String url = getDownloadURL(lease.getClient(), s3.getSignedUrlExpirySeconds(), build, record);
+                    response.sendRedirect2(url);
+                }
                 return;
             }
         }
         response.sendError(SC_NOT_FOUND, "This artifact is not available");
     }
 
+    /**
+     * Send the range of the pack holding a packed artifact.
+     *
+     * A signed URL can't carry the range, so the artifact goes through Jenkins.
+     * Packed artifacts are small, that's why they are packed, but they still take turns
+     * with the other transfers of the master.
+     */
+    private void sendPackedArtifact(AmazonS3 client, Run run, FingerprintRecord record, StaplerResponse response) throws IOException {
+        final Destination dest = Destination.newFromRun(run, record.getArtifact());
+        final PackLocation packLocation = record.getArtifact().getPackLocation();
+        final String fileName = (new File(record.getArtifact().getName())).getName().trim();
+
+        response.setContentType(Mimetypes.getInstance().getMimetype(fileName));
+        response.setContentLengthLong(packLocation.getLength());
+        if (!record.isShowDirectlyInBrowser()) {
+            response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + '"');
+        }
+        if (packLocation.getLength() == 0) {
+            return;
+        }
+
+        final GetObjectRequest request = new GetObjectRequest(dest.bucketName, dest.objectName)
+                .withRange(packLocation.getOffset(), packLocation.getLastByte());
+        try (TransferGovernor.Permit permit = TransferGovernor.get().admit(run.getExternalizableId(), packLocation.getLength());
+             S3Object object = client.getObject(request);
+             InputStream in = object.getObjectContent()) {
+            IOUtils.copy(in, response.getOutputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException("Interrupted while sending " + dest).initCause(e);
+        }
+    }
+
     /**
      * Generate a signed download request for a redirect from s3/download.
      *
@@ -94,7 +138,7 @@ public class S3ArtifactsAction implements RunAction2 {
      * download and there's no need for the user to have credentials to
      * access S3.
      */
-    private String getDownloadURL(AmazonS3Client client, int signedUrlExpirySeconds, Run run, FingerprintRecord record) {
+    private String getDownloadURL(AmazonS3 client, int signedUrlExpirySeconds, Run run, FingerprintRecord record) {
         final Destination dest = Destination.newFromRun(run, record.getArtifact());
         final GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(dest.bucketName, dest.objectName);
         request.setExpiration(new Date(System.currentTimeMillis() + signedUrlExpirySeconds*1000));
@@ -103,7 +147,8 @@ public class S3ArtifactsAction implements RunAction2 {
             // let the browser use the last part of the name, not the full path
             // when saving.
             final ResponseHeaderOverrides headers = new ResponseHeaderOverrides();
-            final String fileName = (new File(dest.objectName)).getName().trim();
+            // the object of a content-addressed artifact is named after its content
+            final String fileName = (new File(record.getArtifact().getName())).getName().trim();
             headers.setContentDisposition("attachment; filename=\"" + fileName + '"');
             request.setResponseHeaders(headers);
         }
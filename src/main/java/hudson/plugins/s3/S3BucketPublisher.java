@@ -19,6 +19,7 @@ import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.model.listeners.RunListener;
+import hudson.plugins.s3.callable.S3ScanCallable;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Fingerprinter.FingerprintAction;
@@ -40,14 +41,18 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -246,36 +251,62 @@ public final class S3BucketPublisher extends Recorder implements SimpleBuildStep
             final Map<String, String> record = Maps.newHashMap();
             final List<FingerprintRecord> artifacts = Lists.newArrayList();
 
+            // the files of all entries are found in one walk of the workspace, with their sizes and times
+            final List<String> includes = new ArrayList<>();
+            final List<String> excludes = new ArrayList<>();
             for (Entry entry : entries) {
-                if (entry.noUploadOnFailure && Result.FAILURE.equals(run.getResult())) {
-                    // build failed. don't post
-                    log(Level.WARNING, console, "Skipping publishing on S3 because build failed");
+                if (isSkipped(run, entry)) {
                     continue;
                 }
-
+                // before anything is uploaded
+                try {
+                    entry.getCompressionCodec().checkLevel(entry.compressionLevel);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
                 final String expanded = Util.replaceMacro(entry.sourceFile, envVars);
-                final String exclude = Util.replaceMacro(entry.excludedFile, envVars);
                 if (expanded == null) {
                     throw new IOException();
                 }
+                final String exclude = Util.replaceMacro(entry.excludedFile, envVars);
+                for (String startPath : expanded.split(",")) {
+                    includes.add(startPath);
+                    excludes.add(exclude);
+                }
+            }
+            final List<List<WorkspaceFile>> found = includes.isEmpty()
+                    ? Collections.<List<WorkspaceFile>>emptyList() : ws.act(new S3ScanCallable(includes, excludes));
+            int pattern = 0;
+
+            for (Entry entry : entries) {
+                if (isSkipped(run, entry)) {
+                    // build failed. don't post
+                    log(Level.WARNING, console, "Skipping publishing on S3 because build failed");
+                    continue;
+                }
+
+                final String expanded = Util.replaceMacro(entry.sourceFile, envVars);
 
                 final String bucket = Util.replaceMacro(entry.bucket, envVars);
                 final String storageClass = Util.replaceMacro(entry.storageClass, envVars);
                 final String selRegion = entry.selectedRegion;
 
                 final List<FilePath> paths = new ArrayList<>();
+                final List<WorkspaceFile> files = new ArrayList<>();
                 final List<String> filenames = new ArrayList<>();
 
                 for (String startPath : expanded.split(",")) {
-                    for (FilePath path : ws.list(startPath, exclude)) {
-                        if (path.isDirectory()) {
+                    final int workspacePath = FileHelper.getSearchPathLength(ws.getRemote(),
+                            startPath.trim(),
+                            profile.isKeepStructure());
+                    for (WorkspaceFile file : found.get(pattern++)) {
+                        final FilePath path = ws.child(file.getPath());
+                        if (file.isDirectory()) {
                             throw new IOException(path + " is a directory");
                         }
 
                         paths.add(path);
-                        final int workspacePath = FileHelper.getSearchPathLength(ws.getRemote(),
-                                startPath.trim(),
-                                getProfile().isKeepStructure());
+                        files.add(file);
                         filenames.add(getFilename(path, entry.flatten, workspacePath));
                         log(console, "bucket=" + bucket + ", file=" + path.getName() + " region=" + selRegion + ", will be uploaded from slave=" + entry.uploadFromSlave + " managed=" + entry.managedArtifacts + " , server encryption " + entry.useServerSideEncryption);
                     }
@@ -290,7 +321,18 @@ public final class S3BucketPublisher extends Recorder implements SimpleBuildStep
                 final Map<String, String> escapedMetadata = buildMetadata(envVars, entry);
 
                 final List<FingerprintRecord> records = Lists.newArrayList();
-                final List<FingerprintRecord> fingerprints = profile.upload(run, bucket, paths, filenames, escapedMetadata, storageClass, selRegion, entry.uploadFromSlave, entry.managedArtifacts, entry.useServerSideEncryption, entry.gzipFiles);
+                // agents keep their own limiter, which the uploads go through when made from the agent
+                final FilePath limiterNode = entry.uploadFromSlave ? paths.get(0) : null;
+                final List<FingerprintRecord> fingerprints;
+                // the requests made from here count for the build, those of an agent are counted there
+                try (ThrottlingTally.Scope scope = ThrottlingTally.of(run.getExternalizableId()).enter()) {
+                    fingerprints = profile.upload(run, bucket, paths, files, filenames, escapedMetadata, storageClass, selRegion, entry.uploadFromSlave, entry.managedArtifacts, entry.useServerSideEncryption, entry.getCompressionCodec(), entry.compressionLevel,
+                            profile.getMultipartSettings().override(entry.multipartThreshold, entry.multipartPartSize), entry.skipUnchanged, entry.contentAddressed, entry.getPackThresholdBytes());
+                }
+                final String throttling = profile.collectThrottlingStats(run, limiterNode, selRegion, bucket).describe();
+                if (throttling != null) {
+                    log(Level.WARNING, console, "bucket=" + bucket + ": " + throttling);
+                }
 
                 for (FingerprintRecord fingerprintRecord : fingerprints) {
                     records.add(fingerprintRecord);
@@ -308,6 +350,8 @@ public final class S3BucketPublisher extends Recorder implements SimpleBuildStep
             if (!artifacts.isEmpty()) {
                 addS3ArtifactsAction(run, profile, artifacts);
                 addFingerprintAction(run, record);
+                // the manifest lists the blobs of all steps of the build so far
+                profile.writeManifests(run, run.getAction(S3ArtifactsAction.class).getArtifacts());
             }
         } catch (AmazonClientException|IOException e) {
             if (!isDontSetBuildResultOnFailure()) {
@@ -391,6 +435,10 @@ public final class S3BucketPublisher extends Recorder implements SimpleBuildStep
         return escapedMetadata;
     }
 
+    private static boolean isSkipped(Run<?, ?> run, Entry entry) {
+        return entry.noUploadOnFailure && Result.FAILURE.equals(run.getResult());
+    }
+
     private String getFilename(FilePath src, boolean flatten, int searchIndex) {
         final String fileName;
         if (flatten) {
@@ -404,17 +452,49 @@ public final class S3BucketPublisher extends Recorder implements SimpleBuildStep
 
     @Extension
     public static final class S3DeletedJobListener extends RunListener<Run> {
+        private static final Logger LOGGER = Logger.getLogger(S3DeletedJobListener.class.getName());
+
         @Override
         public void onDeleted(Run run) {
             final S3ArtifactsAction artifacts = run.getAction(S3ArtifactsAction.class);
-            if (artifacts != null) {
-                final S3Profile profile = S3BucketPublisher.getProfile(artifacts.getProfile());
-                for (FingerprintRecord record : artifacts.getArtifacts()) {
-                    if (!record.isKeepForever()) {
+            // a build which failed publishing may still hold references, without artifacts
+            final BlobReferences references = BlobReferences.of(run.getParent());
+            // no build starts relying on the blobs while they are deleted
+            synchronized (references) {
+                delete(run, artifacts, references.release(run.getNumber()));
+            }
+        }
+
+        /**
+         * Blobs are shared by the builds of a job, only those no other build references are deleted.
+         */
+        private static void delete(Run run, @CheckForNull S3ArtifactsAction artifacts, Set<String> unreferencedBlobs) {
+            if (artifacts == null) {
+                return;
+            }
+            final S3Profile profile = S3BucketPublisher.getProfile(artifacts.getProfile());
+            // packed artifacts share their pack, which is deleted once
+            final Set<String> deleted = new HashSet<>();
+            for (FingerprintRecord record : artifacts.getArtifacts()) {
+                if (record.isKeepForever()) {
+                    continue;
+                }
+                final String dest = Destination.newFromRun(run, record.getArtifact()).toString();
+                if (BlobReferences.isBlob(record) && !unreferencedBlobs.contains(dest)) {
+                    continue;
+                }
+                if (deleted.add(dest)) {
+                    try {
                         profile.delete(run, record);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Failed to delete " + dest + " of " + run, e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
                     }
                 }
             }
+            profile.deleteManifests(run, artifacts.getArtifacts());
         }
     }
 
@@ -430,9 +510,16 @@ public final class S3BucketPublisher extends Recorder implements SimpleBuildStep
         private static final Logger LOGGER = Logger.getLogger(DescriptorImpl.class.getName());
         private static final Result[] pluginFailureResultConstraints = { Result.FAILURE, Result.UNSTABLE, Result.SUCCESS };
 
+        /*
+         * Limits of the transfers the master makes itself, across all builds, 0 for no limit.
+         */
+        private int maxMasterTransfers;
+        private int maxMasterMegabytes;
+
         public DescriptorImpl(Class<? extends Publisher> clazz) {
             super(clazz);
             load();
+            applyTransferLimits();
         }
 
         public List<Region> regions = Entry.regions;
@@ -461,7 +548,12 @@ public final class S3BucketPublisher extends Recorder implements SimpleBuildStep
             } else {
                 profiles.replaceBy(req.bindJSON(S3Profile.class, json.getJSONObject("profile")));
             }
+            maxMasterTransfers = Math.max(0, json.optInt("maxMasterTransfers", 0));
+            maxMasterMegabytes = Math.max(0, json.optInt("maxMasterMegabytes", 0));
             save();
+            applyTransferLimits();
+            // clients of the previous settings aren't needed anymore, on agents they are evicted when idle
+            ClientRegistry.get().invalidateAll();
             return true;
         }
 
@@ -497,6 +589,18 @@ public final class S3BucketPublisher extends Recorder implements SimpleBuildStep
             save();
         }
 
+        public int getMaxMasterTransfers() {
+            return maxMasterTransfers;
+        }
+
+        public int getMaxMasterMegabytes() {
+            return maxMasterMegabytes;
+        }
+
+        private void applyTransferLimits() {
+            TransferGovernor.get().setLimits(maxMasterTransfers, maxMasterMegabytes * 1024L * 1024L);
+        }
+
         public Level[] getConsoleLogLevels() {
             return consoleLogLevels.clone();
         }
@@ -81,6 +81,7 @@ import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import javax.annotation.Nonnull;
@@ -100,6 +101,7 @@ public class S3CopyArtifact extends Builder implements SimpleBuildStep {
     private /*almost final*/ BuildSelector selector;
     private final Boolean flatten;
     private final Boolean optional;
+    private int maxConcurrentDownloads;
 
     private static final BuildSelector DEFAULT_BUILD_SELECTOR = new StatusBuildSelector(true);
 
@@ -151,6 +153,18 @@ public class S3CopyArtifact extends Builder implements SimpleBuildStep {
         return optional != null && optional;
     }
 
+    /**
+     * How many artifacts are downloaded at the same time, 0 for the setting of the S3 profile.
+     */
+    public int getMaxConcurrentDownloads() {
+        return maxConcurrentDownloads;
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+        this.maxConcurrentDownloads = Math.max(0, maxConcurrentDownloads);
+    }
+
     private void setResult(@Nonnull Run<?, ?> run, boolean isOk) {
         if (isOptional()) {
             return;
@@ -267,7 +281,8 @@ public class S3CopyArtifact extends Builder implements SimpleBuildStep {
         }
 
         targetDir.mkdirs();
-        final List<FingerprintRecord> records = profile.downloadAll(src, action.getArtifacts(), includeFilter, excludeFilter, targetDir, isFlatten());
+        final List<FingerprintRecord> records = profile.downloadAll(src, dst, action.getArtifacts(), includeFilter, excludeFilter, targetDir, isFlatten(),
+                getMaxConcurrentDownloads());
 
         final Map<String, String> fingerprints = Maps.newHashMap();
         for(FingerprintRecord record : records) {
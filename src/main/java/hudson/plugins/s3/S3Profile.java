@@ -2,36 +2,58 @@ package hudson.plugins.s3;
 
 import hudson.FilePath;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 import hudson.ProxyConfiguration;
-import hudson.plugins.s3.callable.MasterSlaveCallable;
-import hudson.plugins.s3.callable.S3CleanupUploadCallable;
+import hudson.plugins.s3.callable.S3BaseUploadCallable;
+import hudson.plugins.s3.callable.S3BatchUploadCallable;
+import hudson.plugins.s3.callable.S3CompressCallable;
 import hudson.plugins.s3.callable.S3DownloadCallable;
-import hudson.plugins.s3.callable.S3GzipCallable;
+import hudson.plugins.s3.callable.S3ThrottlingStatsCallable;
 import hudson.plugins.s3.callable.S3UploadCallable;
-import hudson.plugins.s3.callable.S3WaitUploadCallable;
 import jenkins.model.Jenkins;
 import org.apache.commons.io.FilenameUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
-import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.DeleteObjectRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.google.common.collect.Lists;
 
+import javax.annotation.CheckForNull;
+
+import hudson.model.Computer;
+import hudson.model.Node;
 import hudson.model.Run;
 import hudson.util.Secret;
 
 public class S3Profile {
+    private static final String JOURNAL_DIR = "s3-uploads";
+    // deletions hold up the deletion of their build, so they are only retried a couple of times, shortly
+    private static final RetryPolicy DELETE_RETRY_POLICY = new RetryPolicy(3, 200, 1000);
+    static final String MANIFEST_NAME = ".s3-manifest";
+    private static final int DEFAULT_AGENT_READ_AHEAD = 4;
+    private static final int DEFAULT_MAX_RETRY_DELAY = 60;
+
     private final String name;
     private final String accessKey;
     private final Secret secretKey;
@@ -44,6 +66,81 @@ public class S3Profile {
     private final boolean useRole;
     private final int signedUrlExpirySeconds;
 
+    /**
+     * How many files of an entry are uploaded at the same time, 1 means one after another.
+     */
+    private int maxConcurrentUploads = 1;
+
+    /**
+     * How many artifacts a copy downloads at the same time, 1 means one after another.
+     */
+    private int maxConcurrentDownloads = 1;
+
+    /**
+     * How many threads compress a single file when compression is enabled.
+     */
+    private int compressionThreads = 1;
+
+    /**
+     * Files from this size on, in MB, are uploaded in parts.
+     */
+    private int multipartThreshold = MultipartSettings.DEFAULT_THRESHOLD_MB;
+
+    /**
+     * Size of the parts in MB, the starting point when the part size is adaptive.
+     */
+    private int multipartPartSize = MultipartSettings.DEFAULT_PART_SIZE_MB;
+
+    private boolean adaptivePartSize;
+
+    /**
+     * Record multipart uploads so that a retry only sends the missing parts.
+     */
+    private boolean resumableUploads;
+
+    /**
+     * How many pipes carry a file from an agent when the master uploads it, 0 to read it as any other file.
+     */
+    private int agentStreams;
+
+    /**
+     * How many chunks of each pipe from an agent are buffered ahead of the upload.
+     */
+    private int agentReadAhead = DEFAULT_AGENT_READ_AHEAD;
+
+    private boolean agentStreamCompression;
+
+    /*
+     * HTTP connection settings of the clients, 0 keeps the default of the AWS SDK.
+     * Durations are in seconds, socket buffer sizes in KB.
+     */
+    private int maxConnections;
+    private int connectionTtl;
+    private int socketSendBufferSize;
+    private int socketReceiveBufferSize;
+    private boolean tcpKeepAlive;
+    private int requestTimeout;
+    private int socketTimeout;
+    private int idleConnectionTimeout;
+
+    /**
+     * Longest wait between two attempts, in seconds.
+     */
+    private int maxRetryDelay = DEFAULT_MAX_RETRY_DELAY;
+
+    /**
+     * Time a build may spend waiting to retry calls, in seconds, 0 for no limit.
+     */
+    private int retryBudget;
+
+    /**
+     * Bytes per second, in KB, the transfers of the profile may use on each node, 0 for no limit.
+     */
+    private int maxBandwidth;
+
+    // the retry budgets of the builds uploading right now
+    private transient Map<Run<?, ?>, RetryPolicy.Budget> retryBudgets;
+
     @DataBoundConstructor
     public S3Profile(String name, String accessKey, String secretKey, boolean useRole, int signedUrlExpirySeconds, String maxUploadRetries, String uploadRetryTime, String maxDownloadRetries, String downloadRetryTime, boolean keepStructure) {
         this.name = name;
@@ -116,13 +213,281 @@ public class S3Profile {
         return signedUrlExpirySeconds;
     }
 
-    public AmazonS3Client getClient(String region) {
-        return ClientHelper.createClient(accessKey, Secret.toString(secretKey), useRole, region, getProxy());
+    public int getMaxConcurrentUploads() {
+        // profiles saved by older versions don't have this field
+        return Math.max(1, maxConcurrentUploads);
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrentUploads(String maxConcurrentUploads) {
+        this.maxConcurrentUploads = parseWithDefault(maxConcurrentUploads, 1);
+    }
+
+    public int getMaxConcurrentDownloads() {
+        // profiles saved by older versions don't have this field
+        return Math.max(1, maxConcurrentDownloads);
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrentDownloads(String maxConcurrentDownloads) {
+        this.maxConcurrentDownloads = parseWithDefault(maxConcurrentDownloads, 1);
+    }
+
+    public int getCompressionThreads() {
+        return Math.max(1, compressionThreads);
+    }
+
+    @DataBoundSetter
+    public void setCompressionThreads(String compressionThreads) {
+        this.compressionThreads = parseWithDefault(compressionThreads, 1);
+    }
+
+    public int getMultipartThreshold() {
+        return multipartThreshold > 0 ? multipartThreshold : MultipartSettings.DEFAULT_THRESHOLD_MB;
+    }
+
+    @DataBoundSetter
+    public void setMultipartThreshold(String multipartThreshold) {
+        this.multipartThreshold = parseWithDefault(multipartThreshold, MultipartSettings.DEFAULT_THRESHOLD_MB);
+    }
+
+    public int getMultipartPartSize() {
+        return multipartPartSize > 0 ? multipartPartSize : MultipartSettings.DEFAULT_PART_SIZE_MB;
+    }
+
+    @DataBoundSetter
+    public void setMultipartPartSize(String multipartPartSize) {
+        this.multipartPartSize = parseWithDefault(multipartPartSize, MultipartSettings.DEFAULT_PART_SIZE_MB);
+    }
+
+    public boolean isAdaptivePartSize() {
+        return adaptivePartSize;
+    }
+
+    @DataBoundSetter
+    public void setAdaptivePartSize(boolean adaptivePartSize) {
+        this.adaptivePartSize = adaptivePartSize;
+    }
+
+    public boolean isResumableUploads() {
+        return resumableUploads;
+    }
+
+    @DataBoundSetter
+    public void setResumableUploads(boolean resumableUploads) {
+        this.resumableUploads = resumableUploads;
+    }
+
+    public int getAgentStreams() {
+        return Math.max(0, agentStreams);
+    }
+
+    @DataBoundSetter
+    public void setAgentStreams(String agentStreams) {
+        this.agentStreams = parseWithDefault(agentStreams, 0);
+    }
+
+    public int getAgentReadAhead() {
+        return agentReadAhead > 0 ? agentReadAhead : DEFAULT_AGENT_READ_AHEAD;
+    }
+
+    @DataBoundSetter
+    public void setAgentReadAhead(String agentReadAhead) {
+        this.agentReadAhead = parseWithDefault(agentReadAhead, DEFAULT_AGENT_READ_AHEAD);
+    }
+
+    public boolean isAgentStreamCompression() {
+        return agentStreamCompression;
+    }
+
+    @DataBoundSetter
+    public void setAgentStreamCompression(boolean agentStreamCompression) {
+        this.agentStreamCompression = agentStreamCompression;
+    }
+
+    /**
+     * How the master reads the files of agents it uploads, {@code null} to read them as any other file.
+     */
+    @CheckForNull
+    public AgentStreamSettings getAgentStreamSettings() {
+        return getAgentStreams() > 0
+                ? new AgentStreamSettings(getAgentStreams(), getAgentReadAhead(), agentStreamCompression) : null;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    @DataBoundSetter
+    public void setMaxConnections(String maxConnections) {
+        this.maxConnections = parseWithDefault(maxConnections, 0);
+    }
+
+    public int getConnectionTtl() {
+        return connectionTtl;
+    }
+
+    @DataBoundSetter
+    public void setConnectionTtl(String connectionTtl) {
+        this.connectionTtl = parseWithDefault(connectionTtl, 0);
+    }
+
+    public int getSocketSendBufferSize() {
+        return socketSendBufferSize;
+    }
+
+    @DataBoundSetter
+    public void setSocketSendBufferSize(String socketSendBufferSize) {
+        this.socketSendBufferSize = parseWithDefault(socketSendBufferSize, 0);
+    }
+
+    public int getSocketReceiveBufferSize() {
+        return socketReceiveBufferSize;
+    }
+
+    @DataBoundSetter
+    public void setSocketReceiveBufferSize(String socketReceiveBufferSize) {
+        this.socketReceiveBufferSize = parseWithDefault(socketReceiveBufferSize, 0);
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    @DataBoundSetter
+    public void setTcpKeepAlive(boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    public int getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    @DataBoundSetter
+    public void setRequestTimeout(String requestTimeout) {
+        this.requestTimeout = parseWithDefault(requestTimeout, 0);
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    @DataBoundSetter
+    public void setSocketTimeout(String socketTimeout) {
+        this.socketTimeout = parseWithDefault(socketTimeout, 0);
+    }
+
+    public int getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    @DataBoundSetter
+    public void setIdleConnectionTimeout(String idleConnectionTimeout) {
+        this.idleConnectionTimeout = parseWithDefault(idleConnectionTimeout, 0);
+    }
+
+    public int getMaxRetryDelay() {
+        return maxRetryDelay > 0 ? maxRetryDelay : DEFAULT_MAX_RETRY_DELAY;
     }
 
-    public List<FingerprintRecord> upload(Run<?, ?> run,
+    @DataBoundSetter
+    public void setMaxRetryDelay(String maxRetryDelay) {
+        this.maxRetryDelay = parseWithDefault(maxRetryDelay, DEFAULT_MAX_RETRY_DELAY);
+    }
+
+    public int getRetryBudget() {
+        return Math.max(0, retryBudget);
+    }
+
+    @DataBoundSetter
+    public void setRetryBudget(String retryBudget) {
+        this.retryBudget = parseWithDefault(retryBudget, 0);
+    }
+
+    public int getMaxBandwidth() {
+        return Math.max(0, maxBandwidth);
+    }
+
+    @DataBoundSetter
+    public void setMaxBandwidth(String maxBandwidth) {
+        this.maxBandwidth = parseWithDefault(maxBandwidth, 0);
+    }
+
+    /**
+     * The bandwidth cap of the transfers made for the build, {@code null} when there is none.
+     */
+    @CheckForNull
+    public BandwidthLimit getBandwidthLimit(Run<?, ?> run) {
+        return getMaxBandwidth() > 0 ? new BandwidthLimit(name, getMaxBandwidth() * 1024L, run.getExternalizableId()) : null;
+    }
+
+    public RetryPolicy getUploadRetryPolicy() {
+        return RetryPolicy.ofSeconds(maxUploadRetries, uploadRetryTime, getMaxRetryDelay());
+    }
+
+    public RetryPolicy getDownloadRetryPolicy() {
+        return RetryPolicy.ofSeconds(maxDownloadRetries, downloadRetryTime, getMaxRetryDelay());
+    }
+
+    /**
+     * The retry budget of the build, shared by all the calls made for it.
+     */
+    public synchronized RetryPolicy.Budget getRetryBudget(Run<?, ?> run) {
+        if (retryBudgets == null) {
+            retryBudgets = new WeakHashMap<>();
+        }
+        RetryPolicy.Budget budget = retryBudgets.get(run);
+        if (budget == null) {
+            budget = newRetryBudget();
+            retryBudgets.put(run, budget);
+        }
+        return budget;
+    }
+
+    private RetryPolicy.Budget newRetryBudget() {
+        return new RetryPolicy.Budget(TimeUnit.SECONDS.toMillis(getRetryBudget()));
+    }
+
+    /**
+     * Connection settings of the clients of the profile, on the master as on agents.
+     */
+    public ConnectionSettings getConnectionSettings() {
+        return new ConnectionSettings(maxConnections, connectionTtl, socketSendBufferSize, socketReceiveBufferSize,
+                tcpKeepAlive, requestTimeout, socketTimeout, idleConnectionTimeout);
+    }
+
+    public MultipartSettings getMultipartSettings() {
+        return MultipartSettings.ofMegabytes(getMultipartThreshold(), getMultipartPartSize(), adaptivePartSize)
+                .withResumable(resumableUploads);
+    }
+
+    /**
+     * Leases the client of the profile for the region, to close once done with it.
+     * Clients are kept between calls, and replaced when the configuration or the proxy changes.
+     */
+    public ClientRegistry.Lease leaseClient(String region) {
+        return ClientRegistry.get().lease(accessKey, secretKey, useRole, region, getProxy(), getConnectionSettings());
+    }
+
+    /**
+     * Collects the throttling the build met on the node of the given file, the master's when {@code null},
+     * with the current rate of the limiter of the bucket, which is shared by the builds of the node.
+     */
+    public AdaptiveRateLimiter.Stats collectThrottlingStats(Run<?, ?> run, @CheckForNull FilePath node, String region, String bucketName)
+            throws IOException, InterruptedException {
+        final String clientKey = ClientRegistry.getKey(accessKey, secretKey, useRole, region, getProxy(), getConnectionSettings());
+        if (node == null) {
+            return ThrottlingTally.collect(run.getExternalizableId()).getStats(AdaptiveRateLimiter.getRate(clientKey, bucketName));
+        }
+        // the few requests the master made meanwhile aren't reported
+        ThrottlingTally.collect(run.getExternalizableId());
+        return node.act(new S3ThrottlingStatsCallable(run.getExternalizableId(), clientKey, bucketName));
+    }
+
+    public List<FingerprintRecord> upload(final Run<?, ?> run,
                                     final String bucketName,
                                     final List<FilePath> filePaths,
+                                    final List<WorkspaceFile> foundFiles,
                                     final List<String> fileNames,
                                     final Map<String, String> userMetadata,
                                     final String storageClass,
@@ -130,80 +495,296 @@ public class S3Profile {
                                     final boolean uploadFromSlave,
                                     final boolean managedArtifacts,
                                     final boolean useServerSideEncryption,
-                                    final boolean gzipFiles) throws IOException, InterruptedException {
-        final List<FingerprintRecord> fingerprints = new ArrayList<>(fileNames.size());
+                                    final Compression compression,
+                                    final int compressionLevel,
+                                    final MultipartSettings multipart,
+                                    final boolean skipUnchanged,
+                                    final boolean contentAddressed,
+                                    final long packThreshold) throws IOException, InterruptedException {
+        if (filePaths.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-        try {
-            for (int i = 0; i < fileNames.size(); i++) {
-                final FilePath filePath = filePaths.get(i);
-                final String fileName = fileNames.get(i);
-
-                final Destination dest;
-                final boolean produced;
-                if (managedArtifacts) {
-                    dest = Destination.newFromRun(run, bucketName, fileName, true);
-                    produced = run.getTimeInMillis() <= filePath.lastModified() + 2000;
-                } else {
-                    dest = new Destination(bucketName, fileName);
-                    produced = false;
-                }
+        final boolean useBlobs = managedArtifacts && contentAddressed;
+        // blobs are named after their content, which is also what unchanged files are found with
+        final List<String> sourceMd5s = skipUnchanged || useBlobs ? UnchangedObjects.digest(filePaths) : null;
+        final List<String> blobs = useBlobs ? new ArrayList<String>(fileNames.size()) : null;
+        final List<Destination> dests = new ArrayList<>(fileNames.size());
+        for (int i = 0; i < fileNames.size(); i++) {
+            if (useBlobs) {
+                final String blob = getBlobName(sourceMd5s.get(i), compression);
+                blobs.add(blob);
+                dests.add(Destination.newBlobFromRun(run, bucketName, blob, true));
+            } else if (managedArtifacts) {
+                dests.add(Destination.newFromRun(run, bucketName, fileNames.get(i), true));
+            } else {
+                dests.add(new Destination(bucketName, fileNames.get(i)));
+            }
+        }
+        if (useBlobs) {
+            // before finding which blobs are stored already, so that no deleted build takes them away meanwhile
+            final Set<String> referenced = new HashSet<>();
+            for (Destination dest : dests) {
+                referenced.add(dest.toString());
+            }
+            BlobReferences.of(run.getParent()).add(run.getNumber(), referenced);
+        }
 
-                final MasterSlaveCallable<String> upload;
-                if (gzipFiles) {
-                    upload = new S3GzipCallable(accessKey, secretKey, useRole, dest, userMetadata,
-                            storageClass, selregion, useServerSideEncryption, getProxy());
-                } else {
-                    upload = new S3UploadCallable(accessKey, secretKey, useRole, dest, userMetadata,
-                            storageClass, selregion, useServerSideEncryption, getProxy());
-                }
+        // small files are only packed when managed, as they can't be downloaded by their name
+        final Destination packDir = managedArtifacts && packThreshold > 0
+                ? Destination.newFromRun(run, bucketName, PackUpload.PACK_DIR, true) : null;
+
+        if (uploadFromSlave) {
+            final List<String> paths = new ArrayList<>(filePaths.size());
+            for (FilePath filePath : filePaths) {
+                paths.add(filePath.getRemote());
+            }
+
+            // one round trip for the whole entry, the node is picked by the first file
+            final S3BatchUploadCallable batch = new S3BatchUploadCallable(accessKey, secretKey, useRole, selregion, getProxy(), getConnectionSettings(),
+                    bucketName, paths, fileNames, dests, userMetadata, storageClass, useServerSideEncryption,
+                    compression, compressionLevel, multipart, sourceMd5s, blobs, packDir, packThreshold, managedArtifacts, run.getTimeInMillis(),
+                    getMaxConcurrentUploads(), getCompressionThreads(), getUploadRetryPolicy(),
+                    getJournalDir(run, filePaths.get(0)), run.getExternalizableId());
+            batch.setBandwidth(getBandwidthLimit(run));
+            return uploadFromNode(filePaths.get(0), batch, getRetryBudget(run));
+        }
+
+        // journals in the job directory survive a restart of the master, and outlive the builds which die leaving some
+        final UploadSession session = new UploadSession(new File(run.getParent().getRootDir(), JOURNAL_DIR), run.getExternalizableId(),
+                getAgentStreamSettings());
+        final RetryPolicy retryPolicy = getUploadRetryPolicy();
+        final RetryPolicy.Budget retryBudget = getRetryBudget(run);
+        final BandwidthLimit bandwidth = getBandwidthLimit(run);
+        // the master shares its uploads with the other builds, waits for retries don't hold a turn
+        final TransferGovernor governor = TransferGovernor.get();
+        final String buildId = run.getExternalizableId();
+        final List<Callable<FingerprintRecord>> uploads = new ArrayList<>(fileNames.size());
+        final List<Integer> uploadIndexes = new ArrayList<>(fileNames.size());
+        final List<FilePath> packedFiles = new ArrayList<>();
+        final List<WorkspaceFile> packedFound = new ArrayList<>();
+        final List<String> packedNames = new ArrayList<>();
+        final List<Integer> packedIndexes = new ArrayList<>();
+        final List<UnchangedObjects.Check> checks = sourceMd5s != null
+                ? checkUnchanged(selregion, sourceMd5s, dests, compression) : null;
+
+        for (int i = 0; i < fileNames.size(); i++) {
+            final FilePath filePath = filePaths.get(i);
+            final WorkspaceFile found = foundFiles.get(i);
+            final String fileName = fileNames.get(i);
+            final Destination dest = dests.get(i);
+            final String blob = blobs != null ? blobs.get(i) : null;
+
+            if (packDir != null && PackUpload.isPacked(found.getLength(), packThreshold)) {
+                packedFiles.add(filePath);
+                packedFound.add(found);
+                packedNames.add(fileName);
+                packedIndexes.add(i);
+                continue;
+            }
+            uploadIndexes.add(i);
 
-                final FingerprintRecord fingerprintRecord = repeat(maxUploadRetries, uploadRetryTime, dest, new Callable<FingerprintRecord>() {
+            if (checks != null && checks.get(i).isUnchanged()) {
+                final String md5 = checks.get(i).getStoredMd5();
+                uploads.add(new Callable<FingerprintRecord>() {
                     @Override
                     public FingerprintRecord call() throws IOException, InterruptedException {
-                        final String md5 = invoke(uploadFromSlave, filePath, upload);
-                        return new FingerprintRecord(produced, bucketName, fileName, selregion, md5);
+                        final boolean produced = managedArtifacts && run.getTimeInMillis() <= found.getLastModified() + 2000;
+                        return new FingerprintRecord(produced, bucketName, fileName, selregion, md5, blob);
                     }
                 });
+                continue;
+            }
 
-                fingerprints.add(fingerprintRecord);
+            final Map<String, String> metadata = checks == null ? userMetadata
+                    : UnchangedObjects.withSourceMd5(userMetadata, checks.get(i).getSourceMd5());
+            final S3BaseUploadCallable upload;
+            if (compression != Compression.NONE) {
+                upload = new S3CompressCallable(accessKey, secretKey, useRole, dest, metadata,
+                        storageClass, selregion, useServerSideEncryption, getProxy(), getConnectionSettings(), multipart,
+                        compression, compressionLevel, getCompressionThreads());
+            } else {
+                upload = new S3UploadCallable(accessKey, secretKey, useRole, dest, metadata,
+                        storageClass, selregion, useServerSideEncryption, getProxy(), getConnectionSettings(), multipart);
             }
+            upload.setBandwidth(bandwidth);
+
+            uploads.add(new Callable<FingerprintRecord>() {
+                @Override
+                public FingerprintRecord call() throws IOException, InterruptedException {
+                    final boolean produced = managedArtifacts && run.getTimeInMillis() <= found.getLastModified() + 2000;
+
+                    return retryPolicy.call(dest, retryBudget, new Callable<FingerprintRecord>() {
+                        @Override
+                        public FingerprintRecord call() throws IOException, InterruptedException {
+                            try (TransferGovernor.Permit permit = governor.admit(buildId, found.getLength())) {
+                                final String md5 = upload.invoke(session, filePath, found);
+                                return new FingerprintRecord(produced, bucketName, fileName, selregion, md5, blob);
+                            }
+                        }
+                    });
+                }
+            });
+        }
 
-            waitUploads(filePaths, uploadFromSlave);
-        } catch (InterruptedException | IOException exception) {
-            cleanupUploads(filePaths, uploadFromSlave);
-            throw exception;
+        try {
+            final FingerprintRecord[] records = new FingerprintRecord[fileNames.size()];
+            if (!packedFiles.isEmpty()) {
+                long total = 0;
+                for (WorkspaceFile found : packedFound) {
+                    total += found.getLength();
+                }
+                final long packedBytes = total;
+                final List<PackUpload.PackedFile> packed;
+                try (ClientRegistry.Lease lease = leaseClient(selregion)) {
+                    final PackUpload packUpload = new PackUpload(session, lease.getClient(), packDir, multipart,
+                            storageClass, useServerSideEncryption, userMetadata);
+                    packUpload.setBandwidth(bandwidth);
+                    packed = retryPolicy.call(packDir, retryBudget, new Callable<List<PackUpload.PackedFile>>() {
+                        @Override
+                        public List<PackUpload.PackedFile> call() throws IOException, InterruptedException {
+                            // packs are sent one after the other, each at most a pack in size
+                            try (TransferGovernor.Permit permit = governor.admit(buildId, Math.min(PackUpload.PACK_SIZE, packedBytes))) {
+                                return packUpload.upload(packedFiles, packedFound, packedNames);
+                            }
+                        }
+                    });
+                }
+                for (int p = 0; p < packed.size(); p++) {
+                    final boolean produced = run.getTimeInMillis() <= packedFound.get(p).getLastModified() + 2000;
+                    final S3Artifact artifact = new S3Artifact(selregion, bucketName, packedNames.get(p), null, packed.get(p).getLocation());
+                    records[packedIndexes.get(p)] = new FingerprintRecord(produced, artifact, packed.get(p).getMd5());
+                }
+            }
+
+            final List<FingerprintRecord> uploaded = ParallelTasks.invokeAll("S3 upload of " + run, getMaxConcurrentUploads(), uploads);
+            for (int u = 0; u < uploaded.size(); u++) {
+                records[uploadIndexes.get(u)] = uploaded.get(u);
+            }
+            return new ArrayList<>(Arrays.asList(records));
+        } finally {
+            session.close();
         }
+    }
 
-        return fingerprints;
+    /**
+     * Runs the batch on the node of the file, again when the node couldn't finish it, as when its connection
+     * broke. The files are retried on the node already, a batch which failed there isn't run again.
+     * Each run resumes the multipart uploads the previous ones left, from their journals on the node.
+     * The retries on the node wait from what is left of the budget, and what they waited is taken from it.
+     */
+    private List<FingerprintRecord> uploadFromNode(final FilePath file, final S3BatchUploadCallable batch, final RetryPolicy.Budget retryBudget)
+            throws IOException, InterruptedException {
+        final Computer computer = file.toComputer();
+        final Node node = computer == null ? null : computer.getNode();
+        return getUploadRetryPolicy().call(node == null ? file : node.getDisplayName(), retryBudget, new Callable<List<FingerprintRecord>>() {
+            @Override
+            public List<FingerprintRecord> call() throws IOException, InterruptedException {
+                // an agent which reconnected has another channel
+                final FilePath current = node == null ? file : node.createPath(file.getRemote());
+                if (current == null) {
+                    throw new IOException(node.getDisplayName() + " is offline, can't upload " + file.getRemote() + " from it");
+                }
+                batch.setRetryBudget(retryBudget.remainder());
+                try {
+                    final S3BatchUploadCallable.Result result = current.act(batch);
+                    retryBudget.charge(result.getRetrySpent());
+                    return result.getRecords();
+                } catch (S3BatchUploadCallable.Failure e) {
+                    retryBudget.charge(e.getRetrySpent());
+                    throw e;
+                }
+            }
+        });
+    }
+
+    private List<UnchangedObjects.Check> checkUnchanged(String region, List<String> sourceMd5s, List<Destination> dests,
+                                                        Compression compression) throws IOException, InterruptedException {
+        try (ClientRegistry.Lease lease = leaseClient(region)) {
+            return UnchangedObjects.check(lease.getClient(), sourceMd5s, dests, compression);
+        }
     }
 
-    private void cleanupUploads(final List<FilePath> filePaths, boolean uploadFromSlave) {
-        for (FilePath filePath : filePaths) {
-            try {
-                invoke(uploadFromSlave, filePath, new S3CleanupUploadCallable());
+    /**
+     * Name of the blob holding the given content, which differs for each codec the content is stored with.
+     */
+    private static String getBlobName(String sourceMd5, Compression compression) {
+        return compression == Compression.NONE ? sourceMd5 : sourceMd5 + '.' + compression.getContentEncoding();
+    }
+
+    /**
+     * Writes the manifest of the content-addressed artifacts of the build, mapping their names to their blobs.
+     * There is one manifest in each bucket holding blobs of the build, next to where the artifacts would be.
+     */
+    public void writeManifests(Run<?, ?> run, List<FingerprintRecord> artifacts) throws IOException {
+        for (Map.Entry<S3Artifact, String> manifest : buildManifests(artifacts).entrySet()) {
+            final S3Artifact location = manifest.getKey();
+            final Destination dest = Destination.newFromRun(run, location.getBucket(), MANIFEST_NAME, location.useFullProjectName());
+            final byte[] content = manifest.getValue().getBytes(StandardCharsets.UTF_8);
+            final ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(content.length);
+            metadata.setContentType("text/plain; charset=UTF-8");
+            try (ClientRegistry.Lease lease = leaseClient(location.getRegion())) {
+                lease.getClient().putObject(dest.bucketName, dest.objectName, new ByteArrayInputStream(content), metadata);
+            } catch (AmazonClientException e) {
+                throw new IOException("Failed to write manifest " + dest, e);
             }
-            catch (InterruptedException | IOException ignored) {
+        }
+    }
+
+    /**
+     * Deletes the manifests written by {@link #writeManifests(Run, List)}.
+     */
+    public void deleteManifests(Run<?, ?> run, List<FingerprintRecord> artifacts) {
+        for (S3Artifact location : buildManifests(artifacts).keySet()) {
+            final Destination dest = Destination.newFromRun(run, location.getBucket(), MANIFEST_NAME, location.useFullProjectName());
+            try (ClientRegistry.Lease lease = leaseClient(location.getRegion())) {
+                lease.getClient().deleteObject(new DeleteObjectRequest(dest.bucketName, dest.objectName));
             }
         }
     }
 
-    private void waitUploads(final List<FilePath> filePaths, boolean uploadFromSlave) throws InterruptedException, IOException {
-        for (FilePath filePath : filePaths) {
-            invoke(uploadFromSlave, filePath, new S3WaitUploadCallable());
+    // one line per artifact: the blob, a tab and the name
+    private static Map<S3Artifact, String> buildManifests(List<FingerprintRecord> artifacts) {
+        final Map<String, S3Artifact> locations = new LinkedHashMap<>();
+        final Map<String, StringBuilder> manifests = new LinkedHashMap<>();
+        for (FingerprintRecord record : artifacts) {
+            final S3Artifact artifact = record.getArtifact();
+            if (artifact.getBlob() == null) {
+                continue;
+            }
+            final String bucket = artifact.getBucket();
+            if (!locations.containsKey(bucket)) {
+                locations.put(bucket, artifact);
+                manifests.put(bucket, new StringBuilder());
+            }
+            manifests.get(bucket).append(artifact.getBlob()).append('\t').append(artifact.getName()).append('\n');
         }
+
+        final Map<S3Artifact, String> result = new LinkedHashMap<>();
+        for (Map.Entry<String, S3Artifact> location : locations.entrySet()) {
+            result.put(location.getValue(), manifests.get(location.getKey()).toString());
+        }
+        return result;
     }
 
-    private <T> T invoke(boolean uploadFromSlave, FilePath filePath, MasterSlaveCallable<T> callable) throws InterruptedException, IOException {
-        if (uploadFromSlave) {
-            return filePath.act(callable);
-        } else {
-            return callable.invoke(filePath);
+    /**
+     * Where the journals of resumable uploads are kept on the node of the given file, in the root directory
+     * of an agent so that they survive it reconnecting, in the job directory on the master, as in the other uploads
+     * of the master. {@code null} if the node is gone.
+     */
+    @CheckForNull
+    private static String getJournalDir(Run<?, ?> run, FilePath file) {
+        final Computer computer = file.toComputer();
+        final Node node = computer == null ? null : computer.getNode();
+        if (node instanceof Jenkins) {
+            return new File(run.getParent().getRootDir(), JOURNAL_DIR).getPath();
         }
+        final FilePath root = node == null ? null : node.getRootPath();
+        return root == null ? null : root.child(JOURNAL_DIR).getRemote();
     }
 
     public List<String> list(Run build, String bucket) {
-        final AmazonS3Client s3client = getClient(ClientHelper.DEFAULT_AMAZON_S3_REGION_NAME);
-
         final String buildName = build.getDisplayName();
         final int buildID = build.getNumber();
         final Destination dest = new Destination(bucket, "jobs/" + buildName + '/' + buildID + '/' + name);
@@ -215,61 +796,83 @@ public class S3Profile {
 
         final List<String> files = Lists.newArrayList();
 
-        ObjectListing objectListing;
-        do {
-          objectListing = s3client.listObjects(listObjectsRequest);
-          for (S3ObjectSummary summary : objectListing.getObjectSummaries()) {
-            final GetObjectRequest req = new GetObjectRequest(dest.bucketName, summary.getKey());
-            files.add(req.getKey());
-          }
-          listObjectsRequest.setMarker(objectListing.getNextMarker());
-        } while (objectListing.isTruncated());
+        try (ClientRegistry.Lease lease = leaseClient(ClientHelper.DEFAULT_AMAZON_S3_REGION_NAME)) {
+          ObjectListing objectListing;
+          do {
+            objectListing = lease.getClient().listObjects(listObjectsRequest);
+            for (S3ObjectSummary summary : objectListing.getObjectSummaries()) {
+              final GetObjectRequest req = new GetObjectRequest(dest.bucketName, summary.getKey());
+              files.add(req.getKey());
+            }
+            listObjectsRequest.setMarker(objectListing.getNextMarker());
+          } while (objectListing.isTruncated());
+        }
         return files;
       }
 
       /**
        * Download all artifacts from a given build
+       *
+       * @param copyingBuild the build the artifacts are downloaded for, which the bandwidth is shared with
+       * @param maxConcurrentDownloads how many artifacts are downloaded at the same time, 0 for the profile's setting
+       * @return the fingerprints of the downloaded artifacts, in the order of the artifacts
        */
       public List<FingerprintRecord> downloadAll(Run build,
+                                                 final Run<?, ?> copyingBuild,
                                                  final List<FingerprintRecord> artifacts,
                                                  final String includeFilter,
                                                  final String excludeFilter,
                                                  final FilePath targetDir,
-                                                 final boolean flatten) throws IOException, InterruptedException {
-          final List<FingerprintRecord> fingerprints = Lists.newArrayList();
+                                                 final boolean flatten,
+                                                 int maxConcurrentDownloads) throws IOException, InterruptedException {
+          final RetryPolicy retryPolicy = getDownloadRetryPolicy();
+          // the build downloading isn't known, the budget is the copy's
+          final RetryPolicy.Budget retryBudget = newRetryBudget();
+          final BandwidthLimit bandwidth = getBandwidthLimit(copyingBuild);
+          // downloads the master makes itself take turns with the other transfers of the master
+          final TransferGovernor governor = TransferGovernor.get();
+          final String buildId = (copyingBuild != null ? copyingBuild : build).getExternalizableId();
+          // builds may have a lot of artifacts, the filter is compiled once for all of them
+          final GlobFilter filter = GlobFilter.compile(includeFilter, excludeFilter);
+          final List<Callable<FingerprintRecord>> downloads = new ArrayList<>(artifacts.size());
+          final List<String> targets = new ArrayList<>(artifacts.size());
           for(final FingerprintRecord record : artifacts) {
               final S3Artifact artifact = record.getArtifact();
+              if (!filter.matches(artifact.getName())) {
+                  continue;
+              }
               final Destination dest = Destination.newFromRun(build, artifact);
               final FilePath target = getFilePath(targetDir, flatten, artifact.getName());
 
-              if (FileHelper.selected(includeFilter, excludeFilter, artifact.getName())) {
-                  fingerprints.add(repeat(maxDownloadRetries, downloadRetryTime, dest, new Callable<FingerprintRecord>() {
-                      @Override
-                      public FingerprintRecord call() throws IOException, InterruptedException {
-                          final String md5 = target.act(new S3DownloadCallable(accessKey, secretKey, useRole, dest, artifact.getRegion(), getProxy()));
-                          return new FingerprintRecord(true, dest.bucketName, target.getName(), artifact.getRegion(), md5);
-                      }
-                  }));
-              }
+              targets.add(target.getRemote());
+              downloads.add(new Callable<FingerprintRecord>() {
+                  @Override
+                  public FingerprintRecord call() throws IOException, InterruptedException {
+                      return retryPolicy.call(dest, retryBudget, new Callable<FingerprintRecord>() {
+                          @Override
+                          public FingerprintRecord call() throws IOException, InterruptedException {
+                              final S3DownloadCallable download = new S3DownloadCallable(accessKey, secretKey, useRole, dest, artifact.getPackLocation(), artifact.getRegion(), getProxy(), getConnectionSettings());
+                              download.setBandwidth(bandwidth);
+                              if (target.isRemote()) {
+                                  final String md5 = target.act(download);
+                                  return new FingerprintRecord(true, dest.bucketName, target.getName(), artifact.getRegion(), md5);
+                              }
+                              // only the length of packed artifacts is recorded, the others count as transfers only
+                              final PackLocation packLocation = artifact.getPackLocation();
+                              try (TransferGovernor.Permit permit = governor.admit(buildId, packLocation == null ? 0 : packLocation.getLength())) {
+                                  final String md5 = target.act(download);
+                                  return new FingerprintRecord(true, dest.bucketName, target.getName(), artifact.getRegion(), md5);
+                              }
+                          }
+                      });
+                  }
+              });
           }
-          return fingerprints;
-      }
-
-    private <T> T repeat(int maxRetries, int waitTime, Destination dest, Callable<T> func) throws IOException, InterruptedException {
-        int retryCount = 0;
 
-        while (true) {
-            try {
-                return func.call();
-            } catch (Exception e) {
-                retryCount++;
-                if(retryCount >= maxRetries){
-                    throw new IOException("Call fails for " + dest + ": " + e + ":: Failed after " + retryCount + " tries.", e);
-                }
-                Thread.sleep(TimeUnit.SECONDS.toMillis(waitTime));
-            }
-        }
-    }
+          final int threads = maxConcurrentDownloads > 0 ? maxConcurrentDownloads : getMaxConcurrentDownloads();
+          // artifacts flattened to the same file are downloaded one after another, as they were before
+          return ParallelTasks.invokeAllByKey("S3 download from " + build, threads, targets, downloads);
+      }
 
     private FilePath getFilePath(FilePath targetDir, boolean flatten, String fullName) {
         if (flatten) {
@@ -283,11 +886,25 @@ public class S3Profile {
     /**
        * Delete some artifacts of a given run
        */
-      public void delete(Run run, FingerprintRecord record) {
+      public void delete(Run run, FingerprintRecord record) throws IOException, InterruptedException {
           final Destination dest = Destination.newFromRun(run, record.getArtifact());
-          final DeleteObjectRequest req = new DeleteObjectRequest(dest.bucketName, dest.objectName);
-          final AmazonS3Client client = getClient(record.getArtifact().getRegion());
-          client.deleteObject(req);
+          final PackLocation packLocation = record.getArtifact().getPackLocation();
+          final Destination index = packLocation == null ? null : Destination.newFromRun(run, record.getArtifact().getBucket(),
+                  PackUpload.getIndexName(packLocation.getPack()), record.getArtifact().useFullProjectName());
+
+          try (ClientRegistry.Lease lease = leaseClient(record.getArtifact().getRegion())) {
+              final AmazonS3 client = lease.getClient();
+              DELETE_RETRY_POLICY.call(dest, RetryPolicy.Budget.unlimited(), new Callable<Void>() {
+                  @Override
+                  public Void call() {
+                      client.deleteObject(new DeleteObjectRequest(dest.bucketName, dest.objectName));
+                      if (index != null) {
+                          client.deleteObject(new DeleteObjectRequest(index.bucketName, index.objectName));
+                      }
+                      return null;
+                  }
+              });
+          }
       }
 
     @Override
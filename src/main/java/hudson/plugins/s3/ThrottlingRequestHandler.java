@@ -0,0 +1,94 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * Sends every attempt of the requests of a client through the {@link AdaptiveRateLimiter} of its bucket.
+ * Attempts include the retries of the SDK, which is where S3 throttling is seen first.
+ * The throttling is also counted in the {@link ThrottlingTally} of the thread, if any.
+ */
+final class ThrottlingRequestHandler extends RequestHandler2 {
+    private final String clientKey;
+
+    ThrottlingRequestHandler(String clientKey) {
+        this.clientKey = clientKey;
+    }
+
+    @Override
+    public void beforeAttempt(HandlerBeforeAttemptContext context) {
+        final AdaptiveRateLimiter limiter = getLimiter(context.getRequest().getOriginalRequest());
+        if (limiter == null) {
+            return;
+        }
+        try {
+            final long waited = limiter.acquire();
+            final ThrottlingTally tally = ThrottlingTally.current();
+            if (tally != null) {
+                tally.onWaited(waited);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting to send a request to S3", e);
+        }
+    }
+
+    @Override
+    public void afterAttempt(HandlerAfterAttemptContext context) {
+        final AdaptiveRateLimiter limiter = getLimiter(context.getRequest().getOriginalRequest());
+        if (limiter == null) {
+            return;
+        }
+        final Exception failure = context.getException();
+        if (failure == null) {
+            limiter.onSuccess();
+        } else if (RetryPolicy.isThrottled(failure)) {
+            limiter.onThrottled();
+            final ThrottlingTally tally = ThrottlingTally.current();
+            if (tally != null) {
+                tally.onThrottled();
+            }
+        }
+    }
+
+    private AdaptiveRateLimiter getLimiter(AmazonWebServiceRequest request) {
+        final String bucketName = getBucketName(request);
+        return bucketName == null ? null : AdaptiveRateLimiter.get(clientKey, bucketName);
+    }
+
+    // the requests made by the plugin, there is no common interface to get their bucket
+    static String getBucketName(AmazonWebServiceRequest request) {
+        if (request instanceof PutObjectRequest) {
+            return ((PutObjectRequest) request).getBucketName();
+        } else if (request instanceof UploadPartRequest) {
+            return ((UploadPartRequest) request).getBucketName();
+        } else if (request instanceof InitiateMultipartUploadRequest) {
+            return ((InitiateMultipartUploadRequest) request).getBucketName();
+        } else if (request instanceof CompleteMultipartUploadRequest) {
+            return ((CompleteMultipartUploadRequest) request).getBucketName();
+        } else if (request instanceof AbortMultipartUploadRequest) {
+            return ((AbortMultipartUploadRequest) request).getBucketName();
+        } else if (request instanceof GetObjectRequest) {
+            return ((GetObjectRequest) request).getBucketName();
+        } else if (request instanceof GetObjectMetadataRequest) {
+            return ((GetObjectMetadataRequest) request).getBucketName();
+        } else if (request instanceof DeleteObjectRequest) {
+            return ((DeleteObjectRequest) request).getBucketName();
+        } else if (request instanceof ListObjectsRequest) {
+            return ((ListObjectsRequest) request).getBucketName();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,126 @@
+package hudson.plugins.s3;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throttling met by the requests of one build in a JVM, so that a build reports its own rather than
+ * what the {@link AdaptiveRateLimiter} of the bucket saw for all the builds.
+ *
+ * The requests are counted in the tally of the thread they are sent from. A step uploading enters the tally of
+ * its build, and the threads it starts are handed the tally with {@link #wrap(Callable)}. The tally is collected
+ * once the step is done, those nobody collected, as their step failed, are dropped past {@link #MAX_SIZE}.
+ */
+public final class ThrottlingTally {
+    static final int MAX_SIZE = 64;
+
+    private static final ThreadLocal<ThrottlingTally> CURRENT = new ThreadLocal<>();
+    // in access order, so the tally dropped is the one of the least recent build
+    private static final Map<String, ThrottlingTally> TALLIES = new LinkedHashMap<String, ThrottlingTally>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ThrottlingTally> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+
+    ThrottlingTally() {}
+
+    /**
+     * The tally of the build, as given by {@code Run.getExternalizableId()}.
+     */
+    public static ThrottlingTally of(String buildId) {
+        synchronized (TALLIES) {
+            ThrottlingTally tally = TALLIES.get(buildId);
+            if (tally == null) {
+                tally = new ThrottlingTally();
+                TALLIES.put(buildId, tally);
+            }
+            return tally;
+        }
+    }
+
+    /**
+     * Takes the tally of the build away, so that its next step starts from nothing.
+     */
+    public static ThrottlingTally collect(String buildId) {
+        synchronized (TALLIES) {
+            final ThrottlingTally tally = TALLIES.remove(buildId);
+            return tally == null ? new ThrottlingTally() : tally;
+        }
+    }
+
+    /**
+     * The tally the requests of this thread count in, {@code null} if none.
+     */
+    static ThrottlingTally current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Counts the requests of this thread in this tally until the returned scope is closed.
+     */
+    public Scope enter() {
+        final ThrottlingTally previous = CURRENT.get();
+        CURRENT.set(this);
+        return new Scope(previous);
+    }
+
+    /**
+     * Wraps the task so that its requests count in the tally of this thread, wherever it runs.
+     */
+    static <T> Callable<T> wrap(final Callable<T> task) {
+        final ThrottlingTally tally = current();
+        if (tally == null) {
+            return task;
+        }
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try (Scope scope = tally.enter()) {
+                    return task.call();
+                }
+            }
+        };
+    }
+
+    void onThrottled() {
+        throttled.incrementAndGet();
+    }
+
+    void onWaited(long nanos) {
+        waited.addAndGet(nanos);
+    }
+
+    /**
+     * What the tally counted, with the current rate of the given limiter.
+     */
+    public AdaptiveRateLimiter.Stats getStats(double rate) {
+        return new AdaptiveRateLimiter.Stats(throttled.get(), waited.get(), rate);
+    }
+
+    /**
+     * Where the requests of the thread stop counting in the tally.
+     */
+    public static final class Scope implements Closeable {
+        private final ThrottlingTally previous;
+
+        private Scope(ThrottlingTally previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
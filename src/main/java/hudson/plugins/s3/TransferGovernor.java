@@ -0,0 +1,257 @@
+package hudson.plugins.s3;
+
+import hudson.model.Run;
+
+import javax.annotation.CheckForNull;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Admits the transfers the master makes itself, across all builds.
+ *
+ * At most {@link #getMaxTransfers()} transfers and {@link #getMaxBytes()} bytes are in flight at once, 0 meaning
+ * no limit. The excess waits in a queue per build, and the queues are served in turn, one transfer each, so a build
+ * publishing thousands of files doesn't hold back the builds which finished after it. A transfer larger than the byte
+ * limit is admitted alone, rather than never.
+ */
+public final class TransferGovernor {
+    private static final TransferGovernor INSTANCE = new TransferGovernor();
+
+    private int maxTransfers;
+    private long maxBytes;
+
+    private int transfers;
+    private long bytes;
+    // counts the admissions, to know which build was served the longest ago
+    private long admissions;
+    // the builds with transfers in flight or waiting, in the order they came
+    private final Map<String, BuildTransfers> builds = new LinkedHashMap<>();
+
+    TransferGovernor() {}
+
+    public static TransferGovernor get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Changes the limits, which apply to the transfers admitted from now on.
+     */
+    public void setLimits(int maxTransfers, long maxBytes) {
+        synchronized (this) {
+            this.maxTransfers = Math.max(0, maxTransfers);
+            this.maxBytes = Math.max(0, maxBytes);
+            dispatch();
+        }
+    }
+
+    public synchronized int getMaxTransfers() {
+        return maxTransfers;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Waits for the turn of a transfer of the build, which must close the permit once done.
+     *
+     * @param build identifies the build the transfer is made for
+     * @param length bytes the transfer holds while in flight
+     */
+    public Permit admit(String build, long length) throws InterruptedException {
+        final Permit permit = new Permit(build, Math.max(0, length));
+        synchronized (this) {
+            getBuild(build).queue.add(permit);
+            dispatch();
+            try {
+                while (!permit.admitted) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                if (permit.admitted) {
+                    release(permit);
+                } else {
+                    final BuildTransfers waiting = builds.get(build);
+                    waiting.queue.remove(permit);
+                    removeIfIdle(waiting);
+                }
+                throw e;
+            }
+        }
+        return permit;
+    }
+
+    // admits the waiting transfers which fit, the build served the longest ago first
+    private void dispatch() {
+        boolean admitted = false;
+        while (true) {
+            BuildTransfers next = null;
+            for (BuildTransfers build : builds.values()) {
+                if (!build.queue.isEmpty() && (next == null || build.lastAdmission < next.lastAdmission)) {
+                    next = build;
+                }
+            }
+            if (next == null || !fits(next.queue.peek())) {
+                break;
+            }
+            final Permit permit = next.queue.poll();
+            permit.admitted = true;
+            transfers++;
+            bytes += permit.length;
+            next.transfers++;
+            next.bytes += permit.length;
+            next.lastAdmission = ++admissions;
+            admitted = true;
+        }
+        if (admitted) {
+            notifyAll();
+        }
+    }
+
+    private boolean fits(Permit permit) {
+        if (transfers == 0) {
+            return true;
+        }
+        return (maxTransfers == 0 || transfers < maxTransfers)
+                && (maxBytes == 0 || bytes + permit.length <= maxBytes);
+    }
+
+    private synchronized void release(Permit permit) {
+        transfers--;
+        bytes -= permit.length;
+        final BuildTransfers build = builds.get(permit.build);
+        build.transfers--;
+        build.bytes -= permit.length;
+        removeIfIdle(build);
+        dispatch();
+    }
+
+    private BuildTransfers getBuild(String build) {
+        BuildTransfers transfers = builds.get(build);
+        if (transfers == null) {
+            transfers = new BuildTransfers(build);
+            builds.put(build, transfers);
+        }
+        return transfers;
+    }
+
+    private void removeIfIdle(BuildTransfers build) {
+        if (build.transfers == 0 && build.queue.isEmpty()) {
+            builds.remove(build.build);
+        }
+    }
+
+    /**
+     * What each build has in flight and waiting, in the order the builds came.
+     */
+    public synchronized List<BuildState> getBuilds() {
+        final List<BuildState> states = new ArrayList<>(builds.size());
+        for (BuildTransfers build : builds.values()) {
+            long queuedBytes = 0;
+            for (Permit permit : build.queue) {
+                queuedBytes += permit.length;
+            }
+            states.add(new BuildState(build.build, build.transfers, build.bytes, build.queue.size(), queuedBytes));
+        }
+        return Collections.unmodifiableList(states);
+    }
+
+    public synchronized int getTransfers() {
+        return transfers;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private static final class BuildTransfers {
+        private final String build;
+        private final Deque<Permit> queue = new ArrayDeque<>();
+        private int transfers;
+        private long bytes;
+        private long lastAdmission;
+
+        BuildTransfers(String build) {
+            this.build = build;
+        }
+    }
+
+    /**
+     * A transfer let through, to close once done.
+     */
+    public final class Permit implements Closeable {
+        private final String build;
+        private final long length;
+        private boolean admitted;
+        private boolean closed;
+
+        private Permit(String build, long length) {
+            this.build = build;
+            this.length = length;
+        }
+
+        @Override
+        public void close() {
+            synchronized (TransferGovernor.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                release(this);
+            }
+        }
+    }
+
+    /**
+     * Transfers of a build, as shown on the management page.
+     */
+    public static final class BuildState {
+        private final String build;
+        private final int running;
+        private final long runningBytes;
+        private final int queued;
+        private final long queuedBytes;
+
+        BuildState(String build, int running, long runningBytes, int queued, long queuedBytes) {
+            this.build = build;
+            this.running = running;
+            this.runningBytes = runningBytes;
+            this.queued = queued;
+            this.queuedBytes = queuedBytes;
+        }
+
+        public String getBuild() {
+            return build;
+        }
+
+        /**
+         * The build, {@code null} if it is gone or can't be seen.
+         */
+        @CheckForNull
+        public Run<?, ?> getRun() {
+            return Run.fromExternalizableId(build);
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        public long getRunningBytes() {
+            return runningBytes;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public long getQueuedBytes() {
+            return queuedBytes;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package hudson.plugins.s3;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+
+import java.util.List;
+
+/**
+ * Shows the transfers the master is making to S3 and the ones waiting for their turn.
+ */
+@Extension
+public final class TransferGovernorLink extends ManagementLink {
+    @Override
+    public String getIconFileName() {
+        return "network.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "S3 Transfers";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Transfers to S3 made by the master, and the ones queued by build.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "s3-transfers";
+    }
+
+    public TransferGovernor getGovernor() {
+        return TransferGovernor.get();
+    }
+
+    public List<TransferGovernor.BuildState> getBuilds() {
+        return TransferGovernor.get().getBuilds();
+    }
+}
@@ -0,0 +1,30 @@
+package hudson.plugins.s3;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of a single connection, measured over the requests sent so far.
+ *
+ * Concurrent requests each add their own time, so this is the rate of one request
+ * rather than the total rate of the transfers.
+ */
+public final class TransferRate {
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    public void record(long sentBytes, long elapsedNanos) {
+        if (sentBytes > 0 && elapsedNanos > 0) {
+            bytes.addAndGet(sentBytes);
+            nanos.addAndGet(elapsedNanos);
+        }
+    }
+
+    /**
+     * Bytes per second, 0 until something was measured.
+     */
+    public double getBytesPerSecond() {
+        final long elapsed = nanos.get();
+        return elapsed == 0 ? 0 : bytes.get() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+}
@@ -0,0 +1,136 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import hudson.FilePath;
+import hudson.plugins.s3.callable.S3DigestCallable;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the files whose content is already stored at their destination, so their upload can be skipped.
+ *
+ * The MD5 of each file is compared with the MD5 of the source recorded in the metadata of the object,
+ * which is how compressed and multipart uploads can be compared, or else with the ETag of objects
+ * uploaded as is in a single request. The objects are looked up with HEAD requests sent in parallel.
+ */
+public final class UnchangedObjects {
+    /**
+     * User metadata holding the MD5 of the file an object was uploaded from.
+     */
+    public static final String SOURCE_MD5 = "source-md5";
+
+    private static final int CHECK_THREADS = 16;
+    private static final Pattern SINGLE_PART_ETAG = Pattern.compile("[0-9a-fA-F]{32}");
+
+    private UnchangedObjects() {}
+
+    /**
+     * Computes the MD5 of the files, on the node they are on, in the same order as the files.
+     */
+    public static List<String> digest(List<FilePath> files) throws IOException, InterruptedException {
+        if (files.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final List<String> paths = new ArrayList<>(files.size());
+        for (FilePath file : files) {
+            paths.add(file.getRemote());
+        }
+        // all files are in the same workspace, the first one picks the node
+        return files.get(0).act(new S3DigestCallable(paths, CHECK_THREADS));
+    }
+
+    /**
+     * Checks every file, given by its MD5, against its destination. The results are in the same order as the files.
+     */
+    public static List<Check> check(final AmazonS3 client, List<String> sourceMd5s, List<Destination> dests,
+                                    final Compression compression) throws IOException, InterruptedException {
+        final List<Callable<Check>> checks = new ArrayList<>(sourceMd5s.size());
+        for (int i = 0; i < sourceMd5s.size(); i++) {
+            final String sourceMd5 = sourceMd5s.get(i);
+            final Destination dest = dests.get(i);
+            checks.add(new Callable<Check>() {
+                @Override
+                public Check call() throws IOException {
+                    return new Check(sourceMd5, findStoredMd5(client, dest, sourceMd5, compression));
+                }
+            });
+        }
+        return ParallelTasks.invokeAll("S3 unchanged objects check", CHECK_THREADS, checks);
+    }
+
+    /**
+     * The user metadata to upload a file with, so that it can be compared with the next time.
+     */
+    public static Map<String, String> withSourceMd5(Map<String, String> userMetadata, String sourceMd5) {
+        final Map<String, String> metadata = new HashMap<>(userMetadata);
+        metadata.put(SOURCE_MD5, sourceMd5);
+        return metadata;
+    }
+
+    @CheckForNull
+    private static String findStoredMd5(AmazonS3 client, Destination dest, String sourceMd5, Compression compression) throws IOException {
+        final ObjectMetadata metadata;
+        try {
+            metadata = client.getObjectMetadata(dest.bucketName, dest.objectName);
+        } catch (AmazonServiceException e) {
+            // without the right to list the bucket a missing object is forbidden rather than not found
+            if (e.getStatusCode() == 404 || e.getStatusCode() == 403) {
+                return null;
+            }
+            throw new IOException("Failed to look up " + dest, e);
+        } catch (AmazonClientException e) {
+            throw new IOException("Failed to look up " + dest, e);
+        }
+
+        if (Compression.fromContentEncoding(metadata.getContentEncoding()) != compression) {
+            return null;
+        }
+
+        final String etag = metadata.getETag();
+        final boolean singlePart = etag != null && SINGLE_PART_ETAG.matcher(etag).matches();
+        if (sourceMd5.equalsIgnoreCase(metadata.getUserMetaDataOf(SOURCE_MD5))) {
+            // that's the MD5 of the stored object whenever it's known
+            return singlePart ? etag.toLowerCase() : sourceMd5;
+        }
+        if (compression == Compression.NONE && singlePart && sourceMd5.equalsIgnoreCase(etag)) {
+            return sourceMd5;
+        }
+        return null;
+    }
+
+    public static final class Check {
+        private final String sourceMd5;
+        private final String storedMd5;
+
+        Check(String sourceMd5, @CheckForNull String storedMd5) {
+            this.sourceMd5 = sourceMd5;
+            this.storedMd5 = storedMd5;
+        }
+
+        public String getSourceMd5() {
+            return sourceMd5;
+        }
+
+        /**
+         * MD5 to record for the stored object, {@code null} if the file has to be uploaded.
+         */
+        @CheckForNull
+        public String getStoredMd5() {
+            return storedMd5;
+        }
+
+        public boolean isUnchanged() {
+            return storedMd5 != null;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Record of a multipart upload in progress, so a later attempt can resume it.
+ *
+ * The journal is a small text file named after the build owning the upload and its destination,
+ * holding the upload ID, the part size and one line per part sent, appended as soon as S3 acknowledged
+ * the part. Each part is recorded with the MD5 of its content, so a resumed upload only skips the
+ * parts whose content didn't change. A line cut short by a crash is simply ignored.
+ *
+ * Only attempts of the same build resume an upload, so that builds publishing the same object at the
+ * same time don't mix their parts. Journals nobody wrote to for a day are left by builds which died,
+ * {@link #expire(AmazonS3, File)} aborts their uploads.
+ */
+public final class UploadJournal {
+    private static final Logger LOGGER = Logger.getLogger(UploadJournal.class.getName());
+    private static final String SUFFIX = ".log";
+    // journals untouched for that long belong to builds which are gone
+    static final long EXPIRY = TimeUnit.DAYS.toMillis(1);
+    // by then S3 lifecycle rules have dropped the upload, or nobody will
+    static final long GIVE_UP = TimeUnit.DAYS.toMillis(30);
+
+    private final File file;
+    private String owner;
+    private String key;
+    private final Map<Integer, Part> parts = new HashMap<>();
+    private String uploadId;
+    private int partSize;
+
+    private UploadJournal(File file, String owner, String key) {
+        this.file = file;
+        this.owner = owner;
+        this.key = key;
+    }
+
+    /**
+     * Opens the journal of the given destination, empty if nothing was recorded yet.
+     *
+     * @param owner the build uploading, as given by {@code Run.getExternalizableId()}
+     */
+    public static UploadJournal open(File dir, String owner, String bucketName, String objectName) {
+        final String key = bucketName + '/' + objectName;
+        final UploadJournal journal = new UploadJournal(new File(dir, DigestUtils.md5Hex(owner + '\n' + key) + SUFFIX), owner, key);
+        journal.load();
+        return journal;
+    }
+
+    /**
+     * Aborts the uploads of the journals of the directory nobody wrote to for a day, and deletes them.
+     * A journal whose upload can't be aborted with this client, such as one of another region,
+     * is kept for a later attempt, for a month at most.
+     */
+    public static void expire(AmazonS3 client, File dir) {
+        final long now = System.currentTimeMillis();
+        final File[] stale = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(SUFFIX) && file.lastModified() < now - EXPIRY;
+            }
+        });
+        if (stale == null) {
+            return;
+        }
+
+        for (File file : stale) {
+            final UploadJournal journal = new UploadJournal(file, null, null);
+            journal.load();
+            if (journal.uploadId == null || journal.abortUpload(client) || file.lastModified() < now - GIVE_UP) {
+                journal.delete();
+            }
+        }
+    }
+
+    private boolean abortUpload(AmazonS3 client) {
+        final String[] destination = key.split("/", 2);
+        try {
+            client.abortMultipartUpload(new AbortMultipartUploadRequest(destination[0], destination[1], uploadId));
+            LOGGER.fine("Aborted upload " + uploadId + " of " + key + " left by " + owner);
+            return true;
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() == 404) {
+                // already aborted or completed
+                return true;
+            }
+            LOGGER.log(Level.FINE, "Failed to abort upload " + uploadId + " of " + key + " left by " + owner, e);
+            return false;
+        } catch (AmazonClientException e) {
+            LOGGER.log(Level.FINE, "Failed to abort upload " + uploadId + " of " + key + " left by " + owner, e);
+            return false;
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+
+        final List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read upload journal " + file, e);
+            return;
+        }
+
+        // a journal opened to be expired takes whatever it holds
+        final boolean any = owner == null;
+        String recordedOwner = null;
+        for (String line : lines) {
+            if (line.startsWith("owner ")) {
+                // the owner is a whole line, it may contain spaces
+                recordedOwner = line.substring("owner ".length());
+                continue;
+            }
+            // the object name comes last in the header, it may contain spaces
+            final String[] fields = line.split(" ", line.startsWith("upload ") ? 4 : 5);
+            try {
+                if (fields[0].equals("upload") && fields.length == 4 && recordedOwner != null
+                        && (any ? fields[3].contains("/") : recordedOwner.equals(owner) && fields[3].equals(key))) {
+                    partSize = Integer.parseInt(fields[1]);
+                    uploadId = fields[2];
+                    if (any) {
+                        owner = recordedOwner;
+                        key = fields[3];
+                    }
+                } else if (fields[0].equals("part") && fields.length == 5 && uploadId != null) {
+                    parts.put(Integer.parseInt(fields[1]), new Part(Integer.parseInt(fields[2]), fields[3], fields[4]));
+                }
+            } catch (NumberFormatException e) {
+                LOGGER.fine("Ignoring line of upload journal " + file + ": " + line);
+            }
+        }
+    }
+
+    /**
+     * ID of the recorded upload, {@code null} if there is nothing to resume.
+     */
+    public synchronized String getUploadId() {
+        return uploadId;
+    }
+
+    public synchronized int getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * Records a new upload, forgetting whatever was recorded before.
+     */
+    public synchronized void start(String uploadId, int partSize) {
+        this.uploadId = uploadId;
+        this.partSize = partSize;
+        parts.clear();
+        write(Arrays.asList("owner " + owner, "upload " + partSize + ' ' + uploadId + ' ' + key),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * ETag of the part if it was already sent with the same content, {@code null} otherwise.
+     */
+    public synchronized String getETag(int partNumber, int length, String md5) {
+        final Part part = parts.get(partNumber);
+        return part != null && part.length == length && part.md5.equals(md5) ? part.etag : null;
+    }
+
+    public synchronized void record(int partNumber, int length, String md5, String etag) {
+        if (uploadId == null) {
+            // a part sent while the upload was dropped
+            return;
+        }
+        parts.put(partNumber, new Part(length, md5, etag));
+        write(Collections.singletonList("part " + partNumber + ' ' + length + ' ' + md5 + ' ' + etag),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Forgets the upload, once it is completed or can't be resumed anymore.
+     */
+    public synchronized void delete() {
+        uploadId = null;
+        parts.clear();
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to delete upload journal " + file, e);
+        }
+    }
+
+    // a journal which can't be written only costs the ability to resume
+    private void write(List<String> lines, StandardOpenOption... options) {
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), lines, StandardCharsets.UTF_8, options);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write upload journal " + file, e);
+        }
+    }
+
+    private static final class Part {
+        private final int length;
+        private final String md5;
+        private final String etag;
+
+        Part(int length, String md5, String etag) {
+            this.length = length;
+            this.md5 = md5;
+            this.etag = etag;
+        }
+    }
+}
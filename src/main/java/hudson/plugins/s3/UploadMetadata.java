@@ -0,0 +1,67 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+import javax.annotation.CheckForNull;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * What the objects of an upload are stored with beside their content, whether they hold a file or a pack of them.
+ */
+public final class UploadMetadata {
+    private UploadMetadata() {
+    }
+
+    /**
+     * Sets the storage class and the server side encryption the user asked for.
+     */
+    public static void setStorage(ObjectMetadata metadata, @CheckForNull String storageClass, boolean useServerSideEncryption) {
+        if (storageClass != null && !storageClass.isEmpty()) {
+            metadata.setHeader("x-amz-storage-class", storageClass);
+        }
+        if (useServerSideEncryption) {
+            metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        }
+    }
+
+    /**
+     * Sets the metadata the user asked for, the standard headers among them as such.
+     *
+     * @param ofContent whether the object is the file the metadata is meant for, rather than a pack
+     *                  whose content type and encoding are its own
+     */
+    public static void setUserMetadata(ObjectMetadata metadata, Map<String, String> userMetadata, boolean ofContent) {
+        for (Map.Entry<String, String> entry : userMetadata.entrySet()) {
+            final String key = entry.getKey().toLowerCase();
+            switch (key) {
+                case "cache-control":
+                    metadata.setCacheControl(entry.getValue());
+                    break;
+                case "expires":
+                    try {
+                        final Date expires = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z").parse(entry.getValue());
+                        metadata.setHttpExpiresDate(expires);
+                    } catch (ParseException e) {
+                        metadata.addUserMetadata(entry.getKey(), entry.getValue());
+                    }
+                    break;
+                case "content-encoding":
+                    if (ofContent) {
+                        metadata.setContentEncoding(entry.getValue());
+                    }
+                    break;
+                case "content-type":
+                    if (ofContent) {
+                        metadata.setContentType(entry.getValue());
+                    }
+                    break;
+                default:
+                    metadata.addUserMetadata(entry.getKey(), entry.getValue());
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import hudson.FilePath;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.apache.commons.io.IOUtils;
+
+import javax.annotation.CheckForNull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Uploads started by one publishing step on one node.
+ *
+ * The session owns the buffers and threads of the multipart uploads it opens,
+ * and measures the throughput the adaptive part size is based on.
+ * Given a directory, the journals of resumable uploads are kept there, so that
+ * the attempts of the owning build resume what failed before, in this session or in the next one
+ * when the whole step is tried again, as after an agent lost its connection.
+ * It is safe to upload from several threads. Closing the session aborts whatever is still running;
+ * resumable uploads are kept in the bucket with their journal, for the next attempt or until they expire.
+ */
+public final class UploadSession implements Closeable {
+    // how much of a single upload is kept in memory to resend it if the connection breaks: all of it
+    private static final int MAX_READ_LIMIT = (int) MultipartSettings.MAX_SINGLE_UPLOAD + 1;
+    private static final int BUFFER_SIZE = 64*1024;
+    private static final int PARTS_IN_FLIGHT = 2;
+
+    private final Set<MultipartOutputStream> streams = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean expired = new AtomicBoolean();
+    private final TransferRate rate = new TransferRate();
+    private final File journalDir;
+    private final String owner;
+    private final AgentStreamSettings agentStreams;
+    private ExecutorService partExecutor;
+    private ExecutorService pumpExecutor;
+    private volatile boolean closed;
+
+    public UploadSession() {
+        this(null, null);
+    }
+
+    /**
+     * @param journalDir where the journals of resumable uploads are kept, {@code null} if uploads can't be resumed
+     * @param owner the build uploading, as given by {@code Run.getExternalizableId()}
+     */
+    public UploadSession(@CheckForNull File journalDir, @CheckForNull String owner) {
+        this(journalDir, owner, null);
+    }
+
+    /**
+     * @param agentStreams how files of agents are read, {@code null} to read them as any other file
+     */
+    public UploadSession(@CheckForNull File journalDir, @CheckForNull String owner, @CheckForNull AgentStreamSettings agentStreams) {
+        this.journalDir = owner == null ? null : journalDir;
+        this.owner = owner;
+        this.agentStreams = agentStreams;
+    }
+
+    /**
+     * Opens a file to upload, streamed through several pipes when it is on another node than this one.
+     */
+    public InputStream read(FilePath file) throws IOException, InterruptedException {
+        return read(file, -1);
+    }
+
+    /**
+     * Opens a file to upload whose length is known already, which saves asking its node for it.
+     *
+     * @param length length of the file, negative if unknown
+     */
+    public InputStream read(FilePath file, long length) throws IOException, InterruptedException {
+        if (agentStreams == null || !file.isRemote()) {
+            return file.read();
+        }
+        return AgentStream.open(file, length < 0 ? file.length() : length, agentStreams, getPumpExecutor());
+    }
+
+    /**
+     * Uploads content of a known length, in parts when the settings say so, and closes the stream.
+     */
+    public void upload(AmazonS3 client, InputStream inputStream, long length, String bucketName, String objectName,
+                       ObjectMetadata metadata, MultipartSettings settings) throws IOException {
+        try (InputStream in = inputStream) {
+            if (closed) {
+                throw new IOException("Upload session is already closed, not uploading " + objectName);
+            }
+
+            if (settings.isMultipart(length)) {
+                final MultipartOutputStream stream = openMultipartStream(client, bucketName, objectName, metadata, length, settings);
+                try {
+                    IOUtils.copyLarge(in, stream, new byte[BUFFER_SIZE]);
+                    finishUploading(stream);
+                } finally {
+                    abortUploading(stream);
+                }
+                return;
+            }
+
+            metadata.setContentLength(length);
+            final PutObjectRequest request = new PutObjectRequest(bucketName, objectName, in, metadata);
+            // allows the SDK to resend the data if the connection breaks
+            request.getRequestClientOptions().setReadLimit((int) Math.min(length + 1, MAX_READ_LIMIT));
+            try {
+                final long start = System.nanoTime();
+                client.putObject(request);
+                rate.record(length, System.nanoTime() - start);
+            } catch (AmazonClientException e) {
+                throw new IOException("Failed to upload " + objectName, e);
+            }
+        }
+    }
+
+    /**
+     * Opens a stream uploading whatever is written to it, for content whose length isn't known upfront.
+     * The upload is completed by {@link #finishUploading(MultipartOutputStream)}.
+     *
+     * @param expectedLength upper bound of the length of the content, used to size the parts, negative if unknown
+     */
+    public MultipartOutputStream openMultipartStream(AmazonS3 client, String bucketName, String objectName, ObjectMetadata metadata,
+                                                     long expectedLength, MultipartSettings settings) throws IOException {
+        if (closed) {
+            throw new IOException("Upload session is already closed, not uploading " + objectName);
+        }
+
+        int partSize = settings.getPartSize(expectedLength, rate.getBytesPerSecond());
+        UploadJournal journal = null;
+        if (settings.isResumable() && journalDir != null) {
+            if (expired.compareAndSet(false, true)) {
+                // uploads of builds which died before closing their session
+                UploadJournal.expire(client, journalDir);
+            }
+            journal = UploadJournal.open(journalDir, owner, bucketName, objectName);
+            if (journal.getUploadId() != null) {
+                // the parts already sent decide the size of the others
+                partSize = journal.getPartSize();
+            }
+        }
+
+        final MultipartOutputStream stream = new MultipartOutputStream(client, bucketName, objectName, metadata,
+                partSize, PARTS_IN_FLIGHT, BufferBudget.SHARED, getPartExecutor(), rate, journal);
+        streams.add(stream);
+        return stream;
+    }
+
+    /**
+     * Completes the upload of everything written to the stream.
+     */
+    public void finishUploading(MultipartOutputStream stream) throws IOException {
+        try {
+            stream.close();
+        } finally {
+            streams.remove(stream);
+        }
+    }
+
+    /**
+     * Drops the upload of the stream, does nothing once it is completed.
+     * A resumable upload is kept for the next attempt.
+     */
+    public void abortUploading(MultipartOutputStream stream) {
+        try {
+            stream.abort();
+        } finally {
+            streams.remove(stream);
+        }
+    }
+
+    private synchronized ExecutorService getPartExecutor() {
+        if (partExecutor == null) {
+            partExecutor = Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "S3 multipart upload"));
+        }
+        return partExecutor;
+    }
+
+    // unbounded, as each file read from an agent holds a thread per pipe until it is read
+    private synchronized ExecutorService getPumpExecutor() {
+        if (pumpExecutor == null) {
+            pumpExecutor = Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "S3 agent stream"));
+        }
+        return pumpExecutor;
+    }
+
+    /**
+     * Aborts the uploads which are not finished yet. Those which are resumable stay in the bucket, for another
+     * attempt of the build to resume them, and are aborted by {@link UploadJournal#expire} otherwise.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (MultipartOutputStream stream : streams) {
+            abortUploading(stream);
+        }
+
+        synchronized (this) {
+            if (partExecutor != null) {
+                partExecutor.shutdownNow();
+            }
+            if (pumpExecutor != null) {
+                pumpExecutor.shutdownNow();
+            }
+        }
+    }
+}
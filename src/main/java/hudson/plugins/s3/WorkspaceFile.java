@@ -0,0 +1,52 @@
+package hudson.plugins.s3;
+
+import hudson.FilePath;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * A file found in a workspace, with what the uploads need to know about it,
+ * so that the master doesn't ask the agent again for each file.
+ */
+public final class WorkspaceFile implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String path;
+    private final long length;
+    private final long lastModified;
+    private final boolean directory;
+
+    /**
+     * @param path relative to the directory the files were searched in, or absolute for a file found otherwise
+     */
+    public WorkspaceFile(String path, long length, long lastModified, boolean directory) {
+        this.path = path;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.directory = directory;
+    }
+
+    /**
+     * Looks up the file, which takes a call per attribute when the file is on another node.
+     */
+    public static WorkspaceFile of(FilePath file) throws IOException, InterruptedException {
+        return new WorkspaceFile(file.getRemote(), file.length(), file.lastModified(), file.isDirectory());
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+}
@@ -0,0 +1,251 @@
+package hudson.plugins.s3;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+import org.apache.tools.ant.types.selectors.TokenizedPath;
+import org.apache.tools.ant.types.selectors.TokenizedPattern;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the files matching several Ant patterns in a directory, the way {@link DirectoryScanner} does,
+ * default excludes included, in a single walk of the tree.
+ *
+ * Patterns are tokenized once. A directory is only entered when one of the patterns could still match below it and
+ * its content isn't excluded for that pattern, so excluded trees such as {@code node_modules/**} are never listed.
+ * Directories are walked in parallel, and the files of each pattern come in the order the directory scanner finds them.
+ * Symbolic links are followed, except those leading back to a directory being walked.
+ */
+public final class WorkspaceScanner {
+    private static ForkJoinPool pool;
+
+    private final TokenizedPattern[] includes;
+    private final TokenizedPattern[][] excludes;
+    private final TokenizedPattern[] defaultExcludes;
+    private final AtomicInteger visited = new AtomicInteger();
+
+    /**
+     * @param includes a single pattern each
+     * @param excludes the comma separated excludes of the pattern at the same index, {@code null} for none
+     */
+    public WorkspaceScanner(List<String> includes, List<String> excludes) {
+        this.includes = new TokenizedPattern[includes.size()];
+        this.excludes = new TokenizedPattern[includes.size()][];
+        for (int i = 0; i < includes.size(); i++) {
+            this.includes[i] = compile(includes.get(i).trim());
+            final List<TokenizedPattern> patterns = new ArrayList<>();
+            if (excludes.get(i) != null) {
+                for (String exclude : excludes.get(i).split(",")) {
+                    if (!exclude.trim().isEmpty()) {
+                        patterns.add(compile(exclude.trim()));
+                    }
+                }
+            }
+            this.excludes[i] = patterns.toArray(new TokenizedPattern[0]);
+        }
+        final String[] defaults = DirectoryScanner.getDefaultExcludes();
+        this.defaultExcludes = new TokenizedPattern[defaults.length];
+        for (int i = 0; i < defaults.length; i++) {
+            defaultExcludes[i] = compile(defaults[i]);
+        }
+    }
+
+    /**
+     * The files matching each pattern, nothing if the directory doesn't exist.
+     */
+    public List<List<WorkspaceFile>> scan(File dir) throws IOException {
+        final List<List<WorkspaceFile>> results = new ArrayList<>(includes.length);
+        for (int i = 0; i < includes.length; i++) {
+            results.add(new ArrayList<WorkspaceFile>());
+        }
+        if (!dir.isDirectory() || includes.length == 0) {
+            return results;
+        }
+
+        final int[] all = new int[includes.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        final Walk root = new Walk(dir, TokenizedPath.EMPTY_PATH, all);
+        try {
+            getPool().invoke(root);
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to scan " + dir, e);
+        }
+        root.collect(results);
+        return results;
+    }
+
+    /**
+     * How many directories the last scans listed.
+     */
+    int getVisitedDirectories() {
+        return visited.get();
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return pool;
+    }
+
+    // the patterns of the parent directory which may still match in this one
+    private int[] getLivePatterns(TokenizedPath dir, int[] parentPatterns) {
+        if (isContentExcluded(defaultExcludes, dir)) {
+            return new int[0];
+        }
+        final int[] live = new int[parentPatterns.length];
+        int count = 0;
+        for (int i : parentPatterns) {
+            final TokenizedPattern include = includes[i];
+            if (include.matchStartOf(dir, true)
+                    && (include.containsPattern(SelectorUtils.DEEP_TREE_MATCH) || include.depth() > dir.depth())
+                    && !isContentExcluded(excludes[i], dir)) {
+                live[count++] = i;
+            }
+        }
+        if (count == live.length) {
+            return live;
+        }
+        final int[] result = new int[count];
+        System.arraycopy(live, 0, result, 0, count);
+        return result;
+    }
+
+    // whether an exclude ending with ** covers all that is below the directory
+    private static boolean isContentExcluded(TokenizedPattern[] excludes, TokenizedPath dir) {
+        for (TokenizedPattern exclude : excludes) {
+            if (exclude.endsWith(SelectorUtils.DEEP_TREE_MATCH) && exclude.withoutLastToken().matchPath(dir, true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isExcluded(TokenizedPattern[] excludes, TokenizedPath file) {
+        for (TokenizedPattern exclude : excludes) {
+            if (exclude.matchPath(file, true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // as the directory scanner does with its patterns
+    private static TokenizedPattern compile(String pattern) {
+        String normalized = pattern.replace('/', File.separatorChar).replace('\\', File.separatorChar);
+        if (normalized.endsWith(File.separator)) {
+            normalized += SelectorUtils.DEEP_TREE_MATCH;
+        }
+        return new TokenizedPattern(normalized);
+    }
+
+    // a file and the patterns it matches
+    private static final class Match {
+        private final WorkspaceFile file;
+        private final int[] patterns;
+
+        Match(WorkspaceFile file, int[] patterns) {
+            this.file = file;
+            this.patterns = patterns;
+        }
+    }
+
+    /**
+     * Lists a directory, and walks its subdirectories in parallel.
+     */
+    private final class Walk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final File dir;
+        private final TokenizedPath path;
+        private final int[] patterns;
+        // matches and subdirectories, in the order of the listing
+        private final List<Object> entries = new ArrayList<>();
+
+        Walk(File dir, TokenizedPath path, int[] patterns) {
+            this.dir = dir;
+            this.path = path;
+            this.patterns = patterns;
+        }
+
+        @Override
+        protected void compute() {
+            visited.incrementAndGet();
+            final String[] names = dir.list();
+            if (names == null) {
+                return;
+            }
+            final List<Walk> subdirs = new ArrayList<>();
+            for (String name : names) {
+                final File file = new File(dir, name);
+                final TokenizedPath filePath = new TokenizedPath(path, name);
+                if (file.isDirectory()) {
+                    final int[] live = getLivePatterns(filePath, patterns);
+                    if (live.length > 0 && !isLoop(file)) {
+                        final Walk subdir = new Walk(file, filePath, live);
+                        entries.add(subdir);
+                        subdirs.add(subdir);
+                    }
+                } else if (file.isFile()) {
+                    final int[] matched = match(filePath);
+                    if (matched.length > 0) {
+                        entries.add(new Match(new WorkspaceFile(filePath.toString(), file.length(), file.lastModified(), false), matched));
+                    }
+                }
+            }
+            invokeAll(subdirs);
+        }
+
+        private int[] match(TokenizedPath file) {
+            if (isExcluded(defaultExcludes, file)) {
+                return new int[0];
+            }
+            final int[] matched = new int[patterns.length];
+            int count = 0;
+            for (int i : patterns) {
+                if (includes[i].matchPath(file, true) && !isExcluded(excludes[i], file)) {
+                    matched[count++] = i;
+                }
+            }
+            final int[] result = new int[count];
+            System.arraycopy(matched, 0, result, 0, count);
+            return result;
+        }
+
+        // a link to a directory being walked would be walked forever
+        private boolean isLoop(File subdir) {
+            final Path link = subdir.toPath();
+            if (!Files.isSymbolicLink(link)) {
+                return false;
+            }
+            try {
+                return dir.toPath().toRealPath().startsWith(link.toRealPath());
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        void collect(List<List<WorkspaceFile>> results) {
+            for (Object entry : entries) {
+                if (entry instanceof Walk) {
+                    ((Walk) entry).collect(results);
+                } else {
+                    final Match match = (Match) entry;
+                    for (int i : match.patterns) {
+                        results.get(i).add(match.file);
+                    }
+                }
+            }
+        }
+    }
+}
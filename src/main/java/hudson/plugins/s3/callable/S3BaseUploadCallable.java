@@ -1,17 +1,22 @@
 package hudson.plugins.s3.callable;
 
+import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.internal.Mimetypes;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import hudson.FilePath;
 import hudson.ProxyConfiguration;
+import hudson.plugins.s3.ClientRegistry;
+import hudson.plugins.s3.ConnectionSettings;
 import hudson.plugins.s3.Destination;
+import hudson.plugins.s3.MultipartSettings;
+import hudson.plugins.s3.UploadMetadata;
+import hudson.plugins.s3.UploadSession;
+import hudson.plugins.s3.WorkspaceFile;
 import hudson.remoting.VirtualChannel;
 import hudson.util.Secret;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Map;
 
@@ -21,16 +26,18 @@ public abstract class S3BaseUploadCallable extends S3Callable<String> {
     private final String storageClass;
     private final Map<String, String> userMetadata;
     private final boolean useServerSideEncryption;
-
+    private final MultipartSettings multipart;
 
     public S3BaseUploadCallable(String accessKey, Secret secretKey, boolean useRole,
                                 Destination dest, Map<String, String> userMetadata, String storageClass, String selregion,
-                                boolean useServerSideEncryption, ProxyConfiguration proxy) {
-        super(accessKey, secretKey, useRole, selregion, proxy);
+                                boolean useServerSideEncryption, ProxyConfiguration proxy, ConnectionSettings connection,
+                                MultipartSettings multipart) {
+        super(accessKey, secretKey, useRole, selregion, proxy, connection);
         this.dest = dest;
         this.storageClass = storageClass;
         this.userMetadata = userMetadata;
         this.useServerSideEncryption = useServerSideEncryption;
+        this.multipart = multipart;
     }
 
     /**
@@ -44,49 +51,49 @@ public abstract class S3BaseUploadCallable extends S3Callable<String> {
     /**
      * Stream from slave to master, then upload from master
      */
-    public abstract String invoke(FilePath file) throws IOException, InterruptedException;
-
-    protected ObjectMetadata buildMetadata(FilePath filePath) throws IOException, InterruptedException {
-        final ObjectMetadata metadata = new ObjectMetadata();
-        metadata.setContentType(Mimetypes.getInstance().getMimetype(filePath.getName()));
-        metadata.setContentLength(filePath.length());
-        metadata.setLastModified(new Date(filePath.lastModified()));
-        if (storageClass != null && !storageClass.isEmpty()) {
-            metadata.setHeader("x-amz-storage-class", storageClass);
-        }
-        if (useServerSideEncryption) {
-            metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+    public String invoke(FilePath file) throws IOException, InterruptedException {
+        try (UploadSession session = new UploadSession()) {
+            return invoke(session, file);
         }
+    }
 
-        for (Map.Entry<String, String> entry : userMetadata.entrySet()) {
-            final String key = entry.getKey().toLowerCase();
-            switch (key) {
-                case "cache-control":
-                    metadata.setCacheControl(entry.getValue());
-                    break;
-                case "expires":
-                    try {
-                        final Date expires = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z").parse(entry.getValue());
-                        metadata.setHttpExpiresDate(expires);
-                    } catch (ParseException e) {
-                        metadata.addUserMetadata(entry.getKey(), entry.getValue());
-                    }
-                    break;
-                case "content-encoding":
-                    metadata.setContentEncoding(entry.getValue());
-                    break;
-                case "content-type":
-                    metadata.setContentType(entry.getValue());
-                    break;
-                default:
-                    metadata.addUserMetadata(entry.getKey(), entry.getValue());
-                    break;
-            }
+    /**
+     * Upload the file as part of the session, which is only used to run the upload.
+     * The upload is completed when this returns.
+     */
+    public String invoke(UploadSession session, FilePath file) throws IOException, InterruptedException {
+        return invoke(session, file, WorkspaceFile.of(file));
+    }
+
+    /**
+     * Upload the file as part of the session, as found by a scan of its workspace.
+     */
+    public String invoke(UploadSession session, FilePath file, WorkspaceFile found) throws IOException, InterruptedException {
+        try (ClientRegistry.Lease lease = leaseClient()) {
+            return invoke(lease.getClient(), session, file, found);
         }
+    }
+
+    /**
+     * Upload the file as part of the session with a client the caller already holds,
+     * such as the one of a batch of uploads.
+     */
+    public abstract String invoke(AmazonS3 client, UploadSession session, FilePath file, WorkspaceFile found) throws IOException, InterruptedException;
+
+    protected ObjectMetadata buildMetadata(FilePath filePath, WorkspaceFile found) {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType(Mimetypes.getInstance().getMimetype(filePath.getName()));
+        metadata.setLastModified(new Date(found.getLastModified()));
+        UploadMetadata.setStorage(metadata, storageClass, useServerSideEncryption);
+        UploadMetadata.setUserMetadata(metadata, userMetadata, true);
         return metadata;
     }
 
     public Destination getDest() {
         return dest;
     }
+
+    public MultipartSettings getMultipart() {
+        return multipart;
+    }
 }
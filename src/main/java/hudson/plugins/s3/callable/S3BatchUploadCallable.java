@@ -0,0 +1,257 @@
+package hudson.plugins.s3.callable;
+
+import com.amazonaws.services.s3.AmazonS3;
+import hudson.FilePath;
+import hudson.ProxyConfiguration;
+import hudson.plugins.s3.ClientRegistry;
+import hudson.plugins.s3.Compression;
+import hudson.plugins.s3.ConnectionSettings;
+import hudson.plugins.s3.Destination;
+import hudson.plugins.s3.FingerprintRecord;
+import hudson.plugins.s3.MultipartSettings;
+import hudson.plugins.s3.PackUpload;
+import hudson.plugins.s3.RetryPolicy;
+import hudson.plugins.s3.ParallelTasks;
+import hudson.plugins.s3.S3Artifact;
+import hudson.plugins.s3.ThrottlingTally;
+import hudson.plugins.s3.UnchangedObjects;
+import hudson.plugins.s3.UploadSession;
+import hudson.plugins.s3.WorkspaceFile;
+import hudson.remoting.VirtualChannel;
+import hudson.util.Secret;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Uploads all files of an entry from the slave in one remoting call.
+ *
+ * The credentials, proxy and metadata are sent once for the whole entry,
+ * and all uploads run and complete within one {@link UploadSession} on the slave.
+ * The file this callable is invoked on only selects the node, the files to upload are given by their remote paths.
+ * When their MD5 are given, files already stored at their destination are not uploaded again.
+ * Given where packs go, files under the threshold are packed rather than uploaded one by one.
+ * The time the retries of the files waited comes back with the records, or with the failure, for the master
+ * to take it from the retry budget of the build.
+ */
+public final class S3BatchUploadCallable extends S3Callable<S3BatchUploadCallable.Result> {
+    private static final long serialVersionUID = 1L;
+    private final String bucketName;
+    private final List<String> paths;
+    private final List<String> fileNames;
+    private final List<Destination> dests;
+    private final Map<String, String> userMetadata;
+    private final String storageClass;
+    private final boolean useServerSideEncryption;
+    private final Compression compression;
+    private final int compressionLevel;
+    private final MultipartSettings multipart;
+    private final List<String> sourceMd5s;
+    private final List<String> blobs;
+    private final Destination packDir;
+    private final long packThreshold;
+    private final boolean managedArtifacts;
+    private final long buildTimestamp;
+    private final int maxConcurrentUploads;
+    private final int compressionThreads;
+    private final RetryPolicy retryPolicy;
+    private RetryPolicy.Budget retryBudget = RetryPolicy.Budget.unlimited();
+    private final String journalDir;
+    private final String buildId;
+
+    public S3BatchUploadCallable(String accessKey, Secret secretKey, boolean useRole, String selregion, ProxyConfiguration proxy, ConnectionSettings connection,
+                                 String bucketName, List<String> paths, List<String> fileNames, List<Destination> dests,
+                                 Map<String, String> userMetadata, String storageClass, boolean useServerSideEncryption,
+                                 Compression compression, int compressionLevel, MultipartSettings multipart, List<String> sourceMd5s, List<String> blobs, Destination packDir, long packThreshold, boolean managedArtifacts, long buildTimestamp,
+                                 int maxConcurrentUploads, int compressionThreads, RetryPolicy retryPolicy,
+                                 String journalDir, String buildId) {
+        super(accessKey, secretKey, useRole, selregion, proxy, connection);
+        this.bucketName = bucketName;
+        this.paths = paths;
+        this.fileNames = fileNames;
+        this.dests = dests;
+        this.userMetadata = userMetadata;
+        this.storageClass = storageClass;
+        this.useServerSideEncryption = useServerSideEncryption;
+        this.compression = compression;
+        this.compressionLevel = compressionLevel;
+        this.multipart = multipart;
+        this.sourceMd5s = sourceMd5s;
+        this.blobs = blobs;
+        this.packDir = packDir;
+        this.packThreshold = packThreshold;
+        this.managedArtifacts = managedArtifacts;
+        this.buildTimestamp = buildTimestamp;
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        this.compressionThreads = compressionThreads;
+        this.retryPolicy = retryPolicy;
+        this.journalDir = journalDir;
+        this.buildId = buildId;
+    }
+
+    /**
+     * The budget the retries of the files wait from, unlimited unless set.
+     */
+    public void setRetryBudget(RetryPolicy.Budget retryBudget) {
+        this.retryBudget = retryBudget;
+    }
+
+    @Override
+    public Result invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+        // the throttling the build met on this agent is collected by the publisher afterwards
+        try (ClientRegistry.Lease lease = leaseClient();
+             ThrottlingTally.Scope throttling = ThrottlingTally.of(buildId).enter()) {
+            return upload(lease.getClient());
+        }
+    }
+
+    /**
+     * Uploads the files with the given client, which all uploads of the batch share.
+     */
+    Result upload(AmazonS3 client) throws IOException, InterruptedException {
+        final long spentBefore = retryBudget.getSpent();
+        try {
+            return new Result(uploadFiles(client), retryBudget.getSpent() - spentBefore);
+        } catch (IOException e) {
+            throw new Failure(e, retryBudget.getSpent() - spentBefore);
+        }
+    }
+
+    private List<FingerprintRecord> uploadFiles(final AmazonS3 client) throws IOException, InterruptedException {
+        final UploadSession session = new UploadSession(journalDir == null ? null : new File(journalDir), buildId);
+        final List<Callable<FingerprintRecord>> uploads = new ArrayList<>(paths.size());
+        final List<Integer> uploadIndexes = new ArrayList<>(paths.size());
+        final List<FilePath> packedFiles = new ArrayList<>();
+        final List<String> packedNames = new ArrayList<>();
+        final List<Integer> packedIndexes = new ArrayList<>();
+        final List<UnchangedObjects.Check> checks = sourceMd5s != null
+                ? UnchangedObjects.check(client, sourceMd5s, dests, compression) : null;
+
+        for (int i = 0; i < paths.size(); i++) {
+            final FilePath filePath = new FilePath(new File(paths.get(i)));
+            final String fileName = fileNames.get(i);
+            final Destination dest = dests.get(i);
+            final String blob = blobs != null ? blobs.get(i) : null;
+
+            if (packDir != null && PackUpload.isPacked(filePath, packThreshold)) {
+                packedFiles.add(filePath);
+                packedNames.add(fileName);
+                packedIndexes.add(i);
+                continue;
+            }
+            uploadIndexes.add(i);
+
+            if (checks != null && checks.get(i).isUnchanged()) {
+                final String md5 = checks.get(i).getStoredMd5();
+                uploads.add(new Callable<FingerprintRecord>() {
+                    @Override
+                    public FingerprintRecord call() throws IOException, InterruptedException {
+                        final boolean produced = managedArtifacts && buildTimestamp <= filePath.lastModified() + 2000;
+                        return new FingerprintRecord(produced, bucketName, fileName, getRegion(), md5, blob);
+                    }
+                });
+                continue;
+            }
+
+            final Map<String, String> metadata = checks == null ? userMetadata
+                    : UnchangedObjects.withSourceMd5(userMetadata, checks.get(i).getSourceMd5());
+            final S3BaseUploadCallable upload;
+            if (compression != Compression.NONE) {
+                upload = new S3CompressCallable(getAccessKey(), getSecretKey(), isUseRole(), dest, metadata,
+                        storageClass, getRegion(), useServerSideEncryption, getProxy(), getConnection(), multipart,
+                        compression, compressionLevel, compressionThreads);
+            } else {
+                upload = new S3UploadCallable(getAccessKey(), getSecretKey(), isUseRole(), dest, metadata,
+                        storageClass, getRegion(), useServerSideEncryption, getProxy(), getConnection(), multipart);
+            }
+            upload.setBandwidth(getBandwidth());
+
+            uploads.add(new Callable<FingerprintRecord>() {
+                @Override
+                public FingerprintRecord call() throws IOException, InterruptedException {
+                    final boolean produced = managedArtifacts && buildTimestamp <= filePath.lastModified() + 2000;
+                    final String md5 = retryPolicy.call(dest, retryBudget, new Callable<String>() {
+                        @Override
+                        public String call() throws IOException, InterruptedException {
+                            return upload.invoke(client, session, filePath, WorkspaceFile.of(filePath));
+                        }
+                    });
+                    return new FingerprintRecord(produced, bucketName, fileName, getRegion(), md5, blob);
+                }
+            });
+        }
+
+        try {
+            final FingerprintRecord[] records = new FingerprintRecord[paths.size()];
+            if (!packedFiles.isEmpty()) {
+                final PackUpload packUpload = new PackUpload(session, client, packDir, multipart,
+                        storageClass, useServerSideEncryption, userMetadata);
+                packUpload.setBandwidth(getBandwidth());
+                final List<PackUpload.PackedFile> packed = retryPolicy.call(packDir, retryBudget, new Callable<List<PackUpload.PackedFile>>() {
+                    @Override
+                    public List<PackUpload.PackedFile> call() throws IOException, InterruptedException {
+                        return packUpload.upload(packedFiles, packedNames);
+                    }
+                });
+                for (int p = 0; p < packed.size(); p++) {
+                    final boolean produced = buildTimestamp <= packedFiles.get(p).lastModified() + 2000;
+                    final S3Artifact artifact = new S3Artifact(getRegion(), bucketName, packedNames.get(p), null, packed.get(p).getLocation());
+                    records[packedIndexes.get(p)] = new FingerprintRecord(produced, artifact, packed.get(p).getMd5());
+                }
+            }
+
+            final List<FingerprintRecord> uploaded = ParallelTasks.invokeAll("S3 batch upload", maxConcurrentUploads, uploads);
+            for (int u = 0; u < uploaded.size(); u++) {
+                records[uploadIndexes.get(u)] = uploaded.get(u);
+            }
+            return new ArrayList<>(Arrays.asList(records));
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * The records of the files, in the order of the files, and the time their retries waited.
+     */
+    public static final class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final List<FingerprintRecord> records;
+        private final long retrySpent;
+
+        Result(List<FingerprintRecord> records, long retrySpent) {
+            this.records = records;
+            this.retrySpent = retrySpent;
+        }
+
+        public List<FingerprintRecord> getRecords() {
+            return records;
+        }
+
+        public long getRetrySpent() {
+            return retrySpent;
+        }
+    }
+
+    /**
+     * How the batch failed, with the time the retries waited meanwhile.
+     */
+    public static final class Failure extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final long retrySpent;
+
+        Failure(IOException cause, long retrySpent) {
+            super(cause.getMessage(), cause);
+            this.retrySpent = retrySpent;
+        }
+
+        public long getRetrySpent() {
+            return retrySpent;
+        }
+    }
+}
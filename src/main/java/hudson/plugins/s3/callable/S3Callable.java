@@ -1,14 +1,16 @@
 package hudson.plugins.s3.callable;
 
-import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.transfer.TransferManager;
 import hudson.FilePath.FileCallable;
 import hudson.ProxyConfiguration;
-import hudson.plugins.s3.ClientHelper;
+import hudson.plugins.s3.BandwidthLimit;
+import hudson.plugins.s3.ClientRegistry;
+import hudson.plugins.s3.ConnectionSettings;
 import hudson.util.Secret;
 import org.jenkinsci.remoting.RoleChecker;
 
-import java.util.HashMap;
+import javax.annotation.CheckForNull;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 abstract class S3Callable<T> implements FileCallable<T> {
     private static final long serialVersionUID = 1L;
@@ -18,33 +20,75 @@ abstract class S3Callable<T> implements FileCallable<T> {
     private final boolean useRole;
     private final String region;
     private final ProxyConfiguration proxy;
+    private final ConnectionSettings connection;
+    private BandwidthLimit bandwidth;
 
-    private static transient HashMap<String, TransferManager> transferManagers = new HashMap<>();
-
-    S3Callable(String accessKey, Secret secretKey, boolean useRole, String region, ProxyConfiguration proxy) {
+    S3Callable(String accessKey, Secret secretKey, boolean useRole, String region, ProxyConfiguration proxy,
+               ConnectionSettings connection) {
         this.accessKey = accessKey;
         this.secretKey = secretKey;
         this.useRole = useRole;
         this.region = region;
         this.proxy = proxy;
+        this.connection = connection;
     }
 
-    protected synchronized TransferManager getTransferManager() {
-        final String uniqueKey = getUniqueKey();
-        if (transferManagers.get(uniqueKey) == null) {
-            final AmazonS3 client = ClientHelper.createClient(accessKey, Secret.toString(secretKey), useRole, region, proxy);
-            transferManagers.put(uniqueKey, new TransferManager(client));
-        }
+    /**
+     * Leases the client shared by the callables of this node with the same settings, to close once done with it.
+     */
+    protected ClientRegistry.Lease leaseClient() {
+        return ClientRegistry.get().lease(accessKey, secretKey, useRole, region, proxy, connection);
+    }
 
-        return transferManagers.get(uniqueKey);
+    /**
+     * Caps the bandwidth of the transfers of this callable, {@code null} for no cap.
+     */
+    public void setBandwidth(@CheckForNull BandwidthLimit bandwidth) {
+        this.bandwidth = bandwidth;
     }
 
-    @Override
-    public void checkRoles(RoleChecker roleChecker) throws SecurityException {
+    @CheckForNull
+    BandwidthLimit getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * The stream paced to the bandwidth cap, if any.
+     */
+    protected InputStream throttle(InputStream in) {
+        return bandwidth == null ? in : bandwidth.throttle(in);
+    }
+
+    protected OutputStream throttle(OutputStream out) {
+        return bandwidth == null ? out : bandwidth.throttle(out);
+    }
+
+    String getAccessKey() {
+        return accessKey;
+    }
 
+    Secret getSecretKey() {
+        return secretKey;
     }
 
-    private String getUniqueKey() {
-        return region + '_' + secretKey + '_' + accessKey + '_' + useRole;
+    boolean isUseRole() {
+        return useRole;
+    }
+
+    String getRegion() {
+        return region;
+    }
+
+    ProxyConfiguration getProxy() {
+        return proxy;
+    }
+
+    ConnectionSettings getConnection() {
+        return connection;
+    }
+
+    @Override
+    public void checkRoles(RoleChecker roleChecker) throws SecurityException {
+
     }
-}
\ No newline at end of file
+}
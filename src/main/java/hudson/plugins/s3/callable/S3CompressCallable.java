@@ -0,0 +1,77 @@
+package hudson.plugins.s3.callable;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import hudson.FilePath;
+import hudson.ProxyConfiguration;
+import hudson.plugins.s3.Compression;
+import hudson.plugins.s3.ConnectionSettings;
+import hudson.plugins.s3.Destination;
+import hudson.plugins.s3.MD5;
+import hudson.plugins.s3.MultipartSettings;
+import hudson.plugins.s3.MultipartOutputStream;
+import hudson.plugins.s3.UploadSession;
+import hudson.plugins.s3.WorkspaceFile;
+import hudson.util.Secret;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.Map;
+
+/**
+ * Compresses the file with one of the {@link Compression} codecs while uploading it.
+ */
+public final class S3CompressCallable extends S3BaseUploadCallable implements MasterSlaveCallable<String> {
+    private static final long serialVersionUID = 1L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final Compression compression;
+    private final int compressionLevel;
+    private final int compressionThreads;
+
+    public S3CompressCallable(String accessKey, Secret secretKey, boolean useRole, Destination dest, Map<String, String> userMetadata, String storageClass, String selregion, boolean useServerSideEncryption, ProxyConfiguration proxy, ConnectionSettings connection, MultipartSettings multipart,
+                              Compression compression, int compressionLevel, int compressionThreads) {
+        super(accessKey, secretKey, useRole, dest, userMetadata, storageClass, selregion, useServerSideEncryption, proxy, connection, multipart);
+        this.compression = compression;
+        this.compressionLevel = compressionLevel;
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * The file is compressed straight into the parts of a multipart upload, without a temporary file,
+     * and the MD5 of the compressed content is computed on the way.
+     */
+    @Override
+    public String invoke(AmazonS3 client, UploadSession session, FilePath file, WorkspaceFile found) throws IOException, InterruptedException {
+        final ObjectMetadata metadata = buildMetadata(file, found);
+        metadata.setContentEncoding(compression.getContentEncoding());
+
+        final MultipartOutputStream upload = session.openMultipartStream(client,
+                getDest().bucketName, getDest().objectName, metadata, maxCompressedLength(found.getLength()), getMultipart());
+        try (InputStream inputStream = session.read(file, found.getLength())) {
+            // the compressed bytes are what goes on the wire, closing the throttled stream leaves its share of the
+            // bandwidth but not the upload, which is completed below
+            final OutputStream throttled = throttle(new CloseShieldOutputStream(upload));
+            final DigestOutputStream digestStream = MD5.digesting(throttled);
+            // closing the codec's stream only finishes the compressed stream
+            try (OutputStream compressed = compression.compress(digestStream, compressionLevel, compressionThreads)) {
+                IOUtils.copyLarge(inputStream, compressed, new byte[BUFFER_SIZE]);
+            } finally {
+                throttled.close();
+            }
+
+            session.finishUploading(upload);
+            return MD5.toHex(digestStream);
+        } finally {
+            session.abortUploading(upload);
+        }
+    }
+
+    // incompressible content grows a little, never by more than this
+    private static long maxCompressedLength(long length) {
+        return length + length / 100 + 1024;
+    }
+}
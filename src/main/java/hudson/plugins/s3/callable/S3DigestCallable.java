@@ -0,0 +1,47 @@
+package hudson.plugins.s3.callable;
+
+import hudson.FilePath.FileCallable;
+import hudson.plugins.s3.MD5;
+import hudson.plugins.s3.ParallelTasks;
+import hudson.remoting.VirtualChannel;
+import org.jenkinsci.remoting.RoleChecker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Computes the MD5 of several files of a node in one remoting call.
+ * The file this callable is invoked on only selects the node.
+ */
+public final class S3DigestCallable implements FileCallable<List<String>> {
+    private static final long serialVersionUID = 1L;
+    private final List<String> paths;
+    private final int threads;
+
+    public S3DigestCallable(List<String> paths, int threads) {
+        this.paths = paths;
+        this.threads = threads;
+    }
+
+    @Override
+    public List<String> invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+        final List<Callable<String>> digests = new ArrayList<>(paths.size());
+        for (final String path : paths) {
+            digests.add(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return MD5.generateFromFile(new File(path));
+                }
+            });
+        }
+        return ParallelTasks.invokeAll("S3 digest", threads, digests);
+    }
+
+    @Override
+    public void checkRoles(RoleChecker roleChecker) throws SecurityException {
+
+    }
+}
@@ -1,36 +1,77 @@
 package hudson.plugins.s3.callable;
 
+import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.GetObjectRequest;
-import com.amazonaws.services.s3.transfer.Download;
+import com.amazonaws.services.s3.model.S3Object;
 import hudson.ProxyConfiguration;
+import hudson.plugins.s3.ClientRegistry;
+import hudson.plugins.s3.Compression;
+import hudson.plugins.s3.ConnectionSettings;
 import hudson.plugins.s3.Destination;
 import hudson.plugins.s3.MD5;
+import hudson.plugins.s3.PackLocation;
 import hudson.remoting.VirtualChannel;
 import hudson.util.Secret;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
 
 public final class S3DownloadCallable extends S3Callable<String>
 {
     private static final long serialVersionUID = 1L;
     private final Destination dest;
+    private final PackLocation packLocation;
     
-    public S3DownloadCallable(String accessKey, Secret secretKey, boolean useRole, Destination dest, String region, ProxyConfiguration proxy)
+    /**
+     * @param packLocation range of the object to download, when the artifact is packed with others
+     */
+    public S3DownloadCallable(String accessKey, Secret secretKey, boolean useRole, Destination dest, PackLocation packLocation, String region, ProxyConfiguration proxy, ConnectionSettings connection)
     {
-        super(accessKey, secretKey, useRole, region, proxy);
+        super(accessKey, secretKey, useRole, region, proxy, connection);
         this.dest = dest;
+        this.packLocation = packLocation;
     }
 
+    /**
+     * The MD5 is computed while the object is written to disk, so the file isn't read back.
+     * It is the MD5 of the stored object, so compressed artifacts keep the fingerprint recorded
+     * when they were uploaded, while the file itself is decoded.
+     */
     @Override
     public String invoke(File file, VirtualChannel channel) throws IOException, InterruptedException
     {
-        final GetObjectRequest req = new GetObjectRequest(dest.bucketName, dest.objectName);
-        final Download download = getTransferManager().download(req, file);
+        try (ClientRegistry.Lease lease = leaseClient()) {
+            return download(lease.getClient(), file);
+        }
+    }
 
-        download.waitForCompletion();
+    String download(AmazonS3 client, File file) throws IOException
+    {
+        final GetObjectRequest req = new GetObjectRequest(dest.bucketName, dest.objectName);
+        if (packLocation != null) {
+            if (packLocation.getLength() == 0) {
+                // an empty range can't be requested
+                FileUtils.openOutputStream(file).close();
+                return MD5.toHex(DigestUtils.getMd5Digest());
+            }
+            req.setRange(packLocation.getOffset(), packLocation.getLastByte());
+        }
 
-        return MD5.generateFromFile(file);
+        try (S3Object object = client.getObject(req);
+             DigestInputStream stream = MD5.digesting(throttle(object.getObjectContent()));
+             InputStream decoded = Compression.fromContentEncoding(object.getObjectMetadata().getContentEncoding()).decompress(stream);
+             OutputStream out = FileUtils.openOutputStream(file)) {
+            IOUtils.copy(decoded, out);
+            // drain what the decoder didn't need, so the MD5 covers the whole object
+            IOUtils.skip(stream, Long.MAX_VALUE);
+            return MD5.toHex(stream);
+        }
     }
 
 }
@@ -0,0 +1,48 @@
+package hudson.plugins.s3.callable;
+
+import hudson.FilePath.FileCallable;
+import hudson.plugins.s3.WorkspaceFile;
+import hudson.plugins.s3.WorkspaceScanner;
+import hudson.remoting.VirtualChannel;
+import org.jenkinsci.remoting.RoleChecker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Finds the files matching several Ant patterns in the directory this callable is invoked on, in one remoting call.
+ *
+ * The directory is walked once for all patterns by a {@link WorkspaceScanner}, each file is looked up once, and the
+ * files of each pattern are returned with their size and modification time. Patterns are matched as
+ * {@link hudson.FilePath#list(String, String)} does, default excludes included.
+ */
+public final class S3ScanCallable implements FileCallable<List<List<WorkspaceFile>>> {
+    private static final long serialVersionUID = 1L;
+    private final List<String> includes;
+    private final List<String> excludes;
+
+    /**
+     * @param includes a single pattern each
+     * @param excludes the comma separated excludes of the pattern at the same index, {@code null} for none
+     */
+    public S3ScanCallable(List<String> includes, List<String> excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    @Override
+    public List<List<WorkspaceFile>> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+        for (String include : includes) {
+            if (new File(include.trim()).isAbsolute()) {
+                throw new IOException("Expecting Ant GLOB pattern, but saw '" + include.trim() + "'. See http://ant.apache.org/manual/Types/fileset.html for syntax");
+            }
+        }
+        return new WorkspaceScanner(includes, excludes).scan(dir);
+    }
+
+    @Override
+    public void checkRoles(RoleChecker roleChecker) throws SecurityException {
+
+    }
+}
@@ -0,0 +1,90 @@
+package hudson.plugins.s3.callable;
+
+import hudson.FilePath.FileCallable;
+import hudson.remoting.Pipe;
+import hudson.remoting.VirtualChannel;
+import org.jenkinsci.remoting.RoleChecker;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.Deflater;
+
+/**
+ * Sends every {@code step}-th chunk of a file, from the {@code first} one, through a pipe to the master.
+ *
+ * Each chunk is framed by its length and the length it takes on the wire, which is smaller only
+ * when the chunk was deflated. The master reads the chunks of all pipes in turn.
+ */
+public final class S3SendCallable implements FileCallable<Void> {
+    private static final long serialVersionUID = 1L;
+    private final Pipe pipe;
+    private final long length;
+    private final int chunkSize;
+    private final int first;
+    private final int step;
+    private final boolean compressed;
+
+    /**
+     * @param length length of the file the master expects, which is what is sent even if the file grew since
+     */
+    public S3SendCallable(Pipe pipe, long length, int chunkSize, int first, int step, boolean compressed) {
+        this.pipe = pipe;
+        this.length = length;
+        this.chunkSize = chunkSize;
+        this.first = first;
+        this.step = step;
+        this.compressed = compressed;
+    }
+
+    @Override
+    public Void invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+        final byte[] chunk = new byte[chunkSize];
+        final byte[] deflated = compressed ? new byte[chunkSize] : null;
+        final Deflater deflater = compressed ? new Deflater(Deflater.BEST_SPEED) : null;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(pipe.getOut(), 64 * 1024))) {
+            for (long offset = (long) first * chunkSize; offset < length; offset += (long) step * chunkSize) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                final int chunkLength = (int) Math.min(chunkSize, length - offset);
+                in.seek(offset);
+                try {
+                    in.readFully(chunk, 0, chunkLength);
+                } catch (EOFException e) {
+                    throw new IOException("File " + file + " shrank while being sent", e);
+                }
+
+                int wireLength = chunkLength;
+                if (deflater != null) {
+                    deflater.reset();
+                    deflater.setInput(chunk, 0, chunkLength);
+                    deflater.finish();
+                    final int deflatedLength = deflater.deflate(deflated);
+                    // a chunk not getting smaller doesn't fit in the buffer, it's sent as is
+                    if (deflater.finished() && deflatedLength < chunkLength) {
+                        wireLength = deflatedLength;
+                    }
+                }
+
+                out.writeInt(chunkLength);
+                out.writeInt(wireLength);
+                out.write(wireLength < chunkLength ? deflated : chunk, 0, wireLength);
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void checkRoles(RoleChecker roleChecker) throws SecurityException {
+
+    }
+}
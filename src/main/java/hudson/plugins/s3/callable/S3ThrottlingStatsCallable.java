@@ -0,0 +1,36 @@
+package hudson.plugins.s3.callable;
+
+import hudson.FilePath.FileCallable;
+import hudson.plugins.s3.AdaptiveRateLimiter;
+import hudson.plugins.s3.ThrottlingTally;
+import hudson.remoting.VirtualChannel;
+import org.jenkinsci.remoting.RoleChecker;
+
+import java.io.File;
+
+/**
+ * Collects the throttling a build met on the node of the file this callable is invoked on,
+ * with the current rate of the limiter of the bucket.
+ */
+public final class S3ThrottlingStatsCallable implements FileCallable<AdaptiveRateLimiter.Stats> {
+    private static final long serialVersionUID = 1L;
+    private final String buildId;
+    private final String clientKey;
+    private final String bucketName;
+
+    public S3ThrottlingStatsCallable(String buildId, String clientKey, String bucketName) {
+        this.buildId = buildId;
+        this.clientKey = clientKey;
+        this.bucketName = bucketName;
+    }
+
+    @Override
+    public AdaptiveRateLimiter.Stats invoke(File f, VirtualChannel channel) {
+        return ThrottlingTally.collect(buildId).getStats(AdaptiveRateLimiter.getRate(clientKey, bucketName));
+    }
+
+    @Override
+    public void checkRoles(RoleChecker roleChecker) throws SecurityException {
+
+    }
+}
@@ -1,32 +1,40 @@
 package hudson.plugins.s3.callable;
 
+import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import hudson.FilePath;
 import hudson.ProxyConfiguration;
+import hudson.plugins.s3.ConnectionSettings;
 import hudson.plugins.s3.Destination;
 import hudson.plugins.s3.MD5;
-import hudson.plugins.s3.Uploads;
+import hudson.plugins.s3.MultipartSettings;
+import hudson.plugins.s3.UploadSession;
+import hudson.plugins.s3.WorkspaceFile;
 import hudson.util.Secret;
 
 import java.io.IOException;
+import java.security.DigestInputStream;
 import java.util.Map;
 
 public final class S3UploadCallable extends S3BaseUploadCallable implements MasterSlaveCallable<String> {
     private static final long serialVersionUID = 1L;
 
-    public S3UploadCallable(String accessKey, Secret secretKey, boolean useRole, Destination dest, Map<String, String> userMetadata, String storageClass, String selregion, boolean useServerSideEncryption, ProxyConfiguration proxy) {
-        super(accessKey, secretKey, useRole, dest, userMetadata, storageClass, selregion, useServerSideEncryption, proxy);
+    public S3UploadCallable(String accessKey, Secret secretKey, boolean useRole, Destination dest, Map<String, String> userMetadata, String storageClass, String selregion, boolean useServerSideEncryption, ProxyConfiguration proxy, ConnectionSettings connection, MultipartSettings multipart) {
+        super(accessKey, secretKey, useRole, dest, userMetadata, storageClass, selregion, useServerSideEncryption, proxy, connection, multipart);
     }
 
     /**
-     * Stream from slave to master, then upload from master
+     * The MD5 is computed from the bytes sent to S3, so the file is only read once.
+     * Files from the multipart threshold on are sent in parts sized from their length.
      */
     @Override
-    public String invoke(FilePath file) throws IOException, InterruptedException {
-        final ObjectMetadata metadata = buildMetadata(file);
+    public String invoke(AmazonS3 client, UploadSession session, FilePath file, WorkspaceFile found) throws IOException, InterruptedException {
+        final ObjectMetadata metadata = buildMetadata(file, found);
+        final DigestInputStream stream = MD5.digesting(throttle(session.read(file, found.getLength())));
 
-        Uploads.getInstance().startUploading(getTransferManager(), file, file.read(), getDest().bucketName, getDest().objectName, metadata);
+        session.upload(client, stream, found.getLength(),
+                getDest().bucketName, getDest().objectName, metadata, getMultipart());
 
-        return MD5.generateFromFile(file);
+        return MD5.toHex(stream);
     }
-}
\ No newline at end of file
+}
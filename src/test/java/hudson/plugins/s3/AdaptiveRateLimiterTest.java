@@ -0,0 +1,104 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveRateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testUnlimitedUntilThrottled() {
+        final AdaptiveRateLimiter limiter = new AdaptiveRateLimiter();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, limiter.reserve(SECOND));
+        }
+        assertTrue(Double.isInfinite(limiter.getRate()));
+    }
+
+    @Test
+    public void testThrottlingHalvesTheObservedRate() {
+        final AdaptiveRateLimiter limiter = new AdaptiveRateLimiter();
+        for (int i = 0; i < 100; i++) {
+            limiter.reserve(10 * SECOND);
+        }
+        limiter.onThrottled(10 * SECOND);
+        assertEquals(50, limiter.getRate(), 0.001);
+
+        // 50 requests per second are 20 ms apart
+        final long now = 11 * SECOND;
+        assertEquals(0, limiter.reserve(now));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20), limiter.reserve(now));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(40), limiter.reserve(now));
+    }
+
+    @Test
+    public void testBurstOfThrottlingDecreasesOnce() {
+        final AdaptiveRateLimiter limiter = new AdaptiveRateLimiter();
+        for (int i = 0; i < 100; i++) {
+            limiter.reserve(10 * SECOND);
+        }
+        limiter.onThrottled(10 * SECOND);
+        limiter.onThrottled(10 * SECOND + 1);
+        limiter.onThrottled(10 * SECOND + SECOND / 2);
+        assertEquals(50, limiter.getRate(), 0.001);
+
+        limiter.onThrottled(11 * SECOND);
+        assertEquals(25, limiter.getRate(), 0.001);
+        assertEquals(4, limiter.getStats().getThrottled());
+    }
+
+    @Test
+    public void testSuccessIncreasesAdditively() {
+        final AdaptiveRateLimiter limiter = new AdaptiveRateLimiter();
+        limiter.reserve(10 * SECOND);
+        limiter.onThrottled(10 * SECOND);
+        assertEquals(AdaptiveRateLimiter.MIN_RATE, limiter.getRate(), 0.001);
+
+        // about one more request per second for each second of successes
+        for (int i = 0; i < 10; i++) {
+            limiter.onSuccess();
+        }
+        assertTrue(limiter.getRate() > 4 && limiter.getRate() < 5);
+    }
+
+    @Test
+    public void testDescribe() {
+        assertNull(new AdaptiveRateLimiter.Stats(0, 0, Double.POSITIVE_INFINITY).describe());
+        assertEquals("S3 throttled 3 requests, which were held back 1500 ms in total, current rate 12.5 requests per second",
+                new AdaptiveRateLimiter.Stats(3, TimeUnit.MILLISECONDS.toNanos(1500), 12.5).describe());
+    }
+
+    @Test
+    public void testLimitersOfAClientAreForgottenWithIt() {
+        final AdaptiveRateLimiter limiter = AdaptiveRateLimiter.get("forgotten", "bucket");
+        AdaptiveRateLimiter.get("forgotten", "other");
+        AdaptiveRateLimiter.get("kept", "bucket");
+        final int size = AdaptiveRateLimiter.size();
+
+        AdaptiveRateLimiter.forget("forgotten");
+
+        assertEquals(size - 2, AdaptiveRateLimiter.size());
+        assertNotSame(limiter, AdaptiveRateLimiter.get("forgotten", "bucket"));
+        AdaptiveRateLimiter.forget("forgotten");
+        AdaptiveRateLimiter.forget("kept");
+    }
+
+    @Test
+    public void testBucketOfRequests() {
+        assertEquals("bucket", ThrottlingRequestHandler.getBucketName(new PutObjectRequest("bucket", "key", new File("file"))));
+        assertEquals("bucket", ThrottlingRequestHandler.getBucketName(new UploadPartRequest().withBucketName("bucket")));
+        assertEquals("bucket", ThrottlingRequestHandler.getBucketName(new GetObjectRequest("bucket", "key")));
+        assertEquals("bucket", ThrottlingRequestHandler.getBucketName(new ListObjectsRequest().withBucketName("bucket")));
+    }
+}
@@ -0,0 +1,82 @@
+package hudson.plugins.s3;
+
+import hudson.FilePath;
+import hudson.slaves.DumbSlave;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class AgentStreamTest {
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final ExecutorService pumps = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        pumps.shutdownNow();
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        assertStreamed(new byte[0], new AgentStreamSettings(3, 2, false));
+    }
+
+    @Test
+    public void testChunksOverSeveralStreams() throws Exception {
+        final byte[] data = new byte[5 * AgentStreamSettings.CHUNK_SIZE + 123];
+        new Random(3).nextBytes(data);
+        assertStreamed(data, new AgentStreamSettings(3, 1, false));
+    }
+
+    @Test
+    public void testCompressedChunks() throws Exception {
+        // compressible chunks and incompressible ones, the latter being sent as is
+        final byte[] data = new byte[3 * AgentStreamSettings.CHUNK_SIZE + 7];
+        new Random(5).nextBytes(data);
+        Arrays.fill(data, 0, AgentStreamSettings.CHUNK_SIZE + 100, (byte) 'x');
+        assertStreamed(data, new AgentStreamSettings(2, 2, true));
+    }
+
+    @Test
+    public void testFilesShareTheExecutor() throws Exception {
+        final DumbSlave agent = j.createOnlineSlave();
+        final byte[] first = new byte[3 * AgentStreamSettings.CHUNK_SIZE];
+        final byte[] second = new byte[2 * AgentStreamSettings.CHUNK_SIZE + 1];
+        new Random(7).nextBytes(first);
+        new Random(8).nextBytes(second);
+        final FilePath firstFile = agent.getRootPath().child("first.bin");
+        final FilePath secondFile = agent.getRootPath().child("second.bin");
+        firstFile.copyFrom(new ByteArrayInputStream(first));
+        secondFile.copyFrom(new ByteArrayInputStream(second));
+
+        final AgentStreamSettings settings = new AgentStreamSettings(2, 1, false);
+        // both open at once, the first one read while the pumps of the second one wait
+        try (InputStream firstIn = AgentStream.open(firstFile, first.length, settings, pumps);
+             InputStream secondIn = AgentStream.open(secondFile, second.length, settings, pumps)) {
+            assertArrayEquals(first, IOUtils.toByteArray(firstIn));
+            assertArrayEquals(second, IOUtils.toByteArray(secondIn));
+        }
+    }
+
+    private void assertStreamed(byte[] data, AgentStreamSettings settings) throws Exception {
+        final DumbSlave agent = j.createOnlineSlave();
+        final FilePath file = agent.getRootPath().child("data.bin");
+        file.copyFrom(new ByteArrayInputStream(data));
+
+        try (InputStream in = AgentStream.open(file, data.length, settings, pumps)) {
+            assertArrayEquals(data, IOUtils.toByteArray(in));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package hudson.plugins.s3;
+
+import hudson.FilePath;
+import hudson.plugins.s3.callable.S3CompressCallable;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BandwidthThrottleTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testPacesToTheRate() {
+        final BandwidthThrottle throttle = new BandwidthThrottle();
+        final BandwidthThrottle.Share share = throttle.join("job#1", 0);
+
+        // the bucket starts empty, 1000 bytes at 1000 bytes per second take a second
+        assertEquals(SECOND, throttle.reserve(share, 1000, 1000, 0));
+        assertEquals(2 * SECOND, throttle.reserve(share, 1000, 1000, 0));
+        // a second later, the first second is paid for
+        assertEquals(SECOND, throttle.reserve(share, 0, 1000, SECOND));
+    }
+
+    @Test
+    public void testBurstIsCapped() {
+        final BandwidthThrottle throttle = new BandwidthThrottle();
+        final BandwidthThrottle.Share share = throttle.join("job#1", 0);
+
+        // idle for a minute, only a quarter of a second was saved up
+        assertEquals(0, throttle.reserve(share, 250, 1000, 60 * SECOND));
+        assertEquals(SECOND / 4, throttle.reserve(share, 250, 1000, 60 * SECOND));
+    }
+
+    @Test
+    public void testBuildsShareTheBandwidth() {
+        final BandwidthThrottle throttle = new BandwidthThrottle();
+        final BandwidthThrottle.Share first = throttle.join("job#1", 0);
+        // streams of the same build have the same share
+        assertEquals(first, throttle.join("job#1", 0));
+        final BandwidthThrottle.Share second = throttle.join("other#7", 0);
+        assertEquals(2, throttle.getShareCount());
+
+        assertEquals(2 * SECOND, throttle.reserve(first, 1000, 1000, 0));
+        assertEquals(2 * SECOND, throttle.reserve(second, 1000, 1000, 0));
+
+        // the other build is done, the first one has the whole bandwidth again
+        throttle.leave(second);
+        assertEquals(1, throttle.getShareCount());
+        throttle.leave(first);
+        assertEquals(1, throttle.getShareCount());
+        throttle.leave(first);
+        assertEquals(0, throttle.getShareCount());
+    }
+
+    @Test
+    public void testThrottledStreamsKeepContent() throws Exception {
+        final byte[] content = new byte[3 * BandwidthLimit.CHUNK_SIZE + 17];
+        new Random(42).nextBytes(content);
+        final BandwidthLimit limit = new BandwidthLimit("testThrottledStreamsKeepContent", 1L << 40, "job#1");
+
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        try (InputStream in = limit.throttle(new ByteArrayInputStream(content));
+             OutputStream out = limit.throttle(written)) {
+            IOUtils.copy(in, out);
+        }
+        assertArrayEquals(content, written.toByteArray());
+        assertEquals(0, BandwidthThrottle.get("testThrottledStreamsKeepContent").getShareCount());
+    }
+
+    @Test
+    public void testCompressedUploadLeavesItsShare() throws Exception {
+        final byte[] content = new byte[100 * 1024];
+        final FakeS3Client client = new FakeS3Client();
+
+        compressedUpload(client, "testCompressedUploadLeavesItsShare", content);
+
+        assertArrayEquals(content, IOUtils.toByteArray(Compression.GZIP.decompress(
+                new ByteArrayInputStream(client.getContent("bucket", "file")))));
+        assertEquals(0, BandwidthThrottle.get("testCompressedUploadLeavesItsShare").getShareCount());
+    }
+
+    @Test
+    public void testFailedCompressedUploadLeavesItsShare() throws Exception {
+        final byte[] content = new byte[11 * 1024 * 1024];
+        new Random(42).nextBytes(content);
+        final FakeS3Client client = new FakeS3Client();
+        client.failPart(1);
+
+        try {
+            compressedUpload(client, "testFailedCompressedUploadLeavesItsShare", content);
+            fail("the failed part should fail the upload");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, client.getUploadsInProgress());
+        assertEquals(0, BandwidthThrottle.get("testFailedCompressedUploadLeavesItsShare").getShareCount());
+    }
+
+    private void compressedUpload(FakeS3Client client, String profile, byte[] content) throws Exception {
+        final File file = tmp.newFile();
+        FileUtils.writeByteArrayToFile(file, content);
+        final S3CompressCallable upload = new S3CompressCallable(null, null, false, new Destination("bucket", "file"),
+                Collections.<String, String>emptyMap(), null, "us-east-1", false, null, null,
+                new MultipartSettings(MultipartSettings.MIN_PART_SIZE, MultipartSettings.MIN_PART_SIZE, false),
+                Compression.GZIP, 1, 1);
+        upload.setBandwidth(new BandwidthLimit(profile, 1L << 40, "job#1"));
+
+        try (UploadSession session = new UploadSession()) {
+            upload.invoke(client, session, new FilePath(file), WorkspaceFile.of(new FilePath(file)));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package hudson.plugins.s3;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BlobReferencesTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final BlobReferences references = new BlobReferences();
+
+    @Test
+    public void testSharedBlobsAreKeptUntilTheLastBuildIsDeleted() throws Exception {
+        references.add(1, Arrays.asList("a", "b"));
+        references.add(2, Arrays.asList("b", "c"));
+
+        assertEquals(Collections.singleton("a"), references.release(1));
+        assertEquals(new HashSet<>(Arrays.asList("b", "c")), references.release(2));
+    }
+
+    @Test
+    public void testBlobsOfARunningBuildAreKept() throws Exception {
+        references.add(1, Collections.singletonList("a"));
+        // added before the running build uploads, long before its artifacts are recorded
+        references.add(2, Collections.singletonList("a"));
+
+        assertTrue(references.release(1).isEmpty());
+    }
+
+    @Test
+    public void testReleasingTwiceOrUnknownBuildsReleasesNothing() throws Exception {
+        references.add(1, Collections.singletonList("a"));
+
+        assertTrue(references.release(3).isEmpty());
+        assertEquals(Collections.singleton("a"), references.release(1));
+        assertTrue(references.release(1).isEmpty());
+    }
+
+    @Test
+    public void testBlobAddedAgainAfterItWasReleasedIsReferenced() throws Exception {
+        references.add(1, Collections.singletonList("a"));
+        assertEquals(Collections.singleton("a"), references.release(1));
+
+        references.add(2, Collections.singletonList("a"));
+        references.add(3, Collections.singletonList("a"));
+
+        assertTrue(references.release(2).isEmpty());
+        assertEquals(Collections.singleton("a"), references.release(3));
+    }
+
+    @Test
+    public void testReferencesAreReadBackFromTheirFile() throws Exception {
+        final File file = new File(tmp.getRoot(), BlobReferences.FILE_NAME);
+        final BlobReferences written = BlobReferences.load(file);
+        written.add(1, Arrays.asList("bucket/jobs/job/blobs/a", "bucket/jobs/job/blobs/b"));
+        written.add(2, Collections.singletonList("bucket/jobs/job/blobs/b"));
+        assertEquals(Collections.singleton("bucket/jobs/job/blobs/a"), written.release(1));
+
+        // as after a restart
+        final BlobReferences read = BlobReferences.load(file);
+        assertTrue(read.release(1).isEmpty());
+        assertEquals(Collections.singleton("bucket/jobs/job/blobs/b"), read.release(2));
+        assertTrue(BlobReferences.load(file).release(2).isEmpty());
+    }
+
+    @Test
+    public void testNoFileMeansNoReferences() throws Exception {
+        assertTrue(BlobReferences.load(new File(tmp.getRoot(), BlobReferences.FILE_NAME)).release(1).isEmpty());
+    }
+}
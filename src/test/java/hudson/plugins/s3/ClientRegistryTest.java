@@ -0,0 +1,150 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.s3.AmazonS3Client;
+import hudson.ProxyConfiguration;
+import hudson.util.Secret;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class ClientRegistryTest {
+    private final List<AmazonS3Client> created = new ArrayList<>();
+    private final List<RequestHandler2> handlers = new ArrayList<>();
+    private ClientRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new ClientRegistry(new ClientRegistry.ClientFactory() {
+            @Override
+            public AmazonS3Client create(String accessKey, Secret secretKey, boolean useRole, String region, ProxyConfiguration proxy,
+                                         ConnectionSettings connection, RequestHandler2 requestHandler) {
+                final AmazonS3Client client = mock(AmazonS3Client.class);
+                created.add(client);
+                handlers.add(requestHandler);
+                return client;
+            }
+        });
+    }
+
+    @Test
+    public void testClientIsShared() {
+        final ClientRegistry.Lease first = lease("us-east-1");
+        final ClientRegistry.Lease second = lease("us-east-1");
+
+        assertSame(first.getClient(), second.getClient());
+        assertNotSame(first.getClient(), lease("eu-west-1").getClient());
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testClientIsBuiltWithTheThrottlingHandler() {
+        lease("us-east-1");
+        lease("us-east-1");
+
+        assertEquals(1, handlers.size());
+        assertTrue(handlers.get(0) instanceof ThrottlingRequestHandler);
+    }
+
+    @Test
+    public void testConnectionSettingsGetTheirOwnClient() {
+        final ConnectionSettings tuned = new ConnectionSettings(200, 0, 4096, 4096, true, 0, 0, 0);
+
+        assertNotSame(lease("us-east-1").getClient(),
+                registry.lease("key", null, false, "us-east-1", null, tuned).getClient());
+    }
+
+    @Test
+    public void testIdleClientIsShutDown() {
+        final ClientRegistry.Lease idle = lease("us-east-1");
+        idle.close();
+        final ClientRegistry.Lease used = lease("eu-west-1");
+
+        registry.evictIdle(System.currentTimeMillis() + ClientRegistry.IDLE_TIMEOUT + 1);
+
+        verify(idle.getClient()).shutdown();
+        verify(used.getClient(), never()).shutdown();
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedClientIsShutDownAboveMaximum() {
+        for (int i = 0; i <= ClientRegistry.MAX_SIZE; i++) {
+            lease("region-" + i).close();
+        }
+
+        verify(created.get(0)).shutdown();
+        verify(created.get(1), never()).shutdown();
+        assertEquals(ClientRegistry.MAX_SIZE, registry.size());
+    }
+
+    @Test
+    public void testInvalidatedClientIsShutDownWhenReleased() {
+        final ClientRegistry.Lease lease = lease("us-east-1");
+
+        registry.invalidateAll();
+        verify(lease.getClient(), never()).shutdown();
+        assertNotSame(lease.getClient(), lease("us-east-1").getClient());
+
+        lease.close();
+        verify(lease.getClient()).shutdown();
+    }
+
+    @Test
+    public void testClosingALeaseTwiceReleasesItOnce() {
+        final ClientRegistry.Lease first = lease("us-east-1");
+        final ClientRegistry.Lease second = lease("us-east-1");
+        first.close();
+        first.close();
+
+        registry.invalidateAll();
+        verify(second.getClient(), never()).shutdown();
+
+        second.close();
+        second.close();
+        verify(second.getClient(), times(1)).shutdown();
+    }
+
+    @Test
+    public void testLeaseSurvivesInvalidationAndEviction() {
+        final ClientRegistry.Lease lease = lease("us-east-1");
+
+        registry.invalidateAll();
+        registry.evictIdle(System.currentTimeMillis() + ClientRegistry.IDLE_TIMEOUT + 1);
+        for (int i = 0; i <= ClientRegistry.MAX_SIZE; i++) {
+            lease("region-" + i).close();
+        }
+        verify(lease.getClient(), never()).shutdown();
+
+        lease.close();
+        verify(lease.getClient(), times(1)).shutdown();
+    }
+
+    @Test
+    public void testRetiredClientIsShutDownOnceEveryLeaseIsReleased() {
+        final ClientRegistry.Lease first = lease("us-east-1");
+        final ClientRegistry.Lease second = lease("us-east-1");
+
+        registry.invalidateAll();
+        first.close();
+        verify(first.getClient(), never()).shutdown();
+
+        second.close();
+        verify(first.getClient(), times(1)).shutdown();
+    }
+
+    private ClientRegistry.Lease lease(String region) {
+        return registry.lease("key", null, false, region, null, ConnectionSettings.DEFAULT);
+    }
+}
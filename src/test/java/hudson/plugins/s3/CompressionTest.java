@@ -0,0 +1,78 @@
+package hudson.plugins.s3;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompressionTest {
+    private static final byte[] DATA = "jenkins artifact bucket upload\n".getBytes();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (Compression compression : Compression.values()) {
+            assertArrayEquals(compression.name(), DATA, roundTrip(compression, 0, 1));
+        }
+    }
+
+    @Test
+    public void testRoundTripOnSeveralThreads() throws Exception {
+        assertArrayEquals(DATA, roundTrip(Compression.GZIP, 9, 4));
+        assertArrayEquals(DATA, roundTrip(Compression.ZSTD, 19, 2));
+    }
+
+    @Test
+    public void testCompressLeavesStreamOpen() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Compression.GZIP.compress(out, 0, 1).close();
+        out.write(1);
+    }
+
+    @Test
+    public void testLevelIsCheckedPerCodec() throws Exception {
+        assertTrue(Compression.GZIP.isValidLevel(9));
+        assertFalse(Compression.GZIP.isValidLevel(10));
+        assertTrue(Compression.ZSTD.isValidLevel(22));
+        assertFalse(Compression.ZSTD.isValidLevel(-1));
+        assertTrue(Compression.NONE.isValidLevel(42));
+        try {
+            Compression.GZIP.compress(new ByteArrayOutputStream(), 19, 1);
+            fail("gzip has no level 19");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFromContentEncoding() {
+        assertEquals(Compression.GZIP, Compression.fromContentEncoding("gzip"));
+        assertEquals(Compression.ZSTD, Compression.fromContentEncoding(" ZSTD "));
+        assertEquals(Compression.NONE, Compression.fromContentEncoding("br"));
+        assertEquals(Compression.NONE, Compression.fromContentEncoding(null));
+    }
+
+    @Test
+    public void testFromName() {
+        assertEquals(Compression.ZSTD, Compression.fromName("ZSTD"));
+        assertNull(Compression.fromName(""));
+        assertNull(Compression.fromName("brotli"));
+    }
+
+    private byte[] roundTrip(Compression compression, int level, int threads) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = compression.compress(compressed, level, threads)) {
+            out.write(DATA);
+        }
+        return IOUtils.toByteArray(compression.decompress(new ByteArrayInputStream(compressed.toByteArray())));
+    }
+}
@@ -0,0 +1,384 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.s3.model.MultipartUpload;
+import com.amazonaws.services.s3.model.MultipartUploadListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bucket store kept in memory, answering the requests the plugin sends the way S3 does.
+ * Requests on chosen keys or parts can be made to fail, to test how failures are handled.
+ */
+public class FakeS3Client extends AmazonS3Client {
+    private final Map<String, Stored> objects = new ConcurrentHashMap<>();
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final Set<String> failingKeys = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> failingParts = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> deniedParts = ConcurrentHashMap.newKeySet();
+    private final Set<String> failingCompletions = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger sentParts = new AtomicInteger();
+    private final Map<Integer, AtomicInteger> sentByNumber = new ConcurrentHashMap<>();
+    private final AtomicInteger puts = new AtomicInteger();
+    private volatile int lastReadLimit;
+
+    public FakeS3Client() {
+        super();
+    }
+
+    /**
+     * Makes the requests on the object fail with a server error.
+     */
+    public void failOn(String objectName) {
+        failingKeys.add(objectName);
+    }
+
+    /**
+     * Makes the upload of the part with this number fail with a server error.
+     */
+    public void failPart(int partNumber) {
+        failingParts.add(partNumber);
+    }
+
+    /**
+     * Makes the upload of the part with this number fail with access denied.
+     */
+    public void denyPart(int partNumber) {
+        deniedParts.add(partNumber);
+    }
+
+    /**
+     * Makes completing the multipart upload of the object fail with a server error, once all its parts are sent.
+     */
+    public void failCompleting(String objectName) {
+        failingCompletions.add(objectName);
+    }
+
+    public void stopFailing() {
+        failingCompletions.clear();
+        failingKeys.clear();
+        failingParts.clear();
+        deniedParts.clear();
+    }
+
+    public boolean hasObject(String bucketName, String objectName) {
+        return objects.containsKey(bucketName + '/' + objectName);
+    }
+
+    public int getObjectCount() {
+        return objects.size();
+    }
+
+    public byte[] getContent(String bucketName, String objectName) {
+        return stored(bucketName, objectName).content.clone();
+    }
+
+    public ObjectMetadata getMetadata(String bucketName, String objectName) {
+        return stored(bucketName, objectName).metadata;
+    }
+
+    /**
+     * Stores an object directly, as another client would have.
+     */
+    public void store(String bucketName, String objectName, byte[] content, ObjectMetadata metadata) {
+        metadata.setContentLength(content.length);
+        metadata.setHeader("ETag", DigestUtils.md5Hex(content));
+        objects.put(bucketName + '/' + objectName, new Stored(content.clone(), metadata));
+    }
+
+    /**
+     * Number of multipart uploads initiated and neither completed nor aborted.
+     */
+    public int getUploadsInProgress() {
+        return uploads.size();
+    }
+
+    public int getSentParts() {
+        return sentParts.get();
+    }
+
+    /**
+     * How many times a part with this number was sent, whatever its upload.
+     */
+    public int getSentParts(int partNumber) {
+        final AtomicInteger sent = sentByNumber.get(partNumber);
+        return sent == null ? 0 : sent.get();
+    }
+
+    public int getPuts() {
+        return puts.get();
+    }
+
+    /**
+     * How much of its stream the last single PUT allowed the SDK to resend.
+     */
+    public int getLastReadLimit() {
+        return lastReadLimit;
+    }
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest request) {
+        failIfAsked(request.getKey());
+        lastReadLimit = request.getRequestClientOptions().getReadLimit();
+        final byte[] content;
+        try (InputStream in = request.getInputStream() != null ? request.getInputStream() : new FileInputStream(request.getFile())) {
+            content = IOUtils.toByteArray(in);
+        } catch (IOException e) {
+            throw new AmazonS3Exception("Failed to read the content of " + request.getKey(), e);
+        }
+        final ObjectMetadata metadata = request.getMetadata() != null ? request.getMetadata().clone() : new ObjectMetadata();
+        if (request.getStorageClass() != null) {
+            metadata.setHeader("x-amz-storage-class", request.getStorageClass());
+        }
+        store(request.getBucketName(), request.getKey(), content, metadata);
+        puts.incrementAndGet();
+
+        final PutObjectResult result = new PutObjectResult();
+        result.setETag(DigestUtils.md5Hex(content));
+        return result;
+    }
+
+    @Override
+    public S3Object getObject(GetObjectRequest request) {
+        failIfAsked(request.getKey());
+        final Stored stored = stored(request.getBucketName(), request.getKey());
+        int from = 0;
+        int to = stored.content.length;
+        if (request.getRange() != null) {
+            from = (int) request.getRange()[0];
+            to = (int) Math.min(request.getRange()[1] + 1, stored.content.length);
+        }
+
+        final S3Object object = new S3Object();
+        object.setBucketName(request.getBucketName());
+        object.setKey(request.getKey());
+        object.setObjectMetadata(stored.metadata.clone());
+        object.setObjectContent(new ByteArrayInputStream(stored.content, from, to - from));
+        return object;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest request) {
+        failIfAsked(request.getKey());
+        return stored(request.getBucketName(), request.getKey()).metadata.clone();
+    }
+
+    @Override
+    public void deleteObject(DeleteObjectRequest request) {
+        failIfAsked(request.getKey());
+        objects.remove(request.getBucketName() + '/' + request.getKey());
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+        failIfAsked(request.getKey());
+        final String uploadId = UUID.randomUUID().toString();
+        final ObjectMetadata metadata = request.getObjectMetadata() != null ? request.getObjectMetadata().clone() : new ObjectMetadata();
+        uploads.put(uploadId, new Upload(request.getBucketName(), request.getKey(), metadata));
+
+        final InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setBucketName(request.getBucketName());
+        result.setKey(request.getKey());
+        result.setUploadId(uploadId);
+        return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest request) {
+        failIfAsked(request.getKey());
+        if (failingParts.contains(request.getPartNumber())) {
+            throw serverError("part " + request.getPartNumber() + " of " + request.getKey());
+        }
+        if (deniedParts.contains(request.getPartNumber())) {
+            final AmazonS3Exception e = new AmazonS3Exception("Access Denied");
+            e.setStatusCode(403);
+            e.setErrorCode("AccessDenied");
+            throw e;
+        }
+        final Upload upload = upload(request.getUploadId());
+        final byte[] content;
+        try {
+            content = IOUtils.toByteArray(request.getInputStream(), request.getPartSize());
+        } catch (IOException e) {
+            throw new AmazonS3Exception("Failed to read part of " + request.getKey(), e);
+        }
+        final String etag = DigestUtils.md5Hex(content);
+        synchronized (upload) {
+            upload.parts.put(request.getPartNumber(), content);
+            upload.etags.put(request.getPartNumber(), etag);
+        }
+        sentParts.incrementAndGet();
+        AtomicInteger sent = sentByNumber.get(request.getPartNumber());
+        if (sent == null) {
+            sentByNumber.putIfAbsent(request.getPartNumber(), new AtomicInteger());
+            sent = sentByNumber.get(request.getPartNumber());
+        }
+        sent.incrementAndGet();
+
+        final UploadPartResult result = new UploadPartResult();
+        result.setPartNumber(request.getPartNumber());
+        result.setETag(etag);
+        return result;
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        failIfAsked(request.getKey());
+        if (failingCompletions.contains(request.getKey())) {
+            throw serverError("completion of " + request.getKey());
+        }
+        final Upload upload = upload(request.getUploadId());
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int lastPart = 0;
+        synchronized (upload) {
+            for (PartETag part : request.getPartETags()) {
+                if (part.getPartNumber() <= lastPart || !part.getETag().equals(upload.etags.get(part.getPartNumber()))) {
+                    final AmazonS3Exception e = new AmazonS3Exception("Invalid part " + part.getPartNumber());
+                    e.setStatusCode(400);
+                    e.setErrorCode("InvalidPart");
+                    throw e;
+                }
+                lastPart = part.getPartNumber();
+                final byte[] bytes = upload.parts.get(part.getPartNumber());
+                content.write(bytes, 0, bytes.length);
+            }
+        }
+        uploads.remove(request.getUploadId());
+        store(upload.bucketName, upload.objectName, content.toByteArray(), upload.metadata);
+
+        final CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+        result.setBucketName(upload.bucketName);
+        result.setKey(upload.objectName);
+        return result;
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+        upload(request.getUploadId());
+        uploads.remove(request.getUploadId());
+    }
+
+    @Override
+    public MultipartUploadListing listMultipartUploads(ListMultipartUploadsRequest request) {
+        final List<MultipartUpload> found = new ArrayList<>();
+        for (Map.Entry<String, Upload> entry : new TreeMap<>(uploads).entrySet()) {
+            final Upload upload = entry.getValue();
+            if (upload.bucketName.equals(request.getBucketName())
+                    && (request.getPrefix() == null || upload.objectName.startsWith(request.getPrefix()))) {
+                final MultipartUpload listed = new MultipartUpload();
+                listed.setKey(upload.objectName);
+                listed.setUploadId(entry.getKey());
+                listed.setInitiated(upload.initiated);
+                found.add(listed);
+            }
+        }
+
+        final MultipartUploadListing listing = new MultipartUploadListing();
+        listing.setBucketName(request.getBucketName());
+        listing.setMultipartUploads(found);
+        return listing;
+    }
+
+    /**
+     * Part numbers of a multipart upload in progress.
+     */
+    public Set<Integer> getParts(String uploadId) {
+        final Upload upload = upload(uploadId);
+        synchronized (upload) {
+            return new HashSet<>(upload.parts.keySet());
+        }
+    }
+
+    private Stored stored(String bucketName, String objectName) {
+        final Stored stored = objects.get(bucketName + '/' + objectName);
+        if (stored == null) {
+            final AmazonS3Exception e = new AmazonS3Exception("No such key " + objectName);
+            e.setStatusCode(404);
+            e.setErrorCode("NoSuchKey");
+            throw e;
+        }
+        return stored;
+    }
+
+    private Upload upload(String uploadId) {
+        final Upload upload = uploadId == null ? null : uploads.get(uploadId);
+        if (upload == null) {
+            final AmazonS3Exception e = new AmazonS3Exception("No such upload " + uploadId);
+            e.setStatusCode(404);
+            e.setErrorCode("NoSuchUpload");
+            throw e;
+        }
+        return upload;
+    }
+
+    private void failIfAsked(String objectName) {
+        if (failingKeys.contains(objectName)) {
+            throw serverError(objectName);
+        }
+    }
+
+    private static AmazonS3Exception serverError(String what) {
+        final AmazonS3Exception e = new AmazonS3Exception("Failing " + what + " as asked");
+        e.setStatusCode(500);
+        e.setErrorCode("InternalError");
+        return e;
+    }
+
+    private static final class Stored {
+        private final byte[] content;
+        private final ObjectMetadata metadata;
+
+        Stored(byte[] content, ObjectMetadata metadata) {
+            this.content = content;
+            this.metadata = metadata;
+        }
+    }
+
+    private static final class Upload {
+        private final String bucketName;
+        private final String objectName;
+        private final ObjectMetadata metadata;
+        private final Date initiated = new Date();
+        private final Map<Integer, byte[]> parts = new TreeMap<>();
+        private final Map<Integer, String> etags = new TreeMap<>();
+
+        Upload(String bucketName, String objectName, ObjectMetadata metadata) {
+            this.bucketName = bucketName;
+            this.objectName = objectName;
+            this.metadata = metadata;
+        }
+    }
+}
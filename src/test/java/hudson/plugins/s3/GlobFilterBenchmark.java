@@ -0,0 +1,114 @@
+package hudson.plugins.s3;
+
+import org.apache.tools.ant.types.selectors.FilenameSelector;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtering the artifacts of a build the way {@code S3CopyArtifact} does, with a compiled {@link GlobFilter}
+ * and with the {@code FilenameSelector} per name {@link FileHelper#selected(String, String, String)} used before.
+ *
+ * Not run with the tests, run it with {@code mvn test -Dtest=GlobFilterBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GlobFilterBenchmark {
+    private static final String[] DIRECTORIES = {"target", "classes", "hudson", "plugins", "s3", "reports", "lib", "tmp"};
+    private static final String[] FILES = {"a.jar", "b.class", "c.txt", "d.xml", "e.log", "f.html"};
+
+    @Param({"**/*.jar, **/reports/**", "target/**/*.class"})
+    public String includeFilter;
+
+    @Param({"**/tmp/**"})
+    public String excludeFilter;
+
+    private String[] names;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        names = new String[100000];
+        for (int i = 0; i < names.length; i++) {
+            final StringBuilder name = new StringBuilder();
+            for (int depth = 1 + random.nextInt(6); depth > 0; depth--) {
+                name.append(DIRECTORIES[random.nextInt(DIRECTORIES.length)]).append(File.separatorChar);
+            }
+            names[i] = name.append(FILES[random.nextInt(FILES.length)]).toString();
+        }
+    }
+
+    @Benchmark
+    public int globFilter() {
+        final GlobFilter filter = GlobFilter.compile(includeFilter, excludeFilter);
+        int selected = 0;
+        for (String name : names) {
+            if (filter.matches(name)) {
+                selected++;
+            }
+        }
+        return selected;
+    }
+
+    @Benchmark
+    public int filenameSelector() {
+        int selected = 0;
+        for (String name : names) {
+            if (selectedBySelector(includeFilter, excludeFilter, name)) {
+                selected++;
+            }
+        }
+        return selected;
+    }
+
+    // FileHelper.selected before the filters were compiled
+    private static boolean selectedBySelector(String includeFilter, String excludeFilter, String filename) {
+        if (includeFilter == null) {
+            return false;
+        }
+
+        final FilenameSelector positiveSelector = new FilenameSelector();
+        final FilenameSelector negativeSelector = new FilenameSelector();
+
+        if (excludeFilter != null) {
+            for (String exclude : excludeFilter.split(",")) {
+                negativeSelector.setName(exclude.trim());
+                if (negativeSelector.isSelected(new File("/"), filename, null)) {
+                    return false;
+                }
+            }
+        }
+
+        for (String include : includeFilter.split(",")) {
+            positiveSelector.setName(include.trim());
+            if (positiveSelector.isSelected(new File("/"), filename, null)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void runBenchmarks() throws Exception {
+        new Runner(new OptionsBuilder().include(GlobFilterBenchmark.class.getName()).build()).run();
+    }
+}
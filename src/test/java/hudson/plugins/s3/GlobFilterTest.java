@@ -0,0 +1,71 @@
+package hudson.plugins.s3;
+
+import org.apache.tools.ant.types.selectors.FilenameSelector;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GlobFilterTest {
+    private static final String[] PATTERN_TOKENS = {"a", "b", "*", "?", "**", "a*", "*b", "a?b", "*.txt", "a.txt"};
+    private static final String[] NAME_TOKENS = {"a", "b", "ab", "aab", "a.txt", "b.txt", "x", ""};
+
+    @Test
+    public void testMatches() throws Exception {
+        final GlobFilter filter = GlobFilter.compile("a/**/*.txt, b/", "**/tmp/**");
+        final String separator = File.separator;
+
+        assertTrue(filter.matches("a" + separator + "x.txt"));
+        assertTrue(filter.matches("a" + separator + "c" + separator + "d" + separator + "x.txt"));
+        assertTrue(filter.matches("b" + separator + "c" + separator + "x.log"));
+        assertFalse(filter.matches("a" + separator + "x.log"));
+        assertFalse(filter.matches("c" + separator + "x.txt"));
+        assertFalse(filter.matches("a" + separator + "tmp" + separator + "x.txt"));
+    }
+
+    @Test
+    public void testNullFilters() throws Exception {
+        assertFalse(GlobFilter.compile(null, null).matches("a.txt"));
+        assertFalse(GlobFilter.compile(null, "b.txt").matches("a.txt"));
+        assertTrue(GlobFilter.compile("*", null).matches("a.txt"));
+    }
+
+    @Test
+    public void testMatchesFilenameSelector() throws Exception {
+        final Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            final String pattern = randomPath(random, PATTERN_TOKENS, i % 7 == 0 ? "\\" : "/");
+            final String name = randomPath(random, NAME_TOKENS, File.separator);
+            assertEquals("'" + pattern + "' against '" + name + "'", select(pattern, name),
+                    GlobFilter.compile(pattern, null).matches(name));
+        }
+    }
+
+    // a relative or absolute path, maybe with a trailing separator, but not starting with two as UNC paths do
+    private static String randomPath(Random random, String[] tokens, String separator) {
+        final StringBuilder path = new StringBuilder();
+        if (random.nextInt(5) == 0) {
+            path.append(separator).append(tokens[random.nextInt(tokens.length - 1)]);
+        }
+        for (int count = random.nextInt(5); count > 0; count--) {
+            if (path.length() > 0) {
+                path.append(random.nextInt(8) == 0 ? separator + separator : separator);
+            }
+            path.append(tokens[random.nextInt(tokens.length)]);
+        }
+        if (path.length() > 0 && random.nextInt(6) == 0) {
+            path.append(separator);
+        }
+        return path.toString();
+    }
+
+    private static boolean select(String pattern, String name) {
+        final FilenameSelector selector = new FilenameSelector();
+        selector.setName(pattern);
+        return selector.isSelected(new File("/"), name, null);
+    }
+}
@@ -0,0 +1,64 @@
+package hudson.plugins.s3;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MD5Test {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        assertFileDigest(new byte[0]);
+    }
+
+    @Test
+    public void testReadFile() throws Exception {
+        assertFileDigest(randomBytes(300 * 1024 + 5));
+    }
+
+    @Test
+    public void testLargeFile() throws Exception {
+        assertFileDigest(randomBytes(5 * 1024 * 1024 + 12345));
+    }
+
+    @Test
+    public void testFileCanBeDeletedOnceDigested() throws Exception {
+        final File file = assertFileDigest(randomBytes(5 * 1024 * 1024));
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void testStreamingUpdates() {
+        final byte[] data = randomBytes(100 * 1000);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(data.length - 1000);
+        direct.put(data, 1000, data.length - 1000).flip();
+
+        final String md5 = MD5.newHasher().update(data, 0, 1000).update(direct).toHex();
+
+        assertEquals(DigestUtils.md5Hex(data), md5);
+    }
+
+    private File assertFileDigest(byte[] data) throws Exception {
+        final File file = tmp.newFile();
+        Files.write(file.toPath(), data);
+        assertEquals(DigestUtils.md5Hex(data), MD5.generateFromFile(file));
+        return file;
+    }
+
+    private static byte[] randomBytes(int length) {
+        final byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,179 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultipartOutputStreamTest {
+    private static final int PART_SIZE = 100;
+
+    private final FakeS3Client client = new FakeS3Client();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final BufferBudget budget = new BufferBudget(2 * PART_SIZE);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPartsAreAssembledInOrder() throws Exception {
+        final byte[] content = randomBytes(10 * PART_SIZE + 50);
+        final MultipartOutputStream stream = open("object");
+        // chunks which don't line up with the parts
+        for (int offset = 0; offset < content.length; offset += 37) {
+            stream.write(content, offset, Math.min(37, content.length - offset));
+        }
+        stream.close();
+
+        assertArrayEquals(content, client.getContent("bucket", "object"));
+        assertEquals(11, client.getSentParts());
+        assertEquals(0, client.getUploadsInProgress());
+        assertEquals(0, budget.getHeld());
+    }
+
+    @Test
+    public void testUploadsShareTheBufferBudget() throws Exception {
+        final BufferBudget shared = new BufferBudget(PART_SIZE);
+        final byte[] first = randomBytes(3 * PART_SIZE + 10);
+        final MultipartOutputStream holding = open("first", shared);
+        // short of room, the upload sends one part at a time
+        holding.write(first);
+        assertEquals(PART_SIZE, shared.getHeld());
+
+        final MultipartOutputStream waiting = open("second", shared);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    waiting.write(1);
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        writer.setDaemon(true);
+        writer.start();
+        writer.join(200);
+        assertTrue("the second upload should wait for room", writer.isAlive());
+
+        holding.close();
+        writer.join(10000);
+        assertFalse(writer.isAlive());
+        assertEquals(null, failure.get());
+        waiting.close();
+
+        assertArrayEquals(first, client.getContent("bucket", "first"));
+        assertArrayEquals(new byte[] {1}, client.getContent("bucket", "second"));
+        assertEquals(0, shared.getHeld());
+    }
+
+    @Test
+    public void testContentSmallerThanAPartIsSentInOneRequest() throws Exception {
+        final byte[] content = randomBytes(PART_SIZE - 1);
+        final MultipartOutputStream stream = open("object");
+        stream.write(content);
+        stream.close();
+
+        assertArrayEquals(content, client.getContent("bucket", "object"));
+        assertEquals(0, client.getSentParts());
+        assertEquals(1, client.getPuts());
+    }
+
+    @Test
+    public void testFailedPartAbortsTheUpload() throws Exception {
+        client.failPart(3);
+        final MultipartOutputStream stream = open("object");
+        try {
+            stream.write(randomBytes(10 * PART_SIZE));
+            stream.close();
+            fail("the failed part should fail the upload");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertEquals(0, client.getUploadsInProgress());
+        assertFalse(client.hasObject("bucket", "object"));
+    }
+
+    @Test
+    public void testAbortDropsTheUpload() throws Exception {
+        final MultipartOutputStream stream = open("object");
+        stream.write(randomBytes(3 * PART_SIZE));
+        assertEquals(1, client.getUploadsInProgress());
+
+        stream.abort();
+
+        assertEquals(0, client.getUploadsInProgress());
+        assertFalse(client.hasObject("bucket", "object"));
+        try {
+            stream.write(1);
+            fail("nothing can be written once aborted");
+        } catch (IOException e) {
+            // expected
+        }
+        // closing an aborted upload doesn't complete it
+        stream.close();
+        assertFalse(client.hasObject("bucket", "object"));
+        assertEquals(0, budget.getHeld());
+    }
+
+    @Test
+    public void testAbortWhileAnotherThreadWrites() throws Exception {
+        final MultipartOutputStream stream = open("object");
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final byte[] chunk = randomBytes(PART_SIZE / 2);
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        stream.write(chunk);
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        writer.setDaemon(true);
+        writer.start();
+        while (client.getSentParts() < 20) {
+            Thread.sleep(1);
+        }
+
+        stream.abort();
+        writer.join(10000);
+
+        assertFalse(writer.isAlive());
+        assertTrue(String.valueOf(failure.get()), failure.get() instanceof IOException);
+        assertEquals(0, client.getUploadsInProgress());
+    }
+
+    private MultipartOutputStream open(String objectName) {
+        return open(objectName, budget);
+    }
+
+    private MultipartOutputStream open(String objectName, BufferBudget budget) {
+        return new MultipartOutputStream(client, "bucket", objectName, new ObjectMetadata(),
+                PART_SIZE, 3, budget, executor, new TransferRate(), null);
+    }
+
+    private static byte[] randomBytes(int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
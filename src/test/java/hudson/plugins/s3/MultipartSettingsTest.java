@@ -0,0 +1,80 @@
+package hudson.plugins.s3;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MultipartSettingsTest {
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testThreshold() {
+        final MultipartSettings settings = MultipartSettings.ofMegabytes(32, 16, false);
+        assertFalse(settings.isMultipart(20 * MB));
+        assertTrue(settings.isMultipart(32 * MB));
+        assertTrue(settings.isMultipart(-1));
+    }
+
+    @Test
+    public void testLargeContentIsSentInPartsWhateverTheThreshold() {
+        final MultipartSettings settings = MultipartSettings.ofMegabytes(1024, 16, false);
+        assertFalse(settings.isMultipart(64 * MB));
+        assertTrue(settings.isMultipart(64 * MB + 1));
+    }
+
+    @Test
+    public void testPartSizeIsCappedToWhatFitsInMemory() {
+        assertEquals(64 * MB, MultipartSettings.ofMegabytes(16, 1024, false).getPartSize(-1, 0));
+        assertEquals(64 * MB, MultipartSettings.ofMegabytes(16, 1024, false).getPartSize(1024 * MB, 0));
+    }
+
+    @Test
+    public void testLargestObjectsFitInMaxParts() {
+        final MultipartSettings settings = MultipartSettings.ofMegabytes(16, 16, false);
+        // 1 TB and 5 TB
+        for (long length : new long[] {1024 * 1024 * MB, 5 * 1024 * 1024 * MB}) {
+            final int partSize = settings.getPartSize(length, 0);
+            assertTrue(partSize > 64 * MB);
+            assertTrue((length + partSize - 1) / partSize <= 10000);
+        }
+    }
+
+    @Test
+    public void testFixedPartSize() {
+        final MultipartSettings settings = MultipartSettings.ofMegabytes(16, 16, false);
+        assertEquals(16 * MB, settings.getPartSize(100 * MB, 0));
+        assertEquals(16 * MB, settings.getPartSize(-1, 50 * MB));
+    }
+
+    @Test
+    public void testPartSizeFitsInMaxParts() {
+        final MultipartSettings settings = MultipartSettings.ofMegabytes(16, 1, false);
+        final long length = 300L * 1024 * MB;
+        final int partSize = settings.getPartSize(length, 0);
+        assertTrue((length + partSize - 1) / partSize <= 10000);
+    }
+
+    @Test
+    public void testPartSizeIsAtLeastFiveMegabytes() {
+        assertEquals(5 * MB, MultipartSettings.ofMegabytes(16, 1, false).getPartSize(10 * MB, 0));
+        assertEquals(5 * MB, MultipartSettings.ofMegabytes(16, 16, true).getPartSize(10 * MB, 100 * 1024));
+    }
+
+    @Test
+    public void testAdaptivePartSize() {
+        final MultipartSettings settings = MultipartSettings.ofMegabytes(16, 16, true);
+        assertEquals(16 * MB, settings.getPartSize(1024 * MB, 0));
+        assertEquals(30 * MB, settings.getPartSize(1024 * MB, 3 * MB));
+        assertEquals(64 * MB, settings.getPartSize(1024 * MB, 100 * MB));
+    }
+
+    @Test
+    public void testOverride() {
+        final MultipartSettings settings = MultipartSettings.ofMegabytes(16, 16, true).override(0, 32);
+        assertEquals(16 * MB, settings.getThreshold());
+        assertEquals(32 * MB, settings.getPartSize());
+        assertTrue(settings.isAdaptive());
+    }
+}
@@ -0,0 +1,156 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import hudson.FilePath;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PackUploadTest {
+    private static final MultipartSettings SETTINGS = new MultipartSettings(MultipartSettings.MIN_PART_SIZE, MultipartSettings.MIN_PART_SIZE, false);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testIndexIsNamedAfterPack() {
+        assertEquals("0b5c-3.index", PackUpload.getIndexName("0b5c-3.pack"));
+    }
+
+    @Test
+    public void testOnlySmallFilesArePacked() throws Exception {
+        final File file = tmp.newFile("small.txt");
+        final FilePath path = new FilePath(file);
+        path.write("0123456789", StandardCharsets.UTF_8.name());
+
+        assertTrue(PackUpload.isPacked(path, 11));
+        assertFalse(PackUpload.isPacked(path, 10));
+        assertFalse(PackUpload.isPacked(path, 0));
+    }
+
+    @Test
+    public void testLastByteOfLocation() {
+        assertEquals(109, new PackLocation(".s3-packs/a-0.pack", 100, 10).getLastByte());
+    }
+
+    @Test
+    public void testRetryKeepsCompletedPacks() throws Exception {
+        final FakeS3Client client = new FakeS3Client();
+        final List<FilePath> files = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final File file = tmp.newFile("file" + i);
+            FileUtils.writeStringToFile(file, contentOf(i), StandardCharsets.UTF_8);
+            files.add(new FilePath(file));
+            names.add(file.getName());
+        }
+        // the second pack fails, as its first file can't be read
+        final File missing = new File(tmp.getRoot(), "file2");
+        assertTrue(missing.renameTo(new File(tmp.getRoot(), "moved")));
+
+        try (UploadSession session = new UploadSession()) {
+            final PackUpload upload = new PackUpload(session, client, new Destination("bucket", "job/1/" + PackUpload.PACK_DIR),
+                    SETTINGS, null, false, Collections.<String, String>emptyMap(), 100);
+            try {
+                upload.upload(files, names);
+                fail("the missing file should fail the upload");
+            } catch (IOException e) {
+                // expected
+            }
+            assertEquals(2, client.getObjectCount());
+
+            assertTrue(new File(tmp.getRoot(), "moved").renameTo(missing));
+            final List<PackUpload.PackedFile> packed = upload.upload(files, names);
+
+            assertEquals(5, packed.size());
+            // two files in each pack, whose names didn't change with the retry
+            final String prefix = packed.get(0).getLocation().getPack().replace("-0.pack", "");
+            for (int i = 0; i < packed.size(); i++) {
+                final PackLocation location = packed.get(i).getLocation();
+                assertEquals(prefix + '-' + i / 2 + ".pack", location.getPack());
+                final byte[] pack = client.getContent("bucket", "job/1/" + location.getPack());
+                final byte[] content = Arrays.copyOfRange(pack, (int) location.getOffset(), (int) location.getLastByte() + 1);
+                assertEquals(contentOf(i), new String(content, StandardCharsets.UTF_8));
+            }
+            // three packs and their index, and nothing else
+            assertEquals(6, client.getObjectCount());
+        }
+    }
+
+    @Test
+    public void testPacksAreStoredAsTheFilesWouldBe() throws Exception {
+        final FakeS3Client client = new FakeS3Client();
+        final File file = tmp.newFile("file.txt");
+        FileUtils.writeStringToFile(file, "content", StandardCharsets.UTF_8);
+        final Map<String, String> userMetadata = new HashMap<>();
+        userMetadata.put("Content-Type", "text/plain");
+        userMetadata.put("Cache-Control", "no-cache");
+        userMetadata.put("team", "build");
+
+        final List<PackUpload.PackedFile> packed;
+        try (UploadSession session = new UploadSession()) {
+            packed = new PackUpload(session, client, new Destination("bucket", PackUpload.PACK_DIR), SETTINGS,
+                    "STANDARD_IA", true, userMetadata).upload(Collections.singletonList(new FilePath(file)), Collections.singletonList("file.txt"));
+        }
+
+        final String pack = packed.get(0).getLocation().getPack();
+        final ObjectMetadata metadata = client.getMetadata("bucket", pack);
+        assertEquals("application/octet-stream", metadata.getContentType());
+        assertEquals("STANDARD_IA", metadata.getRawMetadataValue("x-amz-storage-class"));
+        assertEquals(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION, metadata.getSSEAlgorithm());
+        assertEquals("no-cache", metadata.getCacheControl());
+        assertEquals("build", metadata.getUserMetadata().get("team"));
+
+        final ObjectMetadata index = client.getMetadata("bucket", PackUpload.getIndexName(pack));
+        assertEquals("STANDARD_IA", index.getRawMetadataValue("x-amz-storage-class"));
+        assertEquals(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION, index.getSSEAlgorithm());
+    }
+
+    @Test
+    public void testPacksArePaced() throws Exception {
+        final FakeS3Client client = new FakeS3Client();
+        final List<FilePath> files = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final File file = tmp.newFile("file" + i);
+            FileUtils.writeStringToFile(file, contentOf(i), StandardCharsets.UTF_8);
+            files.add(new FilePath(file));
+            names.add(file.getName());
+        }
+
+        final long start = System.nanoTime();
+        try (UploadSession session = new UploadSession()) {
+            final PackUpload upload = new PackUpload(session, client, new Destination("bucket", PackUpload.PACK_DIR),
+                    SETTINGS, null, false, Collections.<String, String>emptyMap());
+            upload.setBandwidth(new BandwidthLimit("testPacksArePaced", 2000, "job#1"));
+            assertEquals(5, upload.upload(files, names).size());
+        }
+
+        // 300 bytes at 2000 bytes per second
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(0, BandwidthThrottle.get("testPacksArePaced").getShareCount());
+    }
+
+    private static String contentOf(int file) {
+        final char[] content = new char[60];
+        Arrays.fill(content, (char) ('0' + file));
+        return new String(content);
+    }
+}
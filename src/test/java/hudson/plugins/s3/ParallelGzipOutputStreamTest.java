@@ -0,0 +1,96 @@
+package hudson.plugins.s3;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ParallelGzipOutputStreamTest {
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testEmptyInput() throws Exception {
+        assertRoundTrip(new byte[0]);
+    }
+
+    @Test
+    public void testInputSmallerThanOneBlock() throws Exception {
+        assertRoundTrip(textOfLength(1000));
+    }
+
+    @Test
+    public void testInputOfSeveralBlocks() throws Exception {
+        assertRoundTrip(textOfLength(3 * 1000 * 1000 + 17));
+    }
+
+    @Test
+    public void testIncompressibleInput() throws Exception {
+        final byte[] data = new byte[1024 * 1024];
+        new Random(42).nextBytes(data);
+        assertRoundTrip(data);
+    }
+
+    @Test
+    public void testSingleByteWrites() throws Exception {
+        final byte[] data = textOfLength(300 * 1024);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(compressed, pool, 4);
+        for (byte b : data) {
+            gzip.write(b);
+        }
+        gzip.finish();
+
+        assertArrayEquals(data, gunzip(compressed.toByteArray()));
+    }
+
+    private void assertRoundTrip(byte[] data) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(compressed, pool, 4);
+        // uneven writes, so blocks are cut in the middle of them
+        final Random random = new Random(7);
+        int offset = 0;
+        while (offset < data.length) {
+            final int length = Math.min(data.length - offset, 1 + random.nextInt(100 * 1000));
+            gzip.write(data, offset, length);
+            offset += length;
+        }
+        gzip.finish();
+
+        assertArrayEquals(data, gunzip(compressed.toByteArray()));
+    }
+
+    private byte[] gunzip(byte[] compressed) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    private byte[] textOfLength(int length) {
+        final Random random = new Random(1);
+        final String[] words = {"jenkins", "artifact", "bucket", "upload", "s3", "build", "log", "\n"};
+        final StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            builder.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return builder.substring(0, length).getBytes();
+    }
+}
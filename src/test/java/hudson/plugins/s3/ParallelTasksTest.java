@@ -0,0 +1,121 @@
+package hudson.plugins.s3;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelTasksTest {
+    @Test
+    public void testResultsKeepTaskOrder() throws Exception {
+        final List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    // later tasks finish first
+                    Thread.sleep(20 - value);
+                    return value;
+                }
+            });
+        }
+
+        final List<Integer> results = ParallelTasks.invokeAll("test", 4, tasks);
+
+        final List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, results);
+    }
+
+    @Test
+    public void testConcurrencyIsBounded() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    final int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    Thread.sleep(5);
+                    running.decrementAndGet();
+                    return null;
+                }
+            });
+        }
+
+        ParallelTasks.invokeAll("test", 3, tasks);
+
+        assertTrue("at most 3 tasks should run at once, got " + maxRunning.get(), maxRunning.get() <= 3);
+    }
+
+    @Test
+    public void testFailureIsRethrown() throws Exception {
+        final Callable<String> ok = new Callable<String>() {
+            @Override
+            public String call() {
+                return "ok";
+            }
+        };
+        final Callable<String> failing = new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                throw new IOException("broken");
+            }
+        };
+
+        for (int threads : new int[]{1, 4}) {
+            try {
+                ParallelTasks.invokeAll("test", threads, Arrays.asList(ok, failing, ok));
+                fail("exception expected");
+            } catch (IOException e) {
+                assertEquals("broken", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testTasksOfAKeyRunOneAfterAnother() throws Exception {
+        final AtomicInteger[] running = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+        final AtomicInteger overlaps = new AtomicInteger();
+        final List<Callable<Integer>> tasks = new ArrayList<>();
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            final int value = i;
+            final AtomicInteger ofKey = running[i % 3];
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    if (ofKey.incrementAndGet() > 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    Thread.sleep(2);
+                    ofKey.decrementAndGet();
+                    return value;
+                }
+            });
+            keys.add("key" + i % 3);
+        }
+
+        final List<Integer> results = ParallelTasks.invokeAllByKey("test", 4, keys, tasks);
+
+        assertEquals(0, overlaps.get());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i, (int) results.get(i));
+        }
+    }
+}
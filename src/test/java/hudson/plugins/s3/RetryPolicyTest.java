@@ -0,0 +1,135 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.AmazonServiceException;
+import hudson.remoting.ChannelClosedException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+    @Test
+    public void testRetryableErrors() {
+        assertTrue(RetryPolicy.isRetryable(new SocketTimeoutException()));
+        assertTrue(RetryPolicy.isRetryable(serviceException(500, "InternalError")));
+        assertTrue(RetryPolicy.isRetryable(serviceException(400, "RequestTimeout")));
+        // as thrown by the uploads, wrapped with the object they failed for
+        assertTrue(RetryPolicy.isRetryable(new IOException("Failed to upload", serviceException(503, "SlowDown"))));
+        assertTrue(RetryPolicy.isThrottled(serviceException(503, "SlowDown")));
+    }
+
+    @Test
+    public void testFatalErrors() {
+        assertFalse(RetryPolicy.isRetryable(serviceException(403, "AccessDenied")));
+        assertFalse(RetryPolicy.isRetryable(new IOException("Failed to upload", serviceException(404, "NoSuchBucket"))));
+        assertFalse(RetryPolicy.isThrottled(serviceException(500, "InternalError")));
+    }
+
+    @Test
+    public void testBugsAndBadSettingsAreNotRetried() {
+        assertTrue(RetryPolicy.isRetryable(new ChannelClosedException(new IOException("Connection reset"))));
+        assertFalse(RetryPolicy.isRetryable(new NullPointerException()));
+        assertFalse(RetryPolicy.isRetryable(new IllegalStateException("closed")));
+        assertFalse(RetryPolicy.isRetryable(new Exception("checked, but no I/O")));
+        // as a compression level out of range fails
+        assertFalse(RetryPolicy.isRetryable(new IOException("Failed to compress", new IllegalArgumentException("bad compression level"))));
+    }
+
+    @Test
+    public void testDelayGrowsUpToMaximum() {
+        final RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.getDelay(1, false) <= 100);
+            assertTrue(policy.getDelay(3, false) <= 400);
+            assertTrue(policy.getDelay(3, true) <= 1000);
+            assertTrue(policy.getDelay(60, false) <= 1000);
+        }
+    }
+
+    @Test
+    public void testFatalErrorIsNotRetried() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        try {
+            new RetryPolicy(5, 0, 0).call("dest", RetryPolicy.Budget.unlimited(), failing(calls, serviceException(403, "AccessDenied")));
+            fail();
+        } catch (IOException e) {
+            assertEquals(1, calls.get());
+        }
+    }
+
+    @Test
+    public void testRetryableErrorIsRetriedUntilMaxAttempts() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        try {
+            new RetryPolicy(3, 0, 0).call("dest", RetryPolicy.Budget.unlimited(), failing(calls, new IOException("reset")));
+            fail();
+        } catch (IOException e) {
+            assertEquals(3, calls.get());
+        }
+    }
+
+    @Test
+    public void testCallsWithinACallAreNotRetriedTwice() throws Exception {
+        final RetryPolicy policy = new RetryPolicy(3, 0, 0);
+        final AtomicInteger calls = new AtomicInteger();
+        try {
+            policy.call("batch", RetryPolicy.Budget.unlimited(), new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    return policy.call("file", RetryPolicy.Budget.unlimited(), failing(calls, new IOException("reset")));
+                }
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals(3, calls.get());
+        }
+    }
+
+    @Test
+    public void testBudgetStopsRetries() throws Exception {
+        final RetryPolicy.Budget budget = new RetryPolicy.Budget(1);
+        assertTrue(budget.spend(1));
+        assertFalse(budget.spend(1));
+        assertEquals(1, budget.getSpent());
+    }
+
+    @Test
+    public void testRemainderIsChargedBack() throws Exception {
+        final RetryPolicy.Budget budget = new RetryPolicy.Budget(10);
+        assertTrue(budget.spend(4));
+
+        final RetryPolicy.Budget remainder = budget.remainder();
+        assertTrue(remainder.spend(6));
+        assertFalse(remainder.spend(1));
+        // the copy spends apart from the budget until charged
+        assertEquals(4, budget.getSpent());
+
+        budget.charge(remainder.getSpent() - 4);
+        assertEquals(10, budget.getSpent());
+        assertFalse(budget.spend(1));
+    }
+
+    private static Callable<Void> failing(final AtomicInteger calls, final Exception failure) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                calls.incrementAndGet();
+                throw failure;
+            }
+        };
+    }
+
+    private static AmazonServiceException serviceException(int status, String code) {
+        final AmazonServiceException e = new AmazonServiceException(code);
+        e.setStatusCode(status);
+        e.setErrorCode(code);
+        return e;
+    }
+}
@@ -31,11 +31,12 @@ public class S3CopyArtifactTest {
     public void testConfigParser() throws Exception {
         j.createFreeStyleProject(projectName);
         S3CopyArtifact before = new S3CopyArtifact(projectName, null, filter, excludeFilter, target, flatten, option);
+        before.setMaxConcurrentDownloads(8);
 
         S3CopyArtifact after = recreateFromConfig(before);
 
         testGetters(after, projectName, filter, excludeFilter, target, flatten, option);
-        j.assertEqualBeans(before, after, "projectName,filter,excludeFilter,target,flatten,optional");
+        j.assertEqualBeans(before, after, "projectName,filter,excludeFilter,target,flatten,optional,maxConcurrentDownloads");
     }
 
     @Test
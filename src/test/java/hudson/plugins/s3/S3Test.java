@@ -123,18 +123,25 @@ public class S3Test {
         S3Profile profile = Mockito.mock(S3Profile.class);
         Mockito.when(profile.getName()).thenReturn(profileName);
         Mockito.when(profile.isKeepStructure()).thenReturn(true);
+        Mockito.when(profile.getMultipartSettings()).thenReturn(MultipartSettings.ofMegabytes(16, 16, false));
         Mockito.when(profile.upload(
                 Mockito.any(Run.class),
                 Mockito.anyString(),
                 Mockito.anyList(),
                 Mockito.anyList(),
+                Mockito.anyList(),
                 Mockito.anyMap(),
                 Mockito.anyString(),
                 Mockito.anyString(),
                 Mockito.anyBoolean(),
                 Mockito.anyBoolean(),
                 Mockito.anyBoolean(),
-                Mockito.anyBoolean()
+                Mockito.any(Compression.class),
+                Mockito.anyInt(),
+                Mockito.any(MultipartSettings.class),
+                Mockito.anyBoolean(),
+                Mockito.anyBoolean(),
+                Mockito.anyLong()
         )).thenReturn(newArrayList(new FingerprintRecord(true, "bucket", "path", "eu-west-1", "xxxx")));
         return profile;
     }
@@ -0,0 +1,100 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ThrottlingTallyTest {
+    private final ThrottlingRequestHandler handler = new ThrottlingRequestHandler("tally-test");
+
+    @Test
+    public void testEachBuildCountsItsOwnThrottling() throws Exception {
+        try (ThrottlingTally.Scope scope = ThrottlingTally.of("job#1").enter()) {
+            sendThrottled();
+            sendThrottled();
+        }
+        try (ThrottlingTally.Scope scope = ThrottlingTally.of("job#2").enter()) {
+            sendThrottled();
+        }
+        // outside of any build
+        sendThrottled();
+
+        assertEquals(2, ThrottlingTally.collect("job#1").getStats(1).getThrottled());
+        assertEquals(1, ThrottlingTally.collect("job#2").getStats(1).getThrottled());
+    }
+
+    @Test
+    public void testCollectingStartsOver() throws Exception {
+        try (ThrottlingTally.Scope scope = ThrottlingTally.of("job#3").enter()) {
+            sendThrottled();
+        }
+        assertEquals(1, ThrottlingTally.collect("job#3").getStats(1).getThrottled());
+
+        assertNull(ThrottlingTally.collect("job#3").getStats(1).describe());
+    }
+
+    @Test
+    public void testTasksCountInTheTallyOfTheirCaller() throws Exception {
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    sendThrottled();
+                    return null;
+                }
+            });
+        }
+        try (ThrottlingTally.Scope scope = ThrottlingTally.of("job#4").enter()) {
+            ParallelTasks.invokeAll("tally test", 4, tasks);
+        }
+
+        assertEquals(8, ThrottlingTally.collect("job#4").getStats(1).getThrottled());
+    }
+
+    @Test
+    public void testScopesNest() {
+        try (ThrottlingTally.Scope outer = ThrottlingTally.of("job#5").enter()) {
+            try (ThrottlingTally.Scope inner = ThrottlingTally.of("job#6").enter()) {
+                sendThrottled();
+            }
+            sendThrottled();
+        }
+        assertNull(ThrottlingTally.current());
+
+        assertEquals(1, ThrottlingTally.collect("job#5").getStats(1).getThrottled());
+        assertEquals(1, ThrottlingTally.collect("job#6").getStats(1).getThrottled());
+    }
+
+    @Test
+    public void testUncollectedTalliesAreDropped() throws Exception {
+        try (ThrottlingTally.Scope scope = ThrottlingTally.of("failed#1").enter()) {
+            sendThrottled();
+        }
+        for (int i = 0; i < ThrottlingTally.MAX_SIZE; i++) {
+            ThrottlingTally.of("other#" + i);
+        }
+
+        assertEquals(0, ThrottlingTally.collect("failed#1").getStats(1).getThrottled());
+    }
+
+    private void sendThrottled() {
+        final DefaultRequest<PutObjectRequest> request = new DefaultRequest<>(new PutObjectRequest("bucket", "key", new File("file")), "Amazon S3");
+        final AmazonS3Exception slowDown = new AmazonS3Exception("Slow Down");
+        slowDown.setStatusCode(503);
+        slowDown.setErrorCode("SlowDown");
+        handler.beforeAttempt(HandlerBeforeAttemptContext.builder().withRequest(request).build());
+        handler.afterAttempt(HandlerAfterAttemptContext.builder().withRequest(request).withException(slowDown).build());
+    }
+}
@@ -0,0 +1,115 @@
+package hudson.plugins.s3;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TransferGovernorTest {
+    private final TransferGovernor governor = new TransferGovernor();
+    private final BlockingQueue<String> admitted = new LinkedBlockingQueue<>();
+
+    @Test
+    public void testNoLimitByDefault() throws Exception {
+        final TransferGovernor.Permit first = governor.admit("job#1", 1000);
+        final TransferGovernor.Permit second = governor.admit("job#1", 1000);
+        assertEquals(2, governor.getTransfers());
+        assertEquals(2000, governor.getBytes());
+        first.close();
+        second.close();
+        // closing twice releases once
+        second.close();
+        assertEquals(0, governor.getTransfers());
+        assertEquals(0, governor.getBuilds().size());
+    }
+
+    @Test
+    public void testBuildsTakeTurns() throws Exception {
+        governor.setLimits(1, 0);
+        final TransferGovernor.Permit running = governor.admit("a#1", 10);
+        final Thread a2 = waitFor("a#1", "a2");
+        final Thread a3 = waitFor("a#1", "a3");
+        final Thread b1 = waitFor("b#1", "b1");
+
+        final List<TransferGovernor.BuildState> builds = governor.getBuilds();
+        assertEquals(2, builds.size());
+        assertEquals(1, builds.get(0).getRunning());
+        assertEquals(2, builds.get(0).getQueued());
+        assertEquals(20, builds.get(0).getQueuedBytes());
+        assertEquals(1, builds.get(1).getQueued());
+
+        // the build which didn't have a turn yet goes first, then they alternate
+        running.close();
+        assertEquals("b1", admitted.poll(10, TimeUnit.SECONDS));
+        b1.join();
+        assertEquals("a2", admitted.poll(10, TimeUnit.SECONDS));
+        a2.join();
+        assertEquals("a3", admitted.poll(10, TimeUnit.SECONDS));
+        a3.join();
+        assertEquals(0, governor.getTransfers());
+    }
+
+    @Test
+    public void testBytesInFlightAreCapped() throws Exception {
+        governor.setLimits(0, 100);
+        final TransferGovernor.Permit first = governor.admit("a#1", 95);
+        final Thread second = waitFor("b#1", "second");
+        assertNull(admitted.poll(100, TimeUnit.MILLISECONDS));
+        first.close();
+        assertEquals("second", admitted.poll(10, TimeUnit.SECONDS));
+        second.join();
+    }
+
+    @Test
+    public void testLargeTransferIsAdmittedAlone() throws Exception {
+        governor.setLimits(0, 100);
+        governor.admit("a#1", 1000).close();
+        assertEquals(0, governor.getBytes());
+    }
+
+    @Test
+    public void testInterruptedTransferLeavesTheQueue() throws Exception {
+        governor.setLimits(1, 0);
+        final TransferGovernor.Permit running = governor.admit("a#1", 0);
+        final Thread waiting = waitFor("b#1", "waiting");
+        waiting.interrupt();
+        waiting.join();
+        assertEquals(1, governor.getBuilds().size());
+        running.close();
+        assertEquals(0, governor.getBuilds().size());
+        assertNull(admitted.poll());
+    }
+
+    // admits a transfer of 10 bytes on another thread, returns once it is queued
+    private Thread waitFor(final String build, final String name) throws InterruptedException {
+        final int queued = countQueued();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (TransferGovernor.Permit permit = governor.admit(build, 10)) {
+                    admitted.add(name);
+                } catch (InterruptedException e) {
+                    // left the queue
+                }
+            }
+        });
+        thread.start();
+        while (countQueued() == queued) {
+            Thread.sleep(10);
+        }
+        return thread;
+    }
+
+    private int countQueued() {
+        int queued = 0;
+        for (TransferGovernor.BuildState build : governor.getBuilds()) {
+            queued += build.getQueued();
+        }
+        return queued;
+    }
+}
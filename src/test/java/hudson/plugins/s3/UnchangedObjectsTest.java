@@ -0,0 +1,97 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import hudson.FilePath;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UnchangedObjectsTest {
+    private static final String CONTENT = "artifact content";
+    private static final String MD5 = DigestUtils.md5Hex(CONTENT);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMatchingETagIsUnchanged() throws Exception {
+        final UnchangedObjects.Check check = check(metadata(MD5, null, null), Compression.NONE);
+        assertTrue(check.isUnchanged());
+        assertEquals(MD5, check.getStoredMd5());
+    }
+
+    @Test
+    public void testDifferentETagIsChanged() throws Exception {
+        assertFalse(check(metadata(DigestUtils.md5Hex("other"), null, null), Compression.NONE).isUnchanged());
+    }
+
+    @Test
+    public void testCompressedObjectIsComparedWithSourceMd5() throws Exception {
+        final String compressedMd5 = DigestUtils.md5Hex("compressed");
+        final UnchangedObjects.Check check = check(metadata(compressedMd5, "gzip", MD5), Compression.GZIP);
+        assertTrue(check.isUnchanged());
+        assertEquals(compressedMd5, check.getStoredMd5());
+
+        assertFalse(check(metadata(compressedMd5, "gzip", MD5), Compression.NONE).isUnchanged());
+        assertFalse(check(metadata(compressedMd5, "zstd", MD5), Compression.GZIP).isUnchanged());
+    }
+
+    @Test
+    public void testMultipartObjectIsComparedWithSourceMd5() throws Exception {
+        final UnchangedObjects.Check check = check(metadata(MD5 + "-3", null, MD5), Compression.NONE);
+        assertTrue(check.isUnchanged());
+        assertEquals(MD5, check.getStoredMd5());
+    }
+
+    @Test
+    public void testMissingObjectIsChanged() throws Exception {
+        final AmazonS3Exception notFound = new AmazonS3Exception("Not Found");
+        notFound.setStatusCode(404);
+        final AmazonS3 client = Mockito.mock(AmazonS3.class);
+        Mockito.when(client.getObjectMetadata(Mockito.anyString(), Mockito.anyString())).thenThrow(notFound);
+
+        final UnchangedObjects.Check check = check(client, Compression.NONE);
+        assertFalse(check.isUnchanged());
+        assertEquals(MD5, check.getSourceMd5());
+    }
+
+    private UnchangedObjects.Check check(ObjectMetadata metadata, Compression compression) throws Exception {
+        final AmazonS3 client = Mockito.mock(AmazonS3.class);
+        Mockito.when(client.getObjectMetadata("bucket", "latest/file.txt")).thenReturn(metadata);
+        return check(client, compression);
+    }
+
+    private UnchangedObjects.Check check(AmazonS3 client, Compression compression) throws Exception {
+        final File file = folder.newFile();
+        FileUtils.writeStringToFile(file, CONTENT, "UTF-8");
+        final List<String> md5s = UnchangedObjects.digest(Collections.singletonList(new FilePath(file)));
+        final List<UnchangedObjects.Check> checks = UnchangedObjects.check(client, md5s,
+                Collections.singletonList(new Destination("bucket/latest", "file.txt")), compression);
+        return checks.get(0);
+    }
+
+    private ObjectMetadata metadata(String etag, String contentEncoding, String sourceMd5) {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setHeader("ETag", etag);
+        if (contentEncoding != null) {
+            metadata.setContentEncoding(contentEncoding);
+        }
+        if (sourceMd5 != null) {
+            metadata.addUserMetadata(UnchangedObjects.SOURCE_MD5, sourceMd5);
+        }
+        return metadata;
+    }
+}
@@ -0,0 +1,97 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UploadJournalTest {
+    private static final String OWNER = "job#1";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResumesRecordedParts() throws IOException {
+        final File dir = folder.newFolder();
+        final UploadJournal journal = UploadJournal.open(dir, OWNER, "bucket", "path/with spaces.zip");
+        assertNull(journal.getUploadId());
+
+        journal.start("upload-id", 1024);
+        journal.record(1, 1024, "md5-1", "etag-1");
+        journal.record(2, 1024, "md5-2", "etag-2");
+
+        final UploadJournal resumed = UploadJournal.open(dir, OWNER, "bucket", "path/with spaces.zip");
+        assertEquals("upload-id", resumed.getUploadId());
+        assertEquals(1024, resumed.getPartSize());
+        assertEquals("etag-1", resumed.getETag(1, 1024, "md5-1"));
+        assertNull(resumed.getETag(2, 1024, "changed"));
+        assertNull(resumed.getETag(2, 512, "md5-2"));
+        assertNull(resumed.getETag(3, 1024, "md5-3"));
+    }
+
+    @Test
+    public void testIgnoresTruncatedLine() throws IOException {
+        final File dir = folder.newFolder();
+        UploadJournal.open(dir, OWNER, "bucket", "object").start("upload-id", 1024);
+        try (FileWriter writer = new FileWriter(dir.listFiles()[0], true)) {
+            writer.write("part 1 10");
+        }
+
+        final UploadJournal resumed = UploadJournal.open(dir, OWNER, "bucket", "object");
+        assertEquals("upload-id", resumed.getUploadId());
+        assertNull(resumed.getETag(1, 10, "md5"));
+    }
+
+    @Test
+    public void testStartAndDeleteForgetParts() throws IOException {
+        final File dir = folder.newFolder();
+        final UploadJournal journal = UploadJournal.open(dir, OWNER, "bucket", "object");
+        journal.start("first", 1024);
+        journal.record(1, 1024, "md5", "etag");
+        journal.start("second", 2048);
+        assertNull(UploadJournal.open(dir, OWNER, "bucket", "object").getETag(1, 1024, "md5"));
+
+        journal.delete();
+        assertNull(UploadJournal.open(dir, OWNER, "bucket", "object").getUploadId());
+        assertNull(UploadJournal.open(dir, OWNER, "bucket", "other").getUploadId());
+    }
+
+    @Test
+    public void testOnlyTheOwnerResumes() throws IOException {
+        final File dir = folder.newFolder();
+        UploadJournal.open(dir, OWNER, "bucket", "object").start("upload-id", 1024);
+
+        assertNull(UploadJournal.open(dir, "job#2", "bucket", "object").getUploadId());
+        assertEquals("upload-id", UploadJournal.open(dir, OWNER, "bucket", "object").getUploadId());
+    }
+
+    @Test
+    public void testExpireAbortsStaleUploads() throws IOException {
+        final File dir = folder.newFolder();
+        final FakeS3Client client = new FakeS3Client();
+        final String stale = client.initiateMultipartUpload(new InitiateMultipartUploadRequest("bucket", "stale")).getUploadId();
+        final String fresh = client.initiateMultipartUpload(new InitiateMultipartUploadRequest("bucket", "fresh")).getUploadId();
+        UploadJournal.open(dir, "job#1", "bucket", "stale").start(stale, 1024);
+        // already aborted by a lifecycle rule
+        UploadJournal.open(dir, "job#2", "bucket", "gone").start("gone", 1024);
+        for (File file : dir.listFiles()) {
+            assertTrue(file.setLastModified(System.currentTimeMillis() - UploadJournal.EXPIRY - 1000));
+        }
+        UploadJournal.open(dir, "job#3", "bucket", "fresh").start(fresh, 1024);
+
+        UploadJournal.expire(client, dir);
+
+        assertEquals(1, client.getUploadsInProgress());
+        assertEquals(1, dir.listFiles().length);
+        assertEquals(fresh, UploadJournal.open(dir, "job#3", "bucket", "fresh").getUploadId());
+    }
+}
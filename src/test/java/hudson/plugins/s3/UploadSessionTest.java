@@ -0,0 +1,256 @@
+package hudson.plugins.s3;
+
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UploadSessionTest {
+    private static final String BUCKET = "bucket";
+    private static final MultipartSettings SETTINGS = new MultipartSettings(MultipartSettings.MIN_PART_SIZE, MultipartSettings.MIN_PART_SIZE, false);
+    private static final MultipartSettings RESUMABLE = new MultipartSettings(MultipartSettings.MIN_PART_SIZE, MultipartSettings.MIN_PART_SIZE, false, true);
+    private static final int PARTS = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FakeS3Client client = new FakeS3Client();
+
+    @Test
+    public void testSmallContentIsSentInOneRequest() throws Exception {
+        final byte[] content = randomBytes(1000);
+        try (UploadSession session = new UploadSession()) {
+            upload(session, "small", content);
+        }
+
+        assertArrayEquals(content, client.getContent(BUCKET, "small"));
+        assertEquals(1, client.getPuts());
+        assertEquals(0, client.getSentParts());
+    }
+
+    @Test
+    public void testReadLimitIsSetForEachRequest() throws Exception {
+        try (UploadSession session = new UploadSession()) {
+            upload(session, "tiny", randomBytes(10));
+            assertEquals(11, client.getLastReadLimit());
+            upload(session, "larger", randomBytes(1000));
+            assertEquals(1001, client.getLastReadLimit());
+            upload(session, "tiny again", randomBytes(10));
+            assertEquals(11, client.getLastReadLimit());
+        }
+    }
+
+    @Test
+    public void testLargeContentIsSentInParts() throws Exception {
+        final byte[] content = randomBytes((int) (2 * MultipartSettings.MIN_PART_SIZE + 1000));
+        try (UploadSession session = new UploadSession()) {
+            upload(session, "large", content);
+        }
+
+        assertArrayEquals(content, client.getContent(BUCKET, "large"));
+        assertEquals(3, client.getSentParts());
+        assertEquals(0, client.getUploadsInProgress());
+    }
+
+    @Test
+    public void testClosingAbortsUnfinishedUploads() throws Exception {
+        final UploadSession session = new UploadSession();
+        final MultipartOutputStream stream = session.openMultipartStream(client, BUCKET, "unfinished", new ObjectMetadata(), -1, SETTINGS);
+        stream.write(randomBytes((int) MultipartSettings.MIN_PART_SIZE + 1));
+        assertEquals(1, client.getUploadsInProgress());
+
+        session.close();
+
+        assertEquals(0, client.getUploadsInProgress());
+        assertFalse(client.hasObject(BUCKET, "unfinished"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNothingIsUploadedOnceClosed() throws Exception {
+        final UploadSession session = new UploadSession();
+        session.close();
+        upload(session, "late", randomBytes(10));
+    }
+
+    @Test
+    public void testUploadsFromSeveralThreads() throws Exception {
+        final List<byte[]> contents = new ArrayList<>();
+        final List<Callable<Void>> uploads = new ArrayList<>();
+        try (final UploadSession session = new UploadSession()) {
+            for (int i = 0; i < 8; i++) {
+                // every other one in parts
+                final byte[] content = randomBytes(i % 2 == 0 ? 1000 : (int) MultipartSettings.MIN_PART_SIZE + 1000);
+                final String objectName = "object" + i;
+                contents.add(content);
+                uploads.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        upload(session, objectName, content);
+                        return null;
+                    }
+                });
+            }
+            ParallelTasks.invokeAll("test uploads", 8, uploads);
+        }
+
+        for (int i = 0; i < contents.size(); i++) {
+            assertArrayEquals(contents.get(i), client.getContent(BUCKET, "object" + i));
+        }
+        assertEquals(0, client.getUploadsInProgress());
+    }
+
+    @Test
+    public void testRetryResumesThePartsAlreadySent() throws Exception {
+        final File journals = folder.newFolder();
+        final byte[] content = randomBytes(PARTS * (int) MultipartSettings.MIN_PART_SIZE);
+        try (UploadSession session = new UploadSession(journals, "job#1")) {
+            client.failPart(3);
+            try {
+                upload(session, "resumed", content, RESUMABLE);
+                fail("the failed part should fail the upload");
+            } catch (IOException e) {
+                // expected
+            }
+            // kept for the retry, with the journal of the parts sent
+            assertEquals(1, client.getUploadsInProgress());
+            assertEquals(1, journals.listFiles().length);
+            // parts in flight when the upload failed may still be recorded and sent again, not those recorded by now
+            final List<Integer> recorded = new ArrayList<>();
+            for (String line : Files.readAllLines(journals.listFiles()[0].toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("part ")) {
+                    recorded.add(Integer.valueOf(line.split(" ")[1]));
+                }
+            }
+
+            client.stopFailing();
+            upload(session, "resumed", content, RESUMABLE);
+
+            for (int part : recorded) {
+                assertEquals(1, client.getSentParts(part));
+            }
+        }
+
+        assertArrayEquals(content, client.getContent(BUCKET, "resumed"));
+        assertEquals(0, client.getUploadsInProgress());
+        assertEquals(0, journals.listFiles().length);
+    }
+
+    @Test
+    public void testClosingKeepsUploadsForTheNextAttempt() throws Exception {
+        final File journals = folder.newFolder();
+        final byte[] content = randomBytes(PARTS * (int) MultipartSettings.MIN_PART_SIZE);
+        final UploadSession session = new UploadSession(journals, "job#1");
+        client.failPart(2);
+        try {
+            upload(session, "cut off", content, RESUMABLE);
+            fail("the failed part should fail the upload");
+        } catch (IOException e) {
+            // expected
+        }
+
+        session.close();
+
+        assertEquals(1, client.getUploadsInProgress());
+        assertEquals(1, journals.listFiles().length);
+
+        // the step tried again
+        client.stopFailing();
+        try (UploadSession retry = new UploadSession(journals, "job#1")) {
+            upload(retry, "cut off", content, RESUMABLE);
+        }
+        assertArrayEquals(content, client.getContent(BUCKET, "cut off"));
+        assertEquals(0, client.getUploadsInProgress());
+        assertEquals(0, journals.listFiles().length);
+    }
+
+    @Test
+    public void testRefusedUploadIsDropped() throws Exception {
+        final File journals = folder.newFolder();
+        try (UploadSession session = new UploadSession(journals, "job#1")) {
+            client.denyPart(2);
+            try {
+                upload(session, "denied", randomBytes(PARTS * (int) MultipartSettings.MIN_PART_SIZE), RESUMABLE);
+                fail("the denied part should fail the upload");
+            } catch (IOException e) {
+                // expected
+            }
+
+            // no attempt would get further
+            assertEquals(0, client.getUploadsInProgress());
+            assertEquals(0, journals.listFiles().length);
+        }
+    }
+
+    @Test
+    public void testOtherBuildsDontResume() throws Exception {
+        final File journals = folder.newFolder();
+        final byte[] content = randomBytes(PARTS * (int) MultipartSettings.MIN_PART_SIZE);
+        final UploadSession failed = new UploadSession(journals, "job#1");
+        client.failPart(3);
+        try {
+            upload(failed, "shared", content, RESUMABLE);
+            fail("the failed part should fail the upload");
+        } catch (IOException e) {
+            // expected
+        }
+        client.stopFailing();
+
+        try (UploadSession other = new UploadSession(journals, "job#2")) {
+            upload(other, "shared", content, RESUMABLE);
+        }
+
+        assertArrayEquals(content, client.getContent(BUCKET, "shared"));
+        // the upload of the first build is still there until it expires
+        failed.close();
+        assertEquals(1, client.getUploadsInProgress());
+    }
+
+    @Test
+    public void testStaleUploadsAreAborted() throws Exception {
+        final File journals = folder.newFolder();
+        // left by a build which died without closing its session
+        final String uploadId = client.initiateMultipartUpload(new InitiateMultipartUploadRequest(BUCKET, "left")).getUploadId();
+        UploadJournal.open(journals, "job#1", BUCKET, "left").start(uploadId, (int) MultipartSettings.MIN_PART_SIZE);
+        for (File journal : journals.listFiles()) {
+            assertTrue(journal.setLastModified(System.currentTimeMillis() - UploadJournal.EXPIRY - 1000));
+        }
+
+        try (UploadSession later = new UploadSession(journals, "job#2")) {
+            upload(later, "other", randomBytes(PARTS * (int) MultipartSettings.MIN_PART_SIZE), RESUMABLE);
+        }
+
+        assertEquals(0, client.getUploadsInProgress());
+        assertEquals(0, journals.listFiles().length);
+    }
+
+    private void upload(UploadSession session, String objectName, byte[] content) throws IOException {
+        upload(session, objectName, content, SETTINGS);
+    }
+
+    private void upload(UploadSession session, String objectName, byte[] content, MultipartSettings settings) throws IOException {
+        session.upload(client, new ByteArrayInputStream(content), content.length, BUCKET, objectName, new ObjectMetadata(), settings);
+    }
+
+    private static byte[] randomBytes(int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
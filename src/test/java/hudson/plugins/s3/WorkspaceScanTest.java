@@ -0,0 +1,73 @@
+package hudson.plugins.s3;
+
+import hudson.FilePath;
+import hudson.plugins.s3.callable.S3ScanCallable;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WorkspaceScanTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testMatchesLikeList() throws Exception {
+        final File ws = tmp.getRoot();
+        for (String name : Arrays.asList("a.txt", "b.log", "dir/c.txt", "dir/sub/d.txt", "dir/sub/e.log",
+                "other/f.txt", ".git/config", "target/g.jar", "target/classes/h.class")) {
+            FileUtils.writeStringToFile(new File(ws, name), name, StandardCharsets.UTF_8);
+        }
+
+        final List<String> includes = Arrays.asList("**/*.txt", " dir/", "target/*.jar", "*.log", "missing/**", "**");
+        final List<String> excludes = Arrays.asList("other/**", null, null, "", null, "**/*.class, dir/sub/**");
+        final List<List<WorkspaceFile>> found = new FilePath(ws).act(new S3ScanCallable(includes, excludes));
+
+        assertEquals(includes.size(), found.size());
+        for (int i = 0; i < includes.size(); i++) {
+            final List<String> expected = new ArrayList<>();
+            for (FilePath file : new FilePath(ws).list(includes.get(i).trim(), excludes.get(i))) {
+                expected.add(file.getRemote());
+            }
+            final List<String> actual = new ArrayList<>();
+            for (WorkspaceFile file : found.get(i)) {
+                actual.add(new FilePath(ws).child(file.getPath()).getRemote());
+            }
+            Collections.sort(expected);
+            Collections.sort(actual);
+            assertEquals(includes.get(i), expected, actual);
+        }
+    }
+
+    @Test
+    public void testFilesAreLookedUp() throws Exception {
+        final File file = new File(tmp.getRoot(), "dir/a.txt");
+        FileUtils.writeStringToFile(file, "hello", StandardCharsets.UTF_8);
+        assertTrue(file.setLastModified(1500000000000L));
+
+        final List<List<WorkspaceFile>> found = new FilePath(tmp.getRoot()).act(
+                new S3ScanCallable(Collections.singletonList("dir/*.txt"), Collections.<String>singletonList(null)));
+        final WorkspaceFile scanned = found.get(0).get(0);
+        assertEquals("dir" + File.separator + "a.txt", scanned.getPath());
+        assertEquals(5, scanned.getLength());
+        assertEquals(1500000000000L, scanned.getLastModified());
+    }
+
+    @Test
+    public void testMissingWorkspace() throws Exception {
+        final List<List<WorkspaceFile>> found = new FilePath(new File(tmp.getRoot(), "gone")).act(
+                new S3ScanCallable(Collections.singletonList("**"), Collections.<String>singletonList(null)));
+        assertEquals(1, found.size());
+        assertTrue(found.get(0).isEmpty());
+    }
+}
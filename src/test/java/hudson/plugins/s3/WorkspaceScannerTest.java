@@ -0,0 +1,143 @@
+package hudson.plugins.s3;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tools.ant.DirectoryScanner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WorkspaceScannerTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final List<String> PATTERNS = Arrays.asList(
+            "**", "**/*.txt", "*.txt", "a/", "a/*", "a/**/*.log", "**/b/**", "c/b/*.txt", "a/b/c/d.txt", "**/.git/**",
+            "missing/**", "a\\b\\**", "**/*.TXT");
+    private static final List<String> EXCLUDES = Arrays.asList(
+            null, "", "**/node_modules/**", "a/b/**", "**/*.log", "a/b", "**/c/**, **/*.txt", "node_modules/");
+
+    @Test
+    public void testMatchesDirectoryScanner() throws Exception {
+        final File root = tmp.getRoot();
+        final Random random = new Random(42);
+        final String[] dirs = {"a", "b", "c", "node_modules", ".git", "d e"};
+        final String[] files = {"x.txt", "y.log", "Z.TXT", "w", ".DS_Store", "v.txt~"};
+        for (int i = 0; i < 300; i++) {
+            final StringBuilder path = new StringBuilder();
+            for (int depth = random.nextInt(5); depth > 0; depth--) {
+                path.append(dirs[random.nextInt(dirs.length)]).append('/');
+            }
+            path.append(files[random.nextInt(files.length)]);
+            FileUtils.writeStringToFile(new File(root, path.toString()), path.toString(), StandardCharsets.UTF_8);
+        }
+
+        for (String exclude : EXCLUDES) {
+            final List<String> excludes = Collections.nCopies(PATTERNS.size(), exclude);
+            final List<List<WorkspaceFile>> found = new WorkspaceScanner(PATTERNS, excludes).scan(root);
+            for (int i = 0; i < PATTERNS.size(); i++) {
+                assertEquals(PATTERNS.get(i) + " excluding " + exclude, scan(root, PATTERNS.get(i), exclude), paths(found.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testExcludedTreesAreNotWalked() throws Exception {
+        final File root = tmp.getRoot();
+        for (int i = 0; i < 20; i++) {
+            FileUtils.writeStringToFile(new File(root, "node_modules/m" + i + "/index.js"), "", StandardCharsets.UTF_8);
+        }
+        FileUtils.writeStringToFile(new File(root, ".git/objects/ab/cdef"), "", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(root, "src/main.js"), "", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(root, "dist/app/main.js"), "", StandardCharsets.UTF_8);
+
+        final WorkspaceScanner scanner = new WorkspaceScanner(Arrays.asList("**/*.js", "dist/*/*.js"),
+                Arrays.asList("**/node_modules/**", null));
+        final List<List<WorkspaceFile>> found = scanner.scan(root);
+        assertEquals(Arrays.asList(path("dist/app/main.js"), path("src/main.js")), paths(found.get(0)));
+        assertEquals(Collections.singletonList(path("dist/app/main.js")), paths(found.get(1)));
+        // the root, src, dist and dist/app
+        assertEquals(4, scanner.getVisitedDirectories());
+    }
+
+    @Test
+    public void testLinkLoopsAreNotFollowed() throws Exception {
+        final File root = tmp.getRoot();
+        FileUtils.writeStringToFile(new File(root, "a/b/x.txt"), "", StandardCharsets.UTF_8);
+        try {
+            Files.createSymbolicLink(new File(root, "a/b/up").toPath(), new File(root, "a").toPath());
+            Files.createSymbolicLink(new File(root, "linked").toPath(), new File(root, "a/b").toPath());
+        } catch (UnsupportedOperationException | java.io.IOException e) {
+            return;
+        }
+        final List<List<WorkspaceFile>> found = new WorkspaceScanner(Collections.singletonList("**/*.txt"),
+                Collections.<String>singletonList(null)).scan(root);
+        assertEquals(Arrays.asList(path("a/b/x.txt"), path("linked/x.txt")), paths(found.get(0)));
+    }
+
+    @Test
+    public void testFilesAreLookedUp() throws Exception {
+        final File file = new File(tmp.getRoot(), "dir/a.txt");
+        FileUtils.writeStringToFile(file, "hello", StandardCharsets.UTF_8);
+        assertTrue(file.setLastModified(1500000000000L));
+
+        final WorkspaceFile found = new WorkspaceScanner(Collections.singletonList("dir/*.txt"),
+                Collections.<String>singletonList(null)).scan(tmp.getRoot()).get(0).get(0);
+        assertEquals(path("dir/a.txt"), found.getPath());
+        assertEquals(5, found.getLength());
+        assertEquals(1500000000000L, found.getLastModified());
+    }
+
+    @Test
+    public void testMissingDirectory() throws Exception {
+        final List<List<WorkspaceFile>> found = new WorkspaceScanner(Collections.singletonList("**"),
+                Collections.<String>singletonList(null)).scan(new File(tmp.getRoot(), "gone"));
+        assertEquals(1, found.size());
+        assertTrue(found.get(0).isEmpty());
+    }
+
+    // what FilePath.list finds
+    private static List<String> scan(File root, String include, String exclude) {
+        final DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(root);
+        scanner.setIncludes(new String[] {include});
+        if (exclude != null) {
+            final List<String> excludes = new ArrayList<>();
+            for (String pattern : exclude.split(",")) {
+                if (!pattern.trim().isEmpty()) {
+                    excludes.add(pattern.trim());
+                }
+            }
+            scanner.setExcludes(excludes.toArray(new String[0]));
+        }
+        scanner.addDefaultExcludes();
+        scanner.scan();
+        final List<String> files = new ArrayList<>(Arrays.asList(scanner.getIncludedFiles()));
+        Collections.sort(files);
+        return files;
+    }
+
+    private static List<String> paths(List<WorkspaceFile> files) {
+        final List<String> paths = new ArrayList<>();
+        for (WorkspaceFile file : files) {
+            paths.add(file.getPath());
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private static String path(String path) {
+        return path.replace('/', File.separatorChar);
+    }
+}
@@ -0,0 +1,167 @@
+package hudson.plugins.s3.callable;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import hudson.plugins.s3.Compression;
+import hudson.plugins.s3.Destination;
+import hudson.plugins.s3.FakeS3Client;
+import hudson.plugins.s3.FingerprintRecord;
+import hudson.plugins.s3.MultipartSettings;
+import hudson.plugins.s3.PackLocation;
+import hudson.plugins.s3.RetryPolicy;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class S3BatchUploadCallableTest {
+    private static final String BUCKET = "bucket";
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+    private static final List<String> CONTENTS = Arrays.asList("first file", "second file", "third file");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final FakeS3Client client = new FakeS3Client();
+
+    @Test
+    public void testUploadsEveryFileInOrder() throws Exception {
+        final List<FingerprintRecord> records = batch(null, null).upload(client).getRecords();
+
+        assertEquals(CONTENTS.size(), records.size());
+        for (int i = 0; i < CONTENTS.size(); i++) {
+            assertEquals("file" + i + ".txt", records.get(i).getName());
+            assertEquals(DigestUtils.md5Hex(CONTENTS.get(i)), records.get(i).getFingerprint());
+            assertArrayEquals(CONTENTS.get(i).getBytes(StandardCharsets.UTF_8), client.getContent(BUCKET, "dest/file" + i + ".txt"));
+        }
+        assertEquals(CONTENTS.size(), client.getPuts());
+    }
+
+    @Test
+    public void testSkipsFilesAlreadyStored() throws Exception {
+        client.store(BUCKET, "dest/file1.txt", CONTENTS.get(1).getBytes(StandardCharsets.UTF_8), new ObjectMetadata());
+        final List<String> md5s = new ArrayList<>();
+        for (String content : CONTENTS) {
+            md5s.add(DigestUtils.md5Hex(content));
+        }
+
+        final List<FingerprintRecord> records = batch(md5s, null).upload(client).getRecords();
+
+        assertEquals(CONTENTS.size() - 1, client.getPuts());
+        for (int i = 0; i < CONTENTS.size(); i++) {
+            assertEquals(md5s.get(i), records.get(i).getFingerprint());
+        }
+    }
+
+    @Test
+    public void testPacksSmallFiles() throws Exception {
+        final List<FingerprintRecord> records = batch(null, new Destination(BUCKET, "dest/.s3-packs")).upload(client).getRecords();
+
+        assertEquals(0, client.getSentParts());
+        for (int i = 0; i < CONTENTS.size(); i++) {
+            final PackLocation location = records.get(i).getArtifact().getPackLocation();
+            assertNotNull(location);
+            assertEquals(DigestUtils.md5Hex(CONTENTS.get(i)), records.get(i).getFingerprint());
+
+            final byte[] pack = client.getContent(BUCKET, "dest/" + location.getPack());
+            final byte[] content = Arrays.copyOfRange(pack, (int) location.getOffset(), (int) (location.getLastByte() + 1));
+            assertArrayEquals(CONTENTS.get(i).getBytes(StandardCharsets.UTF_8), content);
+        }
+        assertTrue(client.hasObject(BUCKET, "dest/" + records.get(0).getArtifact().getPackLocation().getPack().replace(".pack", ".index")));
+    }
+
+    @Test
+    public void testBatchCutOffIsResumedByTheNextOne() throws Exception {
+        final byte[] content = new byte[4 * PART_SIZE];
+        new Random(42).nextBytes(content);
+        final File file = tmp.newFile("large.bin");
+        FileUtils.writeByteArrayToFile(file, content);
+        final File journals = tmp.newFolder();
+
+        // cut off once every part is sent
+        client.failCompleting("dest/large.bin");
+        try {
+            resumableBatch(file, journals).upload(client);
+            fail("the failed completion should fail the batch");
+        } catch (IOException e) {
+            // expected
+        }
+        // what was sent is kept for the batch the master sends again
+        assertEquals(1, client.getUploadsInProgress());
+        assertEquals(1, journals.listFiles().length);
+        assertEquals(4, client.getSentParts());
+
+        client.stopFailing();
+        final List<FingerprintRecord> records = resumableBatch(file, journals).upload(client).getRecords();
+
+        assertEquals(DigestUtils.md5Hex(content), records.get(0).getFingerprint());
+        assertArrayEquals(content, client.getContent(BUCKET, "dest/large.bin"));
+        assertEquals(4, client.getSentParts());
+        assertEquals(0, client.getUploadsInProgress());
+        assertEquals(0, journals.listFiles().length);
+    }
+
+    @Test
+    public void testFailureTellsTheTimeRetriesWaited() throws Exception {
+        final S3BatchUploadCallable batch = batch(null, null, new RetryPolicy(3, 20, 20));
+        final RetryPolicy.Budget budget = new RetryPolicy.Budget(60000);
+        batch.setRetryBudget(budget);
+        client.failOn("dest/file1.txt");
+        try {
+            batch.upload(client);
+            fail("the failing file should fail the batch");
+        } catch (S3BatchUploadCallable.Failure e) {
+            assertEquals(budget.getSpent(), e.getRetrySpent());
+        }
+
+        client.stopFailing();
+        final long spentBefore = budget.getSpent();
+        final S3BatchUploadCallable.Result result = batch.upload(client);
+        assertEquals(CONTENTS.size(), result.getRecords().size());
+        assertEquals(budget.getSpent() - spentBefore, result.getRetrySpent());
+    }
+
+    private S3BatchUploadCallable resumableBatch(File file, File journals) {
+        return new S3BatchUploadCallable(null, null, false, "us-east-1", null, null,
+                BUCKET, Collections.singletonList(file.getAbsolutePath()), Collections.singletonList(file.getName()),
+                Collections.singletonList(new Destination(BUCKET, "dest/" + file.getName())), Collections.<String, String>emptyMap(), null, false,
+                Compression.NONE, 0, new MultipartSettings(PART_SIZE, PART_SIZE, false, true), null, null,
+                null, 0, false, 0, 1, 1, new RetryPolicy(1, 0, 0), journals.getPath(), "job#1");
+    }
+
+    private S3BatchUploadCallable batch(List<String> sourceMd5s, Destination packDir) throws Exception {
+        return batch(sourceMd5s, packDir, new RetryPolicy(1, 0, 0));
+    }
+
+    private S3BatchUploadCallable batch(List<String> sourceMd5s, Destination packDir, RetryPolicy retryPolicy) throws Exception {
+        final List<String> paths = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        final List<Destination> dests = new ArrayList<>();
+        for (int i = 0; i < CONTENTS.size(); i++) {
+            final File file = tmp.newFile("file" + i + ".txt");
+            FileUtils.writeStringToFile(file, CONTENTS.get(i), StandardCharsets.UTF_8);
+            paths.add(file.getAbsolutePath());
+            names.add(file.getName());
+            dests.add(new Destination(BUCKET, "dest/" + file.getName()));
+        }
+        return new S3BatchUploadCallable(null, null, false, "us-east-1", null, null,
+                BUCKET, paths, names, dests, Collections.<String, String>emptyMap(), null, false,
+                Compression.NONE, 0, new MultipartSettings(16 * 1024 * 1024, 5 * 1024 * 1024, false), sourceMd5s, null,
+                packDir, packDir == null ? 0 : 1024, false, 0, 2, 1, retryPolicy, null, null);
+    }
+}
@@ -0,0 +1,190 @@
+package hudson.plugins.s3.callable;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import hudson.FilePath;
+import hudson.plugins.s3.Destination;
+import hudson.plugins.s3.FakeS3Client;
+import hudson.plugins.s3.MultipartSettings;
+import hudson.plugins.s3.PackLocation;
+import hudson.plugins.s3.PackUpload;
+import hudson.plugins.s3.ParallelTasks;
+import hudson.plugins.s3.UploadSession;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class S3DownloadCallableTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final FakeS3Client client = new FakeS3Client();
+
+    @Test
+    public void testDigestIsComputedWhileDownloading() throws Exception {
+        final byte[] content = randomBytes(3 * 1024 * 1024 + 17);
+        client.store("bucket", "artifact", content, new ObjectMetadata());
+
+        final File file = new File(tmp.getRoot(), "downloaded/artifact");
+        final String md5 = download("artifact", null, file);
+
+        assertEquals(DigestUtils.md5Hex(content), md5);
+        assertArrayEquals(content, FileUtils.readFileToByteArray(file));
+    }
+
+    @Test
+    public void testPackedFileIsDownloadedFromItsRange() throws Exception {
+        final byte[] pack = randomBytes(1000);
+        client.store("bucket", ".s3-packs/p-0.pack", pack, new ObjectMetadata());
+
+        final File file = tmp.newFile();
+        final String md5 = download(".s3-packs/p-0.pack", new PackLocation(".s3-packs/p-0.pack", 100, 50), file);
+
+        final byte[] expected = Arrays.copyOfRange(pack, 100, 150);
+        assertEquals(DigestUtils.md5Hex(expected), md5);
+        assertArrayEquals(expected, FileUtils.readFileToByteArray(file));
+    }
+
+    @Test
+    public void testEveryFileOfAPackIsReadBack() throws Exception {
+        final List<byte[]> contents = Arrays.asList(randomBytes(100), new byte[0], randomBytes(1), randomBytes(3000), new byte[0]);
+        final List<FilePath> files = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < contents.size(); i++) {
+            final File file = tmp.newFile("file" + i);
+            FileUtils.writeByteArrayToFile(file, contents.get(i));
+            files.add(new FilePath(file));
+            names.add(file.getName());
+        }
+        final List<PackUpload.PackedFile> packed;
+        try (UploadSession session = new UploadSession()) {
+            packed = new PackUpload(session, client, new Destination("bucket", PackUpload.PACK_DIR),
+                    new MultipartSettings(16 * 1024 * 1024, 5 * 1024 * 1024, false),
+                    null, false, Collections.<String, String>emptyMap()).upload(files, names);
+        }
+
+        for (int i = 0; i < contents.size(); i++) {
+            final PackLocation location = packed.get(i).getLocation();
+            final File file = new File(tmp.getRoot(), "downloaded/file" + i);
+            final String md5 = download(location.getPack(), location, file);
+
+            assertArrayEquals(contents.get(i), FileUtils.readFileToByteArray(file));
+            assertEquals(DigestUtils.md5Hex(contents.get(i)), md5);
+            assertEquals(md5, packed.get(i).getMd5());
+        }
+    }
+
+    @Test
+    public void testLegacyGzipArtifactIsDecoded() throws Exception {
+        // what earlier versions uploaded with "GZIP files": the gzipped file, recorded with its MD5
+        final byte[] content = "some text artifact\n".getBytes(StandardCharsets.UTF_8);
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(gzipped, true)) {
+            out.write(content);
+        }
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType("text/plain");
+        metadata.setContentEncoding("gzip");
+        client.store("bucket", "artifact.txt", gzipped.toByteArray(), metadata);
+
+        final File file = tmp.newFile();
+        final String md5 = download("artifact.txt", null, file);
+
+        // the file used to be copied as stored, it's now the original content
+        assertArrayEquals(content, FileUtils.readFileToByteArray(file));
+        // while the fingerprint is still the one recorded at upload
+        assertEquals(DigestUtils.md5Hex(gzipped.toByteArray()), md5);
+    }
+
+    @Test
+    public void testParallelDownloadsKeepTheOrderOfTheArtifacts() throws Exception {
+        final List<byte[]> contents = new ArrayList<>();
+        final List<Callable<String>> downloads = new ArrayList<>();
+        final List<String> targets = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            // later artifacts are smaller, and finish first
+            contents.add(randomBytes((12 - i) * 100 * 1024));
+            client.store("bucket", "artifact" + i, contents.get(i), new ObjectMetadata());
+            // the last two are flattened to the same file
+            final File file = new File(tmp.getRoot(), "downloaded/" + (i == 11 ? "artifact10" : "artifact" + i));
+            downloads.add(downloadTask("artifact" + i, file));
+            targets.add(file.getPath());
+        }
+
+        final List<String> md5s = ParallelTasks.invokeAllByKey("test", 4, targets, downloads);
+
+        assertEquals(contents.size(), md5s.size());
+        for (int i = 0; i < contents.size(); i++) {
+            assertEquals(DigestUtils.md5Hex(contents.get(i)), md5s.get(i));
+        }
+        // the file written last is the last artifact flattened to it
+        assertArrayEquals(contents.get(11), FileUtils.readFileToByteArray(new File(tmp.getRoot(), "downloaded/artifact10")));
+    }
+
+    @Test
+    public void testFailedDownloadFailsTheOthers() throws Exception {
+        final List<Callable<String>> downloads = new ArrayList<>();
+        final List<String> targets = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            client.store("bucket", "artifact" + i, randomBytes(1000 + i), new ObjectMetadata());
+            final File file = new File(tmp.getRoot(), "downloaded/artifact" + i);
+            downloads.add(downloadTask("artifact" + i, file));
+            targets.add(file.getPath());
+        }
+        client.failOn("artifact5");
+
+        for (int threads : new int[]{1, 4}) {
+            try {
+                ParallelTasks.invokeAllByKey("test", threads, targets, downloads);
+                fail("the failed artifact should fail the downloads");
+            } catch (AmazonS3Exception e) {
+                assertEquals(500, e.getStatusCode());
+            }
+            if (threads == 1) {
+                // one at a time, the downloads stop at the failed artifact
+                assertTrue(new File(tmp.getRoot(), "downloaded/artifact4").exists());
+                assertFalse(new File(tmp.getRoot(), "downloaded/artifact6").exists());
+            }
+        }
+    }
+
+    private Callable<String> downloadTask(final String objectName, final File file) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return download(objectName, null, file);
+            }
+        };
+    }
+
+    private String download(String objectName, PackLocation location, File file) throws Exception {
+        return new S3DownloadCallable(null, null, false, new Destination("bucket", objectName), location,
+                "us-east-1", null, null).download(client, file);
+    }
+
+    private static byte[] randomBytes(int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,68 @@
+package hudson.plugins.s3.callable;
+
+import hudson.FilePath;
+import hudson.plugins.s3.Destination;
+import hudson.plugins.s3.FakeS3Client;
+import hudson.plugins.s3.MultipartSettings;
+import hudson.plugins.s3.UploadSession;
+import hudson.plugins.s3.WorkspaceFile;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class S3UploadCallableTest {
+    private static final long MB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final FakeS3Client client = new FakeS3Client();
+
+    @Test
+    public void testDigestOfSingleUploadIsTheContentOne() throws Exception {
+        assertUploaded(randomBytes(1000));
+        assertEquals(0, client.getSentParts());
+    }
+
+    @Test
+    public void testDigestOfMultipartUploadIsTheContentOne() throws Exception {
+        assertUploaded(randomBytes((int) (11 * MB)));
+        assertEquals(3, client.getSentParts());
+    }
+
+    @Test
+    public void testDigestOfEmptyFile() throws Exception {
+        assertUploaded(new byte[0]);
+    }
+
+    private void assertUploaded(byte[] content) throws Exception {
+        final File file = tmp.newFile();
+        FileUtils.writeByteArrayToFile(file, content);
+        final S3UploadCallable upload = new S3UploadCallable(null, null, false, new Destination("bucket", "file"),
+                Collections.<String, String>emptyMap(), null, "us-east-1", false, null, null,
+                new MultipartSettings(5 * MB, 5 * MB, false));
+
+        final String md5;
+        try (UploadSession session = new UploadSession()) {
+            md5 = upload.invoke(client, session, new FilePath(file), WorkspaceFile.of(new FilePath(file)));
+        }
+
+        assertEquals(DigestUtils.md5Hex(content), md5);
+        assertArrayEquals(content, client.getContent("bucket", "file"));
+    }
+
+    private static byte[] randomBytes(int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}